@@ -0,0 +1,214 @@
+/**
+ * Copyright 2018 University of Leeds
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package eu.ascetic.ioutils;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * This records the columns of a delimited results file. Each column has a
+ * stable id, which is its position within a row. Columns are only ever
+ * added to the end of the schema, so rows written with an older version of
+ * the schema are a prefix of rows written with a newer one.
+ *
+ * Changes to the schema may be recorded in a sidecar file, rather than by
+ * writing further header rows into the results file. Each row of the sidecar
+ * file holds the schema version, the byte offset in the results file at
+ * which that version takes effect and then the column names.
+ *
+ * @author Richard Kavanagh
+ */
+public class ColumnSchema {
+
+    private static final String DELIMETER = "\t";
+    private final HashMap<String, Integer> index = new HashMap<>();
+    private final ArrayList<String> columns = new ArrayList<>();
+    private int version = 0;
+
+    /**
+     * This creates an empty schema.
+     */
+    public ColumnSchema() {
+    }
+
+    /**
+     * This creates a schema with an initial set of columns.
+     *
+     * @param columns The initial columns of the schema
+     */
+    public ColumnSchema(Collection<String> columns) {
+        addColumns(columns);
+    }
+
+    /**
+     * This adds any of the named columns that are not already present to the
+     * end of the schema. If any column is added the version number of the
+     * schema is increased.
+     *
+     * @param names The names of the columns to add
+     * @return If the schema changed as a result of the call
+     */
+    public final boolean addColumns(Collection<String> names) {
+        boolean changed = false;
+        for (String name : names) {
+            if (!index.containsKey(name)) {
+                index.put(name, columns.size());
+                columns.add(name);
+                changed = true;
+            }
+        }
+        if (changed) {
+            version++;
+        }
+        return changed;
+    }
+
+    /**
+     * This gets the id of a column, which is its position within a row.
+     *
+     * @param name The name of the column
+     * @return The id of the column, or -1 if the column is not in the schema.
+     */
+    public int getColumnId(String name) {
+        Integer id = index.get(name);
+        return id == null ? -1 : id;
+    }
+
+    /**
+     * This indicates if a column is present in the schema.
+     *
+     * @param name The name of the column
+     * @return If the column is present in the schema
+     */
+    public boolean contains(String name) {
+        return index.containsKey(name);
+    }
+
+    /**
+     * This tests if all of the named columns are present in the schema.
+     *
+     * @param names The names of the columns to test
+     * @return If every column is present in the schema
+     */
+    public boolean containsAll(Collection<String> names) {
+        for (String name : names) {
+            if (!index.containsKey(name)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * This lists the columns in the order of their ids.
+     *
+     * @return The names of the columns
+     */
+    public List<String> getColumns() {
+        return Collections.unmodifiableList(columns);
+    }
+
+    /**
+     * This gets the name of a column given its id.
+     *
+     * @param id The id of the column
+     * @return The name of the column
+     */
+    public String getColumn(int id) {
+        return columns.get(id);
+    }
+
+    /**
+     * This gives the amount of columns in the schema.
+     *
+     * @return The amount of columns
+     */
+    public int size() {
+        return columns.size();
+    }
+
+    /**
+     * This gets the version of the schema, which increases each time columns
+     * are added.
+     *
+     * @return The version of the schema
+     */
+    public int getVersion() {
+        return version;
+    }
+
+    /**
+     * This provides the location of the sidecar schema file for a given
+     * results file.
+     *
+     * @param resultsFile The results file the schema describes
+     * @return The sidecar file
+     */
+    public static File getSchemaFile(File resultsFile) {
+        return new File(resultsFile.getAbsoluteFile().getParentFile(), resultsFile.getName() + ".schema");
+    }
+
+    /**
+     * This records the current version of the schema in the sidecar file of
+     * a results file.
+     *
+     * @param resultsFile The results file the schema describes
+     * @param offset The byte offset in the results file at which this version
+     * of the schema takes effect.
+     */
+    public void save(File resultsFile, long offset) {
+        ResultsStore store = new ResultsStore(getSchemaFile(resultsFile));
+        store.setDelimeter(DELIMETER);
+        store.add(version);
+        store.append(offset);
+        for (String column : columns) {
+            store.append(column);
+        }
+        store.saveMemoryConservative();
+    }
+
+    /**
+     * This loads the latest version of the schema recorded in the sidecar file
+     * of a results file.
+     *
+     * @param resultsFile The results file the schema describes
+     * @return The latest schema, or null if no schema has been recorded.
+     */
+    public static ColumnSchema load(File resultsFile) {
+        ArrayList<ArrayList<String>> rows = ResultsIO.readResults(getSchemaFile(resultsFile), DELIMETER);
+        for (int i = rows.size() - 1; i >= 0; i--) {
+            ArrayList<String> row = rows.get(i);
+            if (row.size() < 2) {
+                continue;
+            }
+            try {
+                ColumnSchema answer = new ColumnSchema(row.subList(2, row.size()));
+                answer.version = Integer.parseInt(row.get(0));
+                return answer;
+            } catch (NumberFormatException ex) {
+                Logger.getLogger(ColumnSchema.class.getName()).log(Level.WARNING, "Skipping a malformed schema entry");
+            }
+        }
+        return null;
+    }
+
+}
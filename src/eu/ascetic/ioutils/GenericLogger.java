@@ -18,12 +18,28 @@
 package eu.ascetic.ioutils;
 
 import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Collections;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import java.util.concurrent.LinkedBlockingDeque;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.logging.Level;
 import java.util.logging.Logger;
+import java.util.zip.GZIPOutputStream;
 
 /**
  * This classes main purpose is to write the details of some entity to disk. It
@@ -38,9 +54,76 @@ import java.util.logging.Logger;
  */
 public abstract class GenericLogger<T> implements Runnable {
 
-    private final LinkedBlockingDeque<T> queue = new LinkedBlockingDeque<>();
-    private boolean stop = false;
+    /**
+     * This indicates what happens to an item that is printed to file when the
+     * queue of items waiting to be written to disk is full.
+     */
+    public enum OverflowPolicy {
+
+        /**
+         * The caller waits until there is space in the queue.
+         */
+        BLOCK,
+        /**
+         * The oldest item in the queue is discarded to make space.
+         */
+        DROP_OLDEST,
+        /**
+         * The new item is discarded.
+         */
+        DROP_NEWEST,
+        /**
+         * The new item is written by the caller to an overflow file that sits
+         * alongside the log file, i.e. Dataset_host.txt.overflow
+         */
+        SPILL
+    }
+
+    private volatile LinkedBlockingDeque<T> queue = new LinkedBlockingDeque<>();
+    private volatile OverflowPolicy overflowPolicy = OverflowPolicy.BLOCK;
+    private final AtomicLong acceptedCount = new AtomicLong();
+    private final AtomicLong droppedCount = new AtomicLong();
+    private final AtomicLong spilledCount = new AtomicLong();
+    private final Object writeLock = new Object();
+    private ResultsStore overflowFile = null;
+    private volatile boolean stop = false;
+    private volatile int maxBatchSize = Integer.MAX_VALUE;
+    private volatile long maxLinger = 0;
+    private volatile ScheduledExecutorService writerPool = null;
+    private final AtomicBoolean drainScheduled = new AtomicBoolean(false);
+    private final AtomicBoolean finished = new AtomicBoolean(false);
+    private final Runnable drainTask = new Runnable() {
+        @Override
+        public void run() {
+            drainQueue();
+        }
+    };
     protected ResultsStore saveFile = null;
+    private long maxSegmentSize = 0;
+    private long segmentDuration = 0;
+    private boolean compressSegments = true;
+    private long segmentPeriod = -1;
+    private long segmentFirst = Long.MAX_VALUE;
+    private long segmentLast = Long.MIN_VALUE;
+    private SegmentManifest manifest = null;
+    /**
+     * The compression of this logger's most recently closed segment, which is
+     * waited for when the logger finishes.
+     */
+    private Future<?> lastSegment = null;
+    /**
+     * The single daemon thread that closed segments of every logger are
+     * compressed on, so that many loggers do not each need a thread of their
+     * own.
+     */
+    private static final ExecutorService SEGMENT_CLOSER = Executors.newSingleThreadExecutor(new ThreadFactory() {
+        @Override
+        public Thread newThread(Runnable task) {
+            Thread thread = new Thread(task, "log-segment-closer");
+            thread.setDaemon(true);
+            return thread;
+        }
+    });
 
     private GenericLogger() {
     }
@@ -54,6 +137,7 @@ public abstract class GenericLogger<T> implements Runnable {
      */
     public GenericLogger(File file, boolean overwrite) {
         saveFile = new ResultsStore(file);
+        saveFile.setPersistentWriter(true);
         if (overwrite && file.exists()) {
             file.delete();
         }
@@ -67,7 +151,57 @@ public abstract class GenericLogger<T> implements Runnable {
      * @param item The item to print to file.
      */
     public void printToFile(T item) {
-        queue.add(item);
+        LinkedBlockingDeque<T> current = queue;
+        if (current.offerLast(item)) {
+            acceptedCount.incrementAndGet();
+            scheduleDrain();
+            return;
+        }
+        switch (overflowPolicy) {
+            case BLOCK:
+                try {
+                    current.putLast(item);
+                    acceptedCount.incrementAndGet();
+                    scheduleDrain();
+                } catch (InterruptedException ex) {
+                    Thread.currentThread().interrupt();
+                    droppedCount.incrementAndGet();
+                }
+                break;
+            case DROP_OLDEST:
+                while (!current.offerLast(item)) {
+                    if (current.pollFirst() != null) {
+                        droppedCount.incrementAndGet();
+                    }
+                }
+                acceptedCount.incrementAndGet();
+                scheduleDrain();
+                break;
+            case DROP_NEWEST:
+                droppedCount.incrementAndGet();
+                break;
+            case SPILL:
+                spill(item);
+                break;
+        }
+    }
+
+    /**
+     * This writes an item that could not be queued out to the overflow file,
+     * on the caller's thread.
+     *
+     * @param item The item to write to the overflow file
+     */
+    private void spill(T item) {
+        synchronized (writeLock) {
+            if (overflowFile == null) {
+                File file = saveFile.getResultsFile().getAbsoluteFile();
+                overflowFile = new ResultsStore(new File(file.getParentFile(), file.getName() + ".overflow"));
+                overflowFile.setDelimeter(saveFile.getDelimeter());
+            }
+            saveToDisk(overflowFile, Collections.singletonList(item));
+        }
+        spilledCount.incrementAndGet();
     }
 
     /**
@@ -77,23 +211,492 @@ public abstract class GenericLogger<T> implements Runnable {
     @Override
     public void run() {
         Logger.getLogger(GenericLogger.class.getName()).log(Level.FINER, "The logger for the file {0} started.", saveFile.getResultsFile().getName());
+        ArrayList<T> items = new ArrayList<>();
         while (!stop || !queue.isEmpty()) {
             try {
                 T currentItem = queue.poll(30, TimeUnit.SECONDS);
                 if (currentItem != null) {
-                    Logger.getLogger(GenericLogger.class.getName()).log(Level.FINER, "The logger for the file {0} wrote to disk.", saveFile.getResultsFile().getName());
-                    ArrayList<T> items = new ArrayList<>();
                     items.add(currentItem);
-                    queue.drainTo(items);
-                    saveToDisk(saveFile, items);
+                    fillBatch(items);
+                    writeBatch(items);
                 }
             } catch (InterruptedException ex) {
                 Logger.getLogger(GenericLogger.class.getName()).log(Level.SEVERE, null, ex);
             }
         }
+        finish();
+    }
+
+    /**
+     * This starts the reporting process going on a pool of writer threads
+     * that is shared with other loggers, instead of a thread dedicated to
+     * this logger. Whenever items are queued a task that writes them out is
+     * scheduled on the pool, after the linger time. At most one such task is
+     * scheduled at a time for each logger, so the items of a logger are still
+     * written in order by one thread at a time.
+     *
+     * @param writerPool The pool of threads to write out items with.
+     */
+    public void start(ScheduledExecutorService writerPool) {
+        this.writerPool = writerPool;
+        Logger.getLogger(GenericLogger.class.getName()).log(Level.FINER, "The logger for the file {0} started.", saveFile.getResultsFile().getName());
+        if (stop || !queue.isEmpty()) {
+            scheduleDrain();
+        }
+    }
+
+    /**
+     * This schedules a task on the writer pool to write out queued items, if
+     * the logger is using a writer pool and no task is already scheduled.
+     */
+    private void scheduleDrain() {
+        ScheduledExecutorService pool = writerPool;
+        if (pool != null && drainScheduled.compareAndSet(false, true)) {
+            try {
+                pool.schedule(drainTask, stop ? 0 : maxLinger, TimeUnit.MILLISECONDS);
+            } catch (RejectedExecutionException ex) {
+                //The pool is shutting down, so finish the work on this thread
+                drainTask.run();
+            }
+        }
+    }
+
+    /**
+     * This writes out the queued items when the logger is using a writer
+     * pool. Once the logger has been told to stop everything that remains in
+     * the queue is written out and the log file closed.
+     */
+    private void drainQueue() {
+        boolean stopping = stop;
+        ArrayList<T> items = new ArrayList<>();
+        do {
+            queue.drainTo(items, maxBatchSize);
+            if (!items.isEmpty()) {
+                writeBatch(items);
+            }
+        } while (stopping && !queue.isEmpty());
+        if (stopping) {
+            finish();
+            return;
+        }
+        drainScheduled.set(false);
+        if (stop || !queue.isEmpty()) {
+            scheduleDrain();
+        }
+    }
+
+    /**
+     * This writes a batch of items out to disk and then clears the batch.
+     *
+     * @param items The items to write out
+     */
+    private void writeBatch(ArrayList<T> items) {
+        Logger.getLogger(GenericLogger.class.getName()).log(Level.FINER, "The logger for the file {0} wrote to disk.", saveFile.getResultsFile().getName());
+        synchronized (writeLock) {
+            rollSegmentIfNeeded();
+            saveToDisk(saveFile, items);
+        }
+        for (T item : items) {
+            long time = getTimestamp(item);
+            segmentFirst = Math.min(segmentFirst, time);
+            segmentLast = Math.max(segmentLast, time);
+        }
+        items.clear();
+    }
+
+    /**
+     * This closes the log file once all work has been completed.
+     */
+    private void finish() {
+        if (!finished.compareAndSet(false, true)) {
+            return;
+        }
+        synchronized (writeLock) {
+            saveFile.close();
+            closeFiles();
+        }
+        if (lastSegment != null) {
+            //Allow any segments that are still been compressed to finish
+            try {
+                lastSegment.get();
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+            } catch (ExecutionException ex) {
+                Logger.getLogger(GenericLogger.class.getName()).log(Level.SEVERE, "Unable to close a log segment", ex);
+            }
+        }
         Logger.getLogger(GenericLogger.class.getName()).log(Level.INFO, "The logger for the file {0} has now stopped.", saveFile.getResultsFile().getName());
     }
 
+    /**
+     * This adds further queued items to a batch that is about to be written
+     * to disk. Items are added until the batch reaches the maximum batch size
+     * or the linger time since the first item was taken has passed, whichever
+     * comes first. Once the logger has been told to stop it no longer waits
+     * for further items to arrive.
+     *
+     * @param items The batch, which already holds its first item
+     * @throws InterruptedException If interrupted while waiting for items
+     */
+    private void fillBatch(ArrayList<T> items) throws InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(maxLinger);
+        while (items.size() < maxBatchSize) {
+            queue.drainTo(items, maxBatchSize - items.size());
+            long remaining = deadline - System.nanoTime();
+            if (items.size() >= maxBatchSize || remaining <= 0 || stop) {
+                return;
+            }
+            T next = queue.poll(remaining, TimeUnit.NANOSECONDS);
+            if (next == null) {
+                return;
+            }
+            items.add(next);
+        }
+    }
+
+    /**
+     * This sets the maximum amount of items that are written to disk in one
+     * go. By default all queued items are written at once.
+     *
+     * @param maxBatchSize The maximum amount of items in a batch
+     */
+    public void setMaxBatchSize(int maxBatchSize) {
+        this.maxBatchSize = Math.max(1, maxBatchSize);
+    }
+
+    /**
+     * This gets the maximum amount of items that are written to disk in one
+     * go.
+     *
+     * @return The maximum amount of items in a batch
+     */
+    public int getMaxBatchSize() {
+        return maxBatchSize;
+    }
+
+    /**
+     * This sets how long the logger waits for further items to arrive, after
+     * the first item of a batch, before writing the batch to disk. Larger
+     * values group writes into fewer, larger batches at the cost of a delay
+     * before items reach the disk. By default the logger does not wait.
+     *
+     * @param maxLinger The maximum time to wait in milliseconds
+     */
+    public void setMaxLinger(long maxLinger) {
+        this.maxLinger = Math.max(0, maxLinger);
+    }
+
+    /**
+     * This gets how long the logger waits for further items to arrive, after
+     * the first item of a batch, before writing the batch to disk.
+     *
+     * @return The maximum time to wait in milliseconds
+     */
+    public long getMaxLinger() {
+        return maxLinger;
+    }
+
+    /**
+     * This closes the current segment of the log file and starts a new one, if
+     * the current segment has become too large or the segment's period of time
+     * has passed. The closed segment is renamed, then compressed and added to
+     * the manifest on a background thread so that logging is not held up.
+     */
+    private void rollSegmentIfNeeded() {
+        if (maxSegmentSize <= 0 && segmentDuration <= 0) {
+            return;
+        }
+        File current = saveFile.getResultsFile();
+        long now = System.currentTimeMillis() / 1000;
+        if (segmentPeriod == -1) {
+            segmentPeriod = getSegmentPeriod(current.exists() ? current.lastModified() / 1000 : now);
+        }
+        boolean tooLarge = maxSegmentSize > 0 && current.length() >= maxSegmentSize;
+        boolean expired = segmentDuration > 0 && getSegmentPeriod(now) != segmentPeriod;
+        segmentPeriod = getSegmentPeriod(now);
+        if (!current.exists() || !(tooLarge || expired)) {
+            return;
+        }
+        if (segmentFirst > segmentLast) {
+            //Nothing was written to this segment by this logger, i.e. it pre-dates it
+            segmentFirst = 0;
+            segmentLast = current.lastModified() / 1000;
+        }
+        saveFile.close();
+        closeFiles();
+        final File segment = getSegmentFile(current, segmentFirst);
+        final long first = segmentFirst;
+        final long last = segmentLast;
+        segmentFirst = Long.MAX_VALUE;
+        segmentLast = Long.MIN_VALUE;
+        if (!current.renameTo(segment)) {
+            Logger.getLogger(GenericLogger.class.getName()).log(Level.SEVERE, "Unable to roll the log file {0}", current.getName());
+            return;
+        }
+        segmentRolled(segment);
+        if (manifest == null) {
+            manifest = new SegmentManifest(current);
+        }
+        //Segments are closed in the order they were submitted, by one thread
+        lastSegment = SEGMENT_CLOSER.submit(new Runnable() {
+            @Override
+            public void run() {
+                File closed = (compressSegments ? compress(segment) : segment);
+                manifest.add(closed, first, last);
+            }
+        });
+    }
+
+    /**
+     * This indicates which period of time a given time falls within, such
+     * that segments roll over on whole multiples of the segment duration.
+     *
+     * @param time The time in Unix time
+     * @return The index of the period that the time falls within
+     */
+    private long getSegmentPeriod(long time) {
+        return segmentDuration > 0 ? time / segmentDuration : 0;
+    }
+
+    /**
+     * This provides a unique name for a closed segment of the log file. The
+     * name is based upon the log file's name and the segment's first time
+     * stamp, i.e. Dataset_host.txt becomes Dataset_host-1514764800.txt.
+     *
+     * @param current The active log file
+     * @param first The first time stamp held in the segment
+     * @return The file to move the closed segment to
+     */
+    private File getSegmentFile(File current, long first) {
+        String name = current.getName();
+        int dot = name.lastIndexOf('.');
+        String base = (dot > 0 ? name.substring(0, dot) : name) + "-" + first;
+        String extension = (dot > 0 ? name.substring(dot) : "");
+        File answer = new File(current.getAbsoluteFile().getParentFile(), base + extension);
+        int sequence = 1;
+        while (answer.exists() || new File(answer.getPath() + ".gz").exists()) {
+            answer = new File(current.getAbsoluteFile().getParentFile(), base + "-" + sequence + extension);
+            sequence++;
+        }
+        return answer;
+    }
+
+    /**
+     * This compresses a closed segment of the log file, removing the original
+     * once the compressed copy has been written.
+     *
+     * @param segment The segment to compress
+     * @return The compressed file, or the original if compression failed.
+     */
+    private static File compress(File segment) {
+        File compressed = new File(segment.getPath() + ".gz");
+        try (InputStream in = new FileInputStream(segment);
+                OutputStream out = new GZIPOutputStream(new FileOutputStream(compressed))) {
+            byte[] buffer = new byte[65536];
+            int read;
+            while ((read = in.read(buffer)) != -1) {
+                out.write(buffer, 0, read);
+            }
+        } catch (IOException ex) {
+            Logger.getLogger(GenericLogger.class.getName()).log(Level.SEVERE, "Unable to compress the log segment " + segment.getName(), ex);
+            compressed.delete();
+            return segment;
+        }
+        segment.delete();
+        return compressed;
+    }
+
+    /**
+     * This is called on the logger's thread whenever the log file is closed,
+     * i.e. before it is rolled into a segment and once the logger has stopped
+     * and written out its queue. It may be overridden to close any streams
+     * that the logger holds open between writes.
+     */
+    protected void closeFiles() {
+    }
+
+    /**
+     * This is called on the logger's thread after the log file has been
+     * closed and moved to become a segment, but before the segment is
+     * compressed. It may be overridden to move any files that accompany the
+     * log file along with it.
+     *
+     * @param segment The file the closed segment has been moved to
+     */
+    protected void segmentRolled(File segment) {
+    }
+
+    /**
+     * This provides the time stamp of an item, which is used to record the
+     * range of time that each segment of the log file covers. By default it
+     * is the time at which the item is written to disk. It may be overridden
+     * to give the time recorded within the item.
+     *
+     * @param item The item to get the time stamp of
+     * @return The time stamp of the item in Unix time.
+     */
+    protected long getTimestamp(T item) {
+        return System.currentTimeMillis() / 1000;
+    }
+
+    /**
+     * This sets the maximum amount of items that may wait in the queue to be
+     * written to disk. This should be set before the logger is started. By
+     * default the queue is unbounded.
+     *
+     * @param capacity The maximum amount of items that may be queued
+     */
+    public void setQueueCapacity(int capacity) {
+        LinkedBlockingDeque<T> previous = queue;
+        LinkedBlockingDeque<T> replacement = new LinkedBlockingDeque<>(capacity);
+        previous.drainTo(replacement, capacity);
+        queue = replacement;
+        droppedCount.addAndGet(previous.size());
+    }
+
+    /**
+     * This gets the maximum amount of items that may wait in the queue to be
+     * written to disk.
+     *
+     * @return The capacity of the queue
+     */
+    public int getQueueCapacity() {
+        LinkedBlockingDeque<T> current = queue;
+        return current.size() + current.remainingCapacity();
+    }
+
+    /**
+     * This gets the amount of items currently waiting to be written to disk.
+     *
+     * @return The amount of items in the queue
+     */
+    public int getQueueSize() {
+        return queue.size();
+    }
+
+    /**
+     * This sets what happens to items when the queue is full. By default the
+     * caller waits for space to become available.
+     *
+     * @param overflowPolicy The policy to apply when the queue is full
+     */
+    public void setOverflowPolicy(OverflowPolicy overflowPolicy) {
+        this.overflowPolicy = overflowPolicy;
+    }
+
+    /**
+     * This gets what happens to items when the queue is full.
+     *
+     * @return The policy applied when the queue is full
+     */
+    public OverflowPolicy getOverflowPolicy() {
+        return overflowPolicy;
+    }
+
+    /**
+     * This gets the count of items that have been accepted onto the queue.
+     *
+     * @return The count of items queued for writing to the log file
+     */
+    public long getAcceptedCount() {
+        return acceptedCount.get();
+    }
+
+    /**
+     * This gets the count of items that have been discarded because the queue
+     * was full.
+     *
+     * @return The count of items dropped
+     */
+    public long getDroppedCount() {
+        return droppedCount.get();
+    }
+
+    /**
+     * This gets the count of items that have been written to the overflow
+     * file because the queue was full.
+     *
+     * @return The count of items spilled to the overflow file
+     */
+    public long getSpilledCount() {
+        return spilledCount.get();
+    }
+
+    /**
+     * This sets the size at which the log file is closed and a new segment is
+     * started. By default the log file is not rolled based upon its size.
+     *
+     * @param maxSegmentSize The size in bytes at which the log file is rolled,
+     * zero or less disables size based rolling.
+     */
+    public void setMaxSegmentSize(long maxSegmentSize) {
+        this.maxSegmentSize = maxSegmentSize;
+    }
+
+    /**
+     * This gets the size at which the log file is closed and a new segment is
+     * started.
+     *
+     * @return The size in bytes at which the log file is rolled, zero or less
+     * indicates size based rolling is disabled.
+     */
+    public long getMaxSegmentSize() {
+        return maxSegmentSize;
+    }
+
+    /**
+     * This sets the period of time after which the log file is closed and a
+     * new segment is started, i.e. 3600 for hourly segments. Segments roll
+     * over on whole multiples of this period. By default the log file is not
+     * rolled based upon time.
+     *
+     * @param segmentDuration The duration of a segment in seconds, zero or
+     * less disables time based rolling.
+     */
+    public void setSegmentDuration(long segmentDuration) {
+        this.segmentDuration = segmentDuration;
+    }
+
+    /**
+     * This gets the period of time after which the log file is closed and a
+     * new segment is started.
+     *
+     * @return The duration of a segment in seconds, zero or less indicates time
+     * based rolling is disabled.
+     */
+    public long getSegmentDuration() {
+        return segmentDuration;
+    }
+
+    /**
+     * This sets if closed segments of the log file are gzip compressed. By
+     * default they are.
+     *
+     * @param compressSegments If closed segments should be compressed
+     */
+    public void setCompressSegments(boolean compressSegments) {
+        this.compressSegments = compressSegments;
+    }
+
+    /**
+     * This indicates if closed segments of the log file are gzip compressed.
+     *
+     * @return If closed segments are compressed
+     */
+    public boolean isCompressSegments() {
+        return compressSegments;
+    }
+
+    /**
+     * This provides the manifest of the closed segments of the log file,
+     * which indicates the range of time each segment covers.
+     *
+     * @return The manifest of closed segments.
+     */
+    public SegmentManifest getSegmentManifest() {
+        return new SegmentManifest(saveFile.getResultsFile());
+    }
+
     /**
      * This writes an item out to disk for the purpose of auditing what is going
      * on. It by default overwrites the previous file.
@@ -184,10 +787,22 @@ public abstract class GenericLogger<T> implements Runnable {
 
     /**
      * This permanently stops the reporter. It will however report all queued
-     * work, before quitting.
+     * work, before quitting. The results file is flushed and closed by the
+     * logger's thread once the queue has been emptied.
      */
     public void stop() {
         this.stop = true;
+        scheduleDrain();
+    }
+
+    /**
+     * This indicates if the logger has stopped, written out all queued work
+     * and closed its log file.
+     *
+     * @return If the logger has finished
+     */
+    public boolean isFinished() {
+        return finished.get();
     }
     
     
@@ -0,0 +1,273 @@
+/**
+ * Copyright 2018 University of Leeds
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package eu.ascetic.ioutils;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+/**
+ * This reads a delimited file from disk one row at a time, via a memory
+ * mapping of the file. Unlike ResultsIO.readResults the file is never
+ * materialised in memory as a whole, so it is suitable for data sets that are
+ * larger than the heap. Rows only hold the position of their data in the
+ * mapped file, fields are split and converted into strings when they are
+ * accessed.
+ *
+ * Unlike ResultsIO.readResults, empty fields are preserved so that columns
+ * remain aligned with the header row.
+ *
+ * @author Richard Kavanagh
+ */
+public class MappedResultsReader implements Iterator<MappedResultsReader.Row>, Closeable {
+
+    /**
+     * The size of the region of the file that is mapped at any one time.
+     */
+    private static final long WINDOW_SIZE = 64L * 1024 * 1024;
+    private final RandomAccessFile file;
+    private final FileChannel channel;
+    private final long fileSize;
+    private final byte[] delimeter;
+    private ByteBuffer window = null;
+    private long windowStart = 0;
+    private long position = 0;
+
+    /**
+     * This opens a delimited file for reading.
+     *
+     * @param file The file to read in from disk
+     * @param delimeter The delimeter to use when parsing the file.
+     * @throws IOException If the file could not be opened
+     */
+    public MappedResultsReader(File file, String delimeter) throws IOException {
+        this.file = new RandomAccessFile(file, "r");
+        this.channel = this.file.getChannel();
+        this.fileSize = channel.size();
+        this.delimeter = delimeter.getBytes(StandardCharsets.UTF_8);
+    }
+
+    @Override
+    public boolean hasNext() {
+        return position < fileSize;
+    }
+
+    @Override
+    public Row next() {
+        if (!hasNext()) {
+            throw new NoSuchElementException();
+        }
+        try {
+            long windowSize = WINDOW_SIZE;
+            if (window == null || position >= windowStart + window.limit()) {
+                map(position, windowSize);
+            }
+            while (true) {
+                int start = (int) (position - windowStart);
+                int limit = window.limit();
+                for (int i = start; i < limit; i++) {
+                    if (window.get(i) == '\n') {
+                        position = windowStart + i + 1;
+                        return new Row(window, start, stripCarriageReturn(start, i));
+                    }
+                }
+                if (windowStart + limit >= fileSize) {
+                    //The last line in the file need not have an end of line marker
+                    position = fileSize;
+                    return new Row(window, start, stripCarriageReturn(start, limit));
+                }
+                //The row crosses the end of the window so remap from its start
+                if (start == 0) {
+                    windowSize = Math.min(windowSize * 2, Integer.MAX_VALUE);
+                }
+                map(position, windowSize);
+            }
+        } catch (IOException ex) {
+            throw new IllegalStateException("Unable to read from results file", ex);
+        }
+    }
+
+    @Override
+    public void remove() {
+        throw new UnsupportedOperationException("The results file is read only.");
+    }
+
+    /**
+     * This maps a region of the file into memory.
+     *
+     * @param start The position in the file to start the mapping
+     * @param size The maximum size of the region to map
+     * @throws IOException If the mapping fails
+     */
+    private void map(long start, long size) throws IOException {
+        windowStart = start;
+        window = channel.map(FileChannel.MapMode.READ_ONLY, start, Math.min(size, fileSize - start));
+    }
+
+    /**
+     * This removes the carriage return from the end of a windows line ending.
+     *
+     * @param start The start of the row
+     * @param end The end of the row, excluding the new line character
+     * @return The end of the row, excluding any carriage return.
+     */
+    private int stripCarriageReturn(int start, int end) {
+        if (end > start && window.get(end - 1) == '\r') {
+            return end - 1;
+        }
+        return end;
+    }
+
+    /**
+     * This indicates the position in the file that the next row will be read
+     * from.
+     *
+     * @return The position in bytes from the start of the file.
+     */
+    public long getPosition() {
+        return position;
+    }
+
+    @Override
+    public void close() throws IOException {
+        window = null;
+        file.close();
+    }
+
+    /**
+     * This represents a single row of a delimited file. Its fields are only
+     * located and converted into strings when they are first accessed.
+     */
+    public class Row {
+
+        private final ByteBuffer buffer;
+        private final int start;
+        private final int end;
+        private int[] fieldStarts = null;
+        private int fieldCount = 0;
+
+        /**
+         * This creates a row that is backed by a region of the mapped file.
+         *
+         * @param buffer The mapped region of the file the row is in
+         * @param start The start of the row in the buffer
+         * @param end The end of the row in the buffer, exclusive of any end of
+         * line marker.
+         */
+        private Row(ByteBuffer buffer, int start, int end) {
+            this.buffer = buffer;
+            this.start = start;
+            this.end = end;
+        }
+
+        /**
+         * This finds the start of each field in the row.
+         */
+        private void split() {
+            if (fieldStarts != null) {
+                return;
+            }
+            fieldStarts = new int[8];
+            if (end == start) {
+                return;
+            }
+            fieldStarts[fieldCount++] = start;
+            for (int i = start; i <= end - delimeter.length; i++) {
+                if (matchesDelimeter(i)) {
+                    if (fieldCount == fieldStarts.length) {
+                        int[] grown = new int[fieldStarts.length * 2];
+                        System.arraycopy(fieldStarts, 0, grown, 0, fieldCount);
+                        fieldStarts = grown;
+                    }
+                    i = i + delimeter.length;
+                    fieldStarts[fieldCount++] = i;
+                    i--;
+                }
+            }
+        }
+
+        /**
+         * This tests if the delimeter is present at a given position.
+         *
+         * @param index The position in the buffer to test
+         * @return If the delimeter starts at the given position
+         */
+        private boolean matchesDelimeter(int index) {
+            for (int j = 0; j < delimeter.length; j++) {
+                if (buffer.get(index + j) != delimeter[j]) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        /**
+         * This gives the amount of fields in the row.
+         *
+         * @return The amount of fields in the row.
+         */
+        public int size() {
+            split();
+            return fieldCount;
+        }
+
+        /**
+         * This gets a field from the row.
+         *
+         * @param column The column of the field to get
+         * @return The string value of the field
+         */
+        public String get(int column) {
+            split();
+            if (column < 0 || column >= fieldCount) {
+                throw new IndexOutOfBoundsException("Column: " + column + " Size: " + fieldCount);
+            }
+            int fieldStart = fieldStarts[column];
+            int fieldEnd = (column == fieldCount - 1 ? end : fieldStarts[column + 1] - delimeter.length);
+            byte[] bytes = new byte[fieldEnd - fieldStart];
+            for (int i = 0; i < bytes.length; i++) {
+                bytes[i] = buffer.get(fieldStart + i);
+            }
+            return new String(bytes, StandardCharsets.UTF_8);
+        }
+
+        /**
+         * This converts the whole row into a list of strings.
+         *
+         * @return The fields of the row.
+         */
+        public ArrayList<String> toList() {
+            ArrayList<String> answer = new ArrayList<>(size());
+            for (int i = 0; i < fieldCount; i++) {
+                answer.add(get(i));
+            }
+            return answer;
+        }
+
+        @Override
+        public String toString() {
+            return toList().toString();
+        }
+    }
+
+}
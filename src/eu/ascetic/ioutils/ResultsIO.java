@@ -24,6 +24,7 @@ import java.io.File;
 import java.io.FileReader;
 import java.io.FileWriter;
 import java.io.IOException;
+import java.io.Writer;
 import java.util.ArrayList;
 import java.util.StringTokenizer;
 import java.util.logging.Level;
@@ -124,32 +125,46 @@ public class ResultsIO {
         try {
             FileWriter fileWriter = new FileWriter(file, append);
             try (BufferedWriter bufferedWriter = new BufferedWriter(fileWriter)) {
-                String element;
-                for (int k = 0; k < results.size(); k++) {
-                    ArrayList<String> currentRow = results.get(k);
-                    for (int i = 0; i < currentRow.size(); i++) {
-                        element = currentRow.get(i);
-                        if (i != currentRow.size() - 1) {
-                            bufferedWriter.write(element + delimeter);
-                        } else {
-                            /**
-                             * The test below ensures the end of file does not finish with a new line marker
-                             * but only when not appending to the file.
-                             */
-                            if (k != results.size() - 1 || append) {
-                                bufferedWriter.write(element + NEW_LINE);
-                            } else {
-                                bufferedWriter.write(element);
-                            }
-                        }
-                    }
-                }
+                writeResults(results, bufferedWriter, delimeter, append);
             }
         } catch (IOException ioe) {
             Logger.getLogger(ResultsIO.class.getName()).log(Level.SEVERE, "Unable to write to results file", ioe);
         }
     }
 
+    /**
+     * This writes results out to an already open writer. The writer is
+     * neither flushed nor closed, which allows it to be kept open between
+     * writes.
+     *
+     * @param results The set of values to be written out.
+     * @param writer The writer to write the results to
+     * @param delimeter The delimeter to use when parsing the file.
+     * @param append If the results are been appended to a file, in which case
+     * the last row is terminated with an end of line marker.
+     * @throws IOException If the write fails
+     */
+    public static void writeResults(ArrayList<ArrayList<String>> results,
+            Writer writer, String delimeter, boolean append) throws IOException {
+        String element;
+        for (int k = 0; k < results.size(); k++) {
+            ArrayList<String> currentRow = results.get(k);
+            for (int i = 0; i < currentRow.size(); i++) {
+                element = currentRow.get(i);
+                writer.write(element);
+                if (i != currentRow.size() - 1) {
+                    writer.write(delimeter);
+                } else if (k != results.size() - 1 || append) {
+                    /**
+                     * The test above ensures the end of file does not finish with a new line marker
+                     * but only when not appending to the file.
+                     */
+                    writer.write(NEW_LINE);
+                }
+            }
+        }
+    }
+
     /**
      * This reads in a comma separated file from disk.
      *
@@ -219,4 +234,17 @@ public class ResultsIO {
         return results;
 
     }
+
+    /**
+     * This opens a file for reading one row at a time. The file is memory
+     * mapped so the whole file never needs to be held on the heap.
+     *
+     * @param file The file to read in from disk
+     * @param delimeter The delimeter to use when parsing the file.
+     * @return A reader that iterates over the rows of the file.
+     * @throws IOException If the file could not be opened
+     */
+    public static MappedResultsReader streamResults(File file, String delimeter) throws IOException {
+        return new MappedResultsReader(file, delimeter);
+    }
 }
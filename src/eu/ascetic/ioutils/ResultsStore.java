@@ -19,9 +19,15 @@
 
 package eu.ascetic.ioutils;
 
+import java.io.BufferedWriter;
 import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.Writer;
 import java.util.ArrayList;
 import java.util.Collections;
+import java.util.logging.Level;
+import java.util.logging.Logger;
 
 /**
  * This is a storage mechanism for saving results, without necessarily looping
@@ -37,6 +43,9 @@ public class ResultsStore {
     private ArrayList<ArrayList<String>> results = new ArrayList<>();
     private String delimeter = ",";
     private File resultsFile;
+    private boolean persistentWriter = false;
+    private BufferedWriter writer = null;
+    private RowBuffer rowBuffer = null;
 
     /**
      * The no-args constructor
@@ -250,6 +259,36 @@ public class ResultsStore {
         results = ResultsIO.readResults(resultsFile);
     }
 
+    /**
+     * This opens a reader that pages through the results file without
+     * loading all of it into memory. It uses the delimeter of this store.
+     *
+     * @return A reader positioned at the start of the results file.
+     * @throws IOException If the results file could not be opened
+     * @see #load(MappedResultsReader, int)
+     */
+    public MappedResultsReader getReader() throws IOException {
+        return ResultsIO.streamResults(resultsFile, delimeter);
+    }
+
+    /**
+     * This loads the next page of rows from the results file into memory. In
+     * doing so it overwrites the current contents.
+     *
+     * @param reader The reader to take the rows from, as obtained from
+     * {@link #getReader()}.
+     * @param pageSize The maximum amount of rows to load.
+     * @return The amount of rows loaded, zero once the end of the file has
+     * been reached.
+     */
+    public int load(MappedResultsReader reader, int pageSize) {
+        results.clear();
+        while (results.size() < pageSize && reader.hasNext()) {
+            results.add(reader.next().toList());
+        }
+        return results.size();
+    }
+
     /**
      * This saves the current contents of memory to disk.
      */
@@ -263,8 +302,114 @@ public class ResultsStore {
      * from at once but is very useful when logging out to disk.
      */
     public void saveMemoryConservative() {
-        ResultsIO.writeResults(results, resultsFile, delimeter, true);
+        if (persistentWriter) {
+            try {
+                if (writer == null) {
+                    writer = new BufferedWriter(new FileWriter(resultsFile, true));
+                }
+                write(writer);
+                writer.flush();
+            } catch (IOException ioe) {
+                Logger.getLogger(ResultsStore.class.getName()).log(Level.SEVERE, "Unable to write to results file", ioe);
+                close();
+            }
+        } else if (rowBuffer == null || rowBuffer.isEmpty()) {
+            ResultsIO.writeResults(results, resultsFile, delimeter, true);
+        } else {
+            try (BufferedWriter out = new BufferedWriter(new FileWriter(resultsFile, true))) {
+                write(out);
+            } catch (IOException ioe) {
+                Logger.getLogger(ResultsStore.class.getName()).log(Level.SEVERE, "Unable to write to results file", ioe);
+            }
+        }
         results.clear();
+        if (rowBuffer != null) {
+            rowBuffer.clear();
+        }
+    }
+
+    /**
+     * This writes the rows held in memory and then the rows held in the row
+     * buffer out to a writer.
+     *
+     * @param out The writer to write to
+     * @throws IOException If the write fails
+     */
+    private void write(Writer out) throws IOException {
+        ResultsIO.writeResults(results, out, delimeter, true);
+        if (rowBuffer != null) {
+            rowBuffer.writeTo(out);
+        }
+    }
+
+    /**
+     * This provides a reusable buffer that rows may be formatted directly
+     * into, rather than been added as lists of strings. The buffered rows are
+     * written out by {@link #saveMemoryConservative()}, after any rows held
+     * in memory.
+     *
+     * @return The row buffer of this results store
+     */
+    public RowBuffer getRowBuffer() {
+        if (rowBuffer == null) {
+            rowBuffer = new RowBuffer(delimeter);
+        }
+        return rowBuffer;
+    }
+
+    /**
+     * This indicates if the results file is kept open between calls to
+     * saveMemoryConservative.
+     *
+     * @return If the results file is kept open between writes.
+     */
+    public boolean isPersistentWriter() {
+        return persistentWriter;
+    }
+
+    /**
+     * This sets if the results file should be kept open between calls to
+     * saveMemoryConservative, rather than been opened and closed on every
+     * write. This is useful when logging out to disk regularly. The file
+     * must be closed via {@link #close()} once it is no longer needed.
+     *
+     * @param persistentWriter If the results file should be kept open between
+     * writes.
+     */
+    public void setPersistentWriter(boolean persistentWriter) {
+        this.persistentWriter = persistentWriter;
+        if (!persistentWriter) {
+            close();
+        }
+    }
+
+    /**
+     * This flushes any data held by the persistent writer out to the results
+     * file. It has no effect if the results file is not open.
+     */
+    public void flush() {
+        if (writer != null) {
+            try {
+                writer.flush();
+            } catch (IOException ioe) {
+                Logger.getLogger(ResultsStore.class.getName()).log(Level.SEVERE, "Unable to flush the results file", ioe);
+            }
+        }
+    }
+
+    /**
+     * This closes the results file if it has been kept open by the persistent
+     * writer. It is reopened automatically on the next write.
+     */
+    public void close() {
+        if (writer != null) {
+            try {
+                writer.close();
+            } catch (IOException ioe) {
+                Logger.getLogger(ResultsStore.class.getName()).log(Level.SEVERE, "Unable to close the results file", ioe);
+            }
+            writer = null;
+        }
     }
 
     /**
@@ -285,6 +430,9 @@ public class ResultsStore {
     public void setDelimeter(String delimeter) {
         if (!delimeter.equals("")) {
             this.delimeter = delimeter;
+            if (rowBuffer != null) {
+                rowBuffer.setDelimeter(delimeter);
+            }
         }
     }
 
@@ -303,6 +451,7 @@ public class ResultsStore {
      * @param resultsFile The file to save and load results from.
      */
     public void setResultsFile(File resultsFile) {
+        close();
         this.resultsFile = resultsFile;
     }
 
@@ -312,6 +461,7 @@ public class ResultsStore {
      * @param filename The filename to save and load results from.
      */
     public void setResultsFile(String filename) {
+        close();
         this.resultsFile = new File(filename);
     }
 
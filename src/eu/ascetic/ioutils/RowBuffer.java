@@ -0,0 +1,219 @@
+/**
+ * Copyright 2018 University of Leeds
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package eu.ascetic.ioutils;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.Arrays;
+
+/**
+ * This is a reusable buffer that rows of a delimited file are formatted
+ * directly into. Unlike adding rows to a ResultsStore as lists of strings,
+ * no intermediate lists or strings are created for each row, which keeps the
+ * amount of garbage created by regular logging to a minimum. The buffer's
+ * storage is kept between rows and only grows when a larger set of rows is
+ * written.
+ *
+ * @author Richard Kavanagh
+ */
+public class RowBuffer {
+
+    private static final String MIN_LONG = Long.toString(Long.MIN_VALUE);
+    private char[] buffer = new char[1024];
+    /**
+     * The space that doubles are formatted into, appending a double to a
+     * string builder does not create a string for it.
+     */
+    private final StringBuilder number = new StringBuilder(32);
+    private int length = 0;
+    private boolean rowStart = true;
+    private String delimeter;
+
+    /**
+     * This creates an empty row buffer.
+     *
+     * @param delimeter The delimeter placed between the fields of a row
+     */
+    public RowBuffer(String delimeter) {
+        this.delimeter = delimeter;
+    }
+
+    /**
+     * This adds a field holding a whole number to the current row.
+     *
+     * @param value The value of the field
+     * @return This row buffer
+     */
+    public RowBuffer add(long value) {
+        startField();
+        if (value == Long.MIN_VALUE) {
+            appendChars(MIN_LONG);
+            return this;
+        }
+        if (value < 0) {
+            ensureCapacity(1);
+            buffer[length++] = '-';
+            value = -value;
+        }
+        int digits = 1;
+        for (long remaining = value / 10; remaining > 0; remaining = remaining / 10) {
+            digits++;
+        }
+        ensureCapacity(digits);
+        for (int i = length + digits - 1; i >= length; i--) {
+            buffer[i] = (char) ('0' + (value % 10));
+            value = value / 10;
+        }
+        length = length + digits;
+        return this;
+    }
+
+    /**
+     * This adds a field holding a number to the current row, in the same form
+     * as Double.toString gives.
+     *
+     * @param value The value of the field
+     * @return This row buffer
+     */
+    public RowBuffer add(double value) {
+        startField();
+        number.setLength(0);
+        number.append(value);
+        int size = number.length();
+        ensureCapacity(size);
+        number.getChars(0, size, buffer, length);
+        length = length + size;
+        return this;
+    }
+
+    /**
+     * This adds a field to the current row.
+     *
+     * @param value The value of the field, null gives an empty field.
+     * @return This row buffer
+     */
+    public RowBuffer add(CharSequence value) {
+        startField();
+        if (value != null) {
+            appendChars(value);
+        }
+        return this;
+    }
+
+    /**
+     * This ends the current row, the next field added starts a new row. Rows
+     * end with the same line separator as is used by ResultsIO.
+     *
+     * @return This row buffer
+     */
+    public RowBuffer endRow() {
+        appendChars(ResultsIO.NEW_LINE);
+        rowStart = true;
+        return this;
+    }
+
+    /**
+     * This writes the contents of the buffer out, the buffer is not cleared.
+     *
+     * @param writer The writer to write the buffered rows to
+     * @throws IOException If the write fails
+     */
+    public void writeTo(Writer writer) throws IOException {
+        writer.write(buffer, 0, length);
+    }
+
+    /**
+     * This empties the buffer, keeping its storage for reuse.
+     */
+    public void clear() {
+        length = 0;
+        rowStart = true;
+    }
+
+    /**
+     * This indicates if the buffer holds no data.
+     *
+     * @return If the buffer is empty
+     */
+    public boolean isEmpty() {
+        return length == 0;
+    }
+
+    /**
+     * This gives the amount of characters held in the buffer.
+     *
+     * @return The length of the buffered data
+     */
+    public int length() {
+        return length;
+    }
+
+    /**
+     * This sets the delimeter placed between the fields of a row.
+     *
+     * @param delimeter The delimeter to use
+     */
+    public void setDelimeter(String delimeter) {
+        this.delimeter = delimeter;
+    }
+
+    @Override
+    public String toString() {
+        return new String(buffer, 0, length);
+    }
+
+    /**
+     * This places a delimeter before the new field, unless it is the first
+     * field of the row.
+     */
+    private void startField() {
+        if (rowStart) {
+            rowStart = false;
+        } else {
+            appendChars(delimeter);
+        }
+    }
+
+    /**
+     * This copies a sequence of characters onto the end of the buffer.
+     *
+     * @param value The characters to copy
+     */
+    private void appendChars(CharSequence value) {
+        int size = value.length();
+        ensureCapacity(size);
+        if (value instanceof String) {
+            ((String) value).getChars(0, size, buffer, length);
+        } else {
+            for (int i = 0; i < size; i++) {
+                buffer[length + i] = value.charAt(i);
+            }
+        }
+        length = length + size;
+    }
+
+    /**
+     * This makes sure there is space for a given amount of further characters.
+     *
+     * @param extra The amount of characters about to be added
+     */
+    private void ensureCapacity(int extra) {
+        if (length + extra > buffer.length) {
+            buffer = Arrays.copyOf(buffer, Math.max(buffer.length * 2, length + extra));
+        }
+    }
+
+}
@@ -0,0 +1,110 @@
+/**
+ * Copyright 2018 University of Leeds
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package eu.ascetic.ioutils;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * This records the closed segments of a rolling log file, along with the
+ * range of time that each segment covers. This allows a reader to go straight
+ * to the segments that cover a given time range.
+ *
+ * The manifest is a tab separated file, with one row per segment holding the
+ * segment's file name, followed by the first and last time stamp in the
+ * segment in Unix time.
+ *
+ * @author Richard Kavanagh
+ */
+public class SegmentManifest {
+
+    private static final String DELIMETER = "\t";
+    private final ResultsStore store;
+
+    /**
+     * This creates a manifest for the segments of a given log file.
+     *
+     * @param resultsFile The active log file that segments are rolled from.
+     */
+    public SegmentManifest(File resultsFile) {
+        store = new ResultsStore(getManifestFile(resultsFile));
+        store.setDelimeter(DELIMETER);
+    }
+
+    /**
+     * This provides the location of the manifest for a given log file.
+     *
+     * @param resultsFile The active log file that segments are rolled from.
+     * @return The file the manifest is held in.
+     */
+    public static File getManifestFile(File resultsFile) {
+        return new File(resultsFile.getAbsoluteFile().getParentFile(), resultsFile.getName() + ".manifest");
+    }
+
+    /**
+     * This adds a closed segment to the manifest.
+     *
+     * @param segment The segment's file
+     * @param first The first time stamp held in the segment in Unix time
+     * @param last The last time stamp held in the segment in Unix time
+     */
+    public synchronized void add(File segment, long first, long last) {
+        store.add(segment.getName());
+        store.append(first);
+        store.append(last);
+        store.saveMemoryConservative();
+    }
+
+    /**
+     * This lists all segments in the manifest in the order they were closed.
+     *
+     * @return The list of segment files.
+     */
+    public List<File> getSegments() {
+        return getSegments(Long.MIN_VALUE, Long.MAX_VALUE);
+    }
+
+    /**
+     * This lists the segments that hold data that falls within a time range.
+     *
+     * @param from The start of the time range in Unix time
+     * @param to The end of the time range in Unix time
+     * @return The list of segment files, in the order they were closed.
+     */
+    public synchronized List<File> getSegments(long from, long to) {
+        List<File> answer = new ArrayList<>();
+        File manifest = store.getResultsFile();
+        for (ArrayList<String> row : ResultsIO.readResults(manifest, DELIMETER)) {
+            if (row.size() < 3) {
+                continue;
+            }
+            try {
+                long first = Long.parseLong(row.get(1));
+                long last = Long.parseLong(row.get(2));
+                if (first <= to && last >= from) {
+                    answer.add(new File(manifest.getParentFile(), row.get(0)));
+                }
+            } catch (NumberFormatException ex) {
+                Logger.getLogger(SegmentManifest.class.getName()).log(Level.WARNING, "Skipping a malformed manifest entry for {0}", row.get(0));
+            }
+        }
+        return answer;
+    }
+
+}
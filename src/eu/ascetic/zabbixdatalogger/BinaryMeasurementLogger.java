@@ -0,0 +1,392 @@
+/**
+ * Copyright 2018 University of Leeds
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package eu.ascetic.zabbixdatalogger;
+
+import eu.ascetic.ioutils.GenericLogger;
+import eu.ascetic.ioutils.ResultsStore;
+import eu.ascetic.zabbixdatalogger.datasource.Measurement;
+import eu.ascetic.zabbixdatalogger.datasource.MetricValue;
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.logging.Level;
+
+/**
+ * This class logs out measurement data to disk in an append only binary
+ * format, as an alternative to the tab separated output of the
+ * MeasurementLogger.
+ *
+ * The file starts with a magic number and a format version. It is then
+ * followed by a sequence of records, each of which starts with a single tag
+ * byte:
+ *
+ * A dictionary record assigns the next free id to a metric key, it holds
+ * the id as a variable length integer followed by the key and then the
+ * metric's name, both in modified UTF-8. It is written the first time a
+ * metric key is seen in the file.
+ *
+ * A measurement record holds the clock of the measurement as a zig-zag
+ * encoded delta from the previous measurement's clock, followed by the metric
+ * count. Each metric is then written as its dictionary id (shifted left by
+ * two, with the lowest bits giving the kind of value), the delta of the
+ * metric's clock from the measurement clock and the value. Whole numbers are
+ * written as zig-zag encoded variable length integers, other numbers as a
+ * raw 8 byte double and anything else, including numbers whose text would
+ * not survive being parsed and printed again, as a string in modified UTF-8.
+
+ *
+ * When appending to an existing file a partially written record at its end,
+ * i.e. from a crash, is truncated away. A file that is corrupt anywhere else
+ * is not appended to, it is moved aside and a new file started, so the
+ * records after the damage are kept for inspection.
+ *
+ * @see BinaryMeasurementReader
+ * @author Richard Kavanagh
+ */
+public class BinaryMeasurementLogger extends GenericLogger<Measurement> {
+
+    /**
+     * The magic number at the start of the file, the ASCII for "GDLB".
+     */
+    public static final int MAGIC = 0x47444C42;
+    /**
+     * The version of the format written out by this logger.
+     */
+    public static final byte VERSION = 1;
+    /**
+     * The tag that marks a new entry in the metric name dictionary.
+     */
+    public static final byte DICTIONARY_RECORD = 1;
+    /**
+     * The tag that marks a measurement record.
+     */
+    public static final byte MEASUREMENT_RECORD = 2;
+    /**
+     * The kind of a value written as a raw double.
+     */
+    public static final int DOUBLE_VALUE = 0;
+    /**
+     * The kind of a value written as a string.
+     */
+    public static final int TEXT_VALUE = 1;
+    /**
+     * The kind of a value written as a whole number.
+     */
+    public static final int WHOLE_VALUE = 2;
+
+    /**
+     * The dictionary, clock state and open stream of each file written to,
+     * i.e. the log file and its overflow file.
+     */
+    private final HashMap<File, FileState> fileStates = new HashMap<>();
+
+    /**
+     * This creates a logger that writes measurements out in binary form.
+     *
+     * @param file The file to write the measurements to
+     * @param overwrite If the file should be overwritten on the first write.
+     */
+    public BinaryMeasurementLogger(File file, boolean overwrite) {
+        super(file, overwrite);
+    }
+
+    @Override
+    public void saveToDisk(ResultsStore store, Measurement item) {
+        saveToDisk(store, Collections.singletonList(item));
+    }
+
+    /**
+     * This writes a collection of measurements out to disk, appending them to
+     * the end of the binary file.
+     *
+     * @param store The results store, which provides the file to write to
+     * @param measurements The measurements to write to file
+     */
+    @Override
+    public void saveToDisk(ResultsStore store, Collection<Measurement> measurements) {
+        File file = store.getResultsFile();
+        FileState state = fileStates.get(file);
+        try {
+            if (state == null) {
+                state = openFile(file);
+                fileStates.put(file, state);
+            }
+            for (Measurement measurement : measurements) {
+                writeMeasurement(state, measurement);
+            }
+            state.out.flush();
+        } catch (IOException ex) {
+            //logging is important but should not stop the main thread from running!
+            java.util.logging.Logger.getLogger(BinaryMeasurementLogger.class.getName()).log(Level.SEVERE, "An error occurred when saving an item to disk", ex);
+            if (state != null) {
+                //The file's state is rebuilt from what made it to disk on the next write
+                close(state);
+                fileStates.remove(file);
+            }
+        }
+    }
+
+    /**
+     * This closes the streams held open on the log file and its overflow
+     * file. They are reopened, and their state restored, by the next write.
+     */
+    @Override
+    protected void closeFiles() {
+        for (FileState state : fileStates.values()) {
+            close(state);
+        }
+        fileStates.clear();
+    }
+
+    /**
+     * This closes the stream of a file, logging rather than throwing any
+     * failure to do so.
+     *
+     * @param state The state of the file to close
+     */
+    private static void close(FileState state) {
+        try {
+            state.out.close();
+        } catch (IOException ex) {
+            java.util.logging.Logger.getLogger(BinaryMeasurementLogger.class.getName()).log(Level.SEVERE, "An error occurred when closing a binary measurement file", ex);
+        }
+    }
+
+    /**
+     * This opens a file for appending to, writing out the file's header if it
+     * is new, otherwise restoring its dictionary and clock state.
+     *
+     * @param file The file to open
+     * @return The state of the file, holding the open stream
+     * @throws IOException If the file could not be read, truncated or opened
+     */
+    private FileState openFile(File file) throws IOException {
+        FileState state = null;
+        if (file.exists() && file.length() > 0) {
+            state = restoreState(file);
+        }
+        boolean newFile = state == null;
+        if (newFile) {
+            //Each file, including each rolled segment, is self contained
+            state = new FileState();
+        }
+        state.out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file, true)));
+        if (newFile) {
+            state.out.writeInt(MAGIC);
+            state.out.writeByte(VERSION);
+        }
+        return state;
+    }
+
+    @Override
+    protected long getTimestamp(Measurement item) {
+        return item.getClock();
+    }
+
+    /**
+     * This rebuilds the metric key dictionary and the last clock value from
+     * a file that is about to be appended to. If the file ends part way
+     * through a record, i.e. from a previous crash, the partial record is
+     * truncated away. If the file is corrupt in any other way it is moved
+     * aside, so that no good records that follow the damage are lost, and a
+     * new file is started in its place.
+     *
+     * @param file The file that is to be appended to
+     * @return The state of the file, or null if a new file should be started
+     * @throws IOException If the file could not be read, truncated or moved
+     */
+    private FileState restoreState(File file) throws IOException {
+        FileState state = new FileState();
+        long validLength;
+        boolean corrupt;
+        try (BinaryMeasurementReader reader = new BinaryMeasurementReader(file, null)) {
+            while (reader.hasNext()) {
+                reader.next();
+            }
+            int id = 0;
+            for (String name : reader.getDictionary()) {
+                state.dictionary.put(name, id);
+                id++;
+            }
+            state.previousClock = reader.getLastClock();
+            validLength = reader.getValidLength();
+            corrupt = reader.isCorrupt();
+        } catch (EOFException ex) {
+            //The file ended part way through its header
+            validLength = 0;
+            corrupt = false;
+            state = null;
+        } catch (IOException ex) {
+            //The file's header is not that of a binary measurement file
+            validLength = 0;
+            corrupt = true;
+        }
+        if (corrupt) {
+            File aside = new File(file.getAbsoluteFile().getParentFile(),
+                    file.getName() + ".corrupt-" + System.currentTimeMillis());
+            java.util.logging.Logger.getLogger(BinaryMeasurementLogger.class.getName()).log(Level.SEVERE,
+                    "The binary measurement file {0} is corrupt after byte {1}, moving it to {2} and starting a new file",
+                    new Object[]{file.getName(), validLength, aside.getName()});
+            if (!file.renameTo(aside)) {
+                throw new IOException("Unable to move the corrupt file " + file.getName() + " aside");
+            }
+            return null;
+        }
+        if (validLength < file.length()) {
+            java.util.logging.Logger.getLogger(BinaryMeasurementLogger.class.getName()).log(Level.WARNING,
+                    "Truncating a partially written record at the end of {0}", file.getName());
+            try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+                raf.setLength(validLength);
+            }
+        }
+        return validLength == 0 ? null : state;
+    }
+
+    /**
+     * This writes a single measurement out, preceded by dictionary records for
+     * any metric names that have not been seen before.
+     *
+     * @param state The dictionary, clock state and stream of the file been
+     * written to
+     * @param measurement The measurement to write
+     * @throws IOException If the write fails
+     */
+    private void writeMeasurement(FileState state, Measurement measurement) throws IOException {
+        DataOutputStream out = state.out;
+        HashMap<String, Integer> dictionary = state.dictionary;
+        Collection<MetricValue> items = measurement.getItems();
+        for (MetricValue item : items) {
+            if (!dictionary.containsKey(item.getKey())) {
+                int id = dictionary.size();
+                dictionary.put(item.getKey(), id);
+                out.writeByte(DICTIONARY_RECORD);
+                writeVarLong(out, id);
+                out.writeUTF(item.getKey());
+                out.writeUTF(item.getName() == null ? item.getKey() : item.getName());
+            }
+        }
+        long clock = measurement.getClock();
+        out.writeByte(MEASUREMENT_RECORD);
+        writeVarLong(out, zigZag(clock - state.previousClock));
+        writeVarLong(out, items.size());
+        for (MetricValue item : items) {
+            long id = dictionary.get(item.getKey());
+            int kind = getKind(item);
+            writeVarLong(out, (id << 2) | kind);
+            writeVarLong(out, zigZag(item.getClock() - clock));
+            if (kind == WHOLE_VALUE) {
+                writeVarLong(out, zigZag((long) item.getValue()));
+            } else if (kind == DOUBLE_VALUE) {
+                out.writeDouble(item.getValue());
+            } else {
+                out.writeUTF(item.getValueAsString());
+            }
+        }
+        state.previousClock = clock;
+    }
+
+    /**
+     * This works out how a metric's value should be written so that it reads
+     * back with the same text, i.e. "42" is not read back as "42.0".
+     *
+     * @param item The metric
+     * @return The kind of value to write the metric's value as
+     */
+    private static int getKind(MetricValue item) {
+        if (!item.isNumeric()) {
+            return TEXT_VALUE;
+        }
+        double value = item.getValue();
+        String text = item.getValueAsString();
+        if (value == Math.rint(value) && Math.abs(value) < (1L << 53)
+                && text.equals(Long.toString((long) value))) {
+            return WHOLE_VALUE;
+        }
+        if (text.equals(Double.toString(value))) {
+            return DOUBLE_VALUE;
+        }
+        return TEXT_VALUE;
+    }
+
+    /**
+     * This maps signed values onto unsigned ones so that small negative
+     * deltas also encode into few bytes.
+     *
+     * @param value The signed value
+     * @return The zig-zag encoded value
+     */
+    private static long zigZag(long value) {
+        return (value << 1) ^ (value >> 63);
+    }
+
+    /**
+     * This writes an unsigned value out using 7 bits per byte, with the top
+     * bit indicating if further bytes follow.
+     *
+     * @param out The stream to write to
+     * @param value The value to write
+     * @throws IOException If the write fails
+     */
+    private static void writeVarLong(DataOutputStream out, long value) throws IOException {
+        while ((value & ~0x7FL) != 0) {
+            out.writeByte((int) ((value & 0x7F) | 0x80));
+            value >>>= 7;
+        }
+        out.writeByte((int) value);
+    }
+
+    /**
+     * The binary format has no separate header row, the dictionary is written
+     * out as new metric names are encountered.
+     *
+     * @param store The results store, this is not used.
+     */
+    @Override
+    public void writeHeader(ResultsStore store) {
+        //The dictionary records take the place of the header
+    }
+
+    /**
+     * The binary format does not use the results store's row model, all
+     * writing is performed by saveToDisk.
+     *
+     * @param item The item to write out to disk.
+     * @param store The results store, this is not used.
+     */
+    @Override
+    public void writebody(Measurement item, ResultsStore store) {
+        saveToDisk(store, item);
+    }
+
+    /**
+     * This holds the metric key dictionary, last clock value and open stream
+     * for a file that is been written to.
+     */
+    private static class FileState {
+
+        private final HashMap<String, Integer> dictionary = new HashMap<>();
+        private long previousClock = 0;
+        private DataOutputStream out;
+    }
+
+}
@@ -0,0 +1,268 @@
+/**
+ * Copyright 2018 University of Leeds
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package eu.ascetic.zabbixdatalogger;
+
+import static eu.ascetic.zabbixdatalogger.BinaryMeasurementLogger.DICTIONARY_RECORD;
+import static eu.ascetic.zabbixdatalogger.BinaryMeasurementLogger.DOUBLE_VALUE;
+import static eu.ascetic.zabbixdatalogger.BinaryMeasurementLogger.MAGIC;
+import static eu.ascetic.zabbixdatalogger.BinaryMeasurementLogger.MEASUREMENT_RECORD;
+import static eu.ascetic.zabbixdatalogger.BinaryMeasurementLogger.TEXT_VALUE;
+import static eu.ascetic.zabbixdatalogger.BinaryMeasurementLogger.VERSION;
+import static eu.ascetic.zabbixdatalogger.BinaryMeasurementLogger.WHOLE_VALUE;
+import eu.ascetic.zabbixdatalogger.datasource.HostMeasurement;
+import eu.ascetic.zabbixdatalogger.datasource.MetricValue;
+import eu.ascetic.zabbixdatalogger.datasource.types.Host;
+import java.io.BufferedInputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import org.apache.commons.io.input.CountingInputStream;
+
+/**
+ * This reads back files written by the BinaryMeasurementLogger. Measurements
+ * are streamed from disk one at a time so that the whole data set never needs
+ * to be held in memory.
+ *
+ * @see BinaryMeasurementLogger
+ * @author Richard Kavanagh
+ */
+public class BinaryMeasurementReader implements Iterator<HostMeasurement>, Closeable {
+
+    private final Host host;
+    private final CountingInputStream counter;
+    private final DataInputStream in;
+    private final ArrayList<String> dictionary = new ArrayList<>();
+    private final ArrayList<String> names = new ArrayList<>();
+    private long lastClock = 0;
+    private long validLength = 0;
+    private HostMeasurement nextMeasurement = null;
+    private boolean finished = false;
+    private boolean corrupt = false;
+
+    /**
+     * This opens a binary measurement file for reading.
+     *
+     * @param file The file to read the measurements from
+     * @param host The host the measurements are to be attributed to, as the
+     * binary format does not record this itself.
+     * @throws IOException If the file does not exist or is not in the binary
+     * measurement format.
+     */
+    public BinaryMeasurementReader(File file, Host host) throws IOException {
+        this.host = host;
+        counter = new CountingInputStream(new BufferedInputStream(new FileInputStream(file)));
+        in = new DataInputStream(counter);
+        try {
+            if (in.readInt() != MAGIC) {
+                throw new IOException("The file " + file.getName() + " is not a binary measurement file");
+            }
+            byte version = in.readByte();
+            if (version != VERSION) {
+                throw new IOException("Unsupported binary measurement file version: " + version);
+            }
+        } catch (IOException ex) {
+            in.close();
+            throw ex;
+        }
+        validLength = counter.getByteCount();
+    }
+
+    @Override
+    public boolean hasNext() {
+        if (nextMeasurement == null && !finished) {
+            nextMeasurement = readMeasurement();
+        }
+        return nextMeasurement != null;
+    }
+
+    @Override
+    public HostMeasurement next() {
+        if (!hasNext()) {
+            throw new NoSuchElementException();
+        }
+        HostMeasurement answer = nextMeasurement;
+        nextMeasurement = null;
+        return answer;
+    }
+
+    @Override
+    public void remove() {
+        throw new UnsupportedOperationException("The binary measurement format is append only.");
+    }
+
+    /**
+     * This reads records until the next measurement is found, adding any
+     * dictionary records encountered on the way to the dictionary.
+     *
+     * @return The next measurement, or null if the end of the file has been
+     * reached.
+     */
+    private HostMeasurement readMeasurement() {
+        try {
+            while (true) {
+                int tag = in.read();
+                if (tag == -1) {
+                    finished = true;
+                    return null;
+                }
+                if (tag == DICTIONARY_RECORD) {
+                    int id = (int) readVarLong();
+                    String key = in.readUTF();
+                    String name = in.readUTF();
+                    if (id != dictionary.size()) {
+                        throw new IOException("Dictionary entry " + id + " is out of sequence");
+                    }
+                    dictionary.add(key);
+                    names.add(name);
+                    validLength = counter.getByteCount();
+                } else if (tag == MEASUREMENT_RECORD) {
+                    long clock = lastClock + unZigZag(readVarLong());
+                    HostMeasurement measurement = new HostMeasurement(host, clock);
+                    long count = readVarLong();
+                    for (long i = 0; i < count; i++) {
+                        measurement.addMetric(readMetric(clock));
+                    }
+                    lastClock = clock;
+                    validLength = counter.getByteCount();
+                    return measurement;
+                } else {
+                    throw new IOException("Unknown record tag " + tag);
+                }
+            }
+        } catch (EOFException ex) {
+            Logger.getLogger(BinaryMeasurementReader.class.getName()).log(Level.WARNING,
+                    "The binary measurement file ended part way through a record");
+        } catch (IOException | IndexOutOfBoundsException ex) {
+            Logger.getLogger(BinaryMeasurementReader.class.getName()).log(Level.SEVERE,
+                    "The binary measurement file is corrupt", ex);
+            corrupt = true;
+        }
+        finished = true;
+        return null;
+    }
+
+    /**
+     * This reads a single metric of a measurement record.
+     *
+     * @param clock The clock of the measurement the metric belongs to
+     * @return The metric
+     * @throws IOException If the read fails
+     */
+    private MetricValue readMetric(long clock) throws IOException {
+        long idAndKind = readVarLong();
+        int id = (int) (idAndKind >>> 2);
+        int kind = (int) (idAndKind & 3);
+        String key = dictionary.get(id);
+        String name = names.get(id);
+        long metricClock = clock + unZigZag(readVarLong());
+        switch (kind) {
+            case WHOLE_VALUE:
+                return new MetricValue(name, key, unZigZag(readVarLong()), metricClock);
+            case DOUBLE_VALUE:
+                return new MetricValue(name, key, in.readDouble(), metricClock);
+            case TEXT_VALUE:
+                return new MetricValue(name, key, in.readUTF(), metricClock);
+            default:
+                throw new IOException("Unknown value kind " + kind);
+        }
+    }
+
+    /**
+     * This reverses the zig-zag encoding used for signed deltas.
+     *
+     * @param value The zig-zag encoded value
+     * @return The signed value
+     */
+    private static long unZigZag(long value) {
+        return (value >>> 1) ^ -(value & 1);
+    }
+
+    /**
+     * This reads an unsigned value written out using 7 bits per byte.
+     *
+     * @return The value read in
+     * @throws IOException If the read fails
+     */
+    private long readVarLong() throws IOException {
+        long value = 0;
+        int shift = 0;
+        int current;
+        do {
+            if (shift > 63) {
+                throw new IOException("Malformed variable length value");
+            }
+            current = in.readUnsignedByte();
+            value |= (long) (current & 0x7F) << shift;
+            shift += 7;
+        } while ((current & 0x80) != 0);
+        return value;
+    }
+
+    /**
+     * This provides the metric key dictionary read so far, where the index
+     * of each key is its id.
+     *
+     * @return The metric keys encountered so far, in id order.
+     */
+    public List<String> getDictionary() {
+        return dictionary;
+    }
+
+    /**
+     * This provides the clock of the last measurement read.
+     *
+     * @return The clock of the last measurement read in Unix time.
+     */
+    public long getLastClock() {
+        return lastClock;
+    }
+
+    /**
+     * This provides the length of the file up to the end of the last complete
+     * record that was read.
+     *
+     * @return The amount of bytes read that form complete records.
+     */
+    public long getValidLength() {
+        return validLength;
+    }
+
+    /**
+     * This indicates if reading stopped because the file is corrupt, rather
+     * than because it ended, either cleanly or part way through its last
+     * record.
+     *
+     * @return If a record that could not be understood was found
+     */
+    public boolean isCorrupt() {
+        return corrupt;
+    }
+
+    @Override
+    public void close() throws IOException {
+        in.close();
+    }
+
+}
@@ -15,11 +15,18 @@
  */
 package eu.ascetic.zabbixdatalogger;
 
+import eu.ascetic.ioutils.GenericLogger;
+import eu.ascetic.ioutils.Settings;
+import eu.ascetic.zabbixdatalogger.datasource.CachingDataSourceAdaptor;
 import eu.ascetic.zabbixdatalogger.datasource.CollectDInfluxDbDataSourceAdaptor;
 import eu.ascetic.zabbixdatalogger.datasource.CollectdDataSourceAdaptor;
 import eu.ascetic.zabbixdatalogger.datasource.CompssDatasourceAdaptor;
 import eu.ascetic.zabbixdatalogger.datasource.DataSourceAdaptor;
 import eu.ascetic.zabbixdatalogger.datasource.HostMeasurement;
+import eu.ascetic.zabbixdatalogger.datasource.Measurement;
+import eu.ascetic.zabbixdatalogger.datasource.MeasurementListener;
+import eu.ascetic.zabbixdatalogger.datasource.MeasurementSource;
+import eu.ascetic.zabbixdatalogger.datasource.PollingMeasurementSource;
 import eu.ascetic.zabbixdatalogger.datasource.SlurmDataSourceAdaptor;
 import eu.ascetic.zabbixdatalogger.datasource.TangoEnvironmentDataSourceAdaptor;
 import eu.ascetic.zabbixdatalogger.datasource.TangoRemoteProcessingDataSourceAdaptor;
@@ -28,12 +35,26 @@ import eu.ascetic.zabbixdatalogger.datasource.ZabbixDirectDbDataSourceAdaptor;
 import eu.ascetic.zabbixdatalogger.datasource.compsstype.CompssImplementation;
 import eu.ascetic.zabbixdatalogger.datasource.types.Host;
 import eu.ascetic.zabbixdatalogger.datasource.types.VmDeployed;
+import eu.ascetic.zabbixdatalogger.sink.CollectdMeasurementSink;
+import eu.ascetic.zabbixdatalogger.sink.FileMeasurementSink;
+import eu.ascetic.zabbixdatalogger.sink.InfluxDbMeasurementSink;
+import eu.ascetic.zabbixdatalogger.sink.MeasurementPipeline;
+import eu.ascetic.zabbixdatalogger.sink.MeasurementSink;
+import eu.ascetic.zabbixdatalogger.sink.QueuedMeasurementSink;
+import eu.ascetic.zabbixdatalogger.sink.RollupMeasurementSink;
 import java.io.File;
 import java.io.IOException;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.HashMap;
 import java.util.HashSet;
+import java.util.List;
 import java.util.Scanner;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
 import java.util.logging.Level;
+import java.util.regex.Pattern;
 
 /**
  * This application logs out the raw data that is received from Zabbix, CollectD 
@@ -42,25 +63,43 @@ import java.util.logging.Level;
 public class Logger {
 
     private static boolean running = true;
+    private static final String CONFIG_FILE = "data-logger.properties";
+    /**
+     * The host name given to log the data for all hosts at once.
+     */
+    private static final String ALL_HOSTS = "all";
+    /**
+     * The largest pool of query threads used when it is sized automatically.
+     */
+    private static final int MAX_QUERY_THREADS = 32;
 
     public static void main(String[] args) throws IOException {
 
         if (args.length == 0) {
             System.out.println("Please provide as the first argument the name of "
-                    + "the host or virtual machine to monitor, such as testnode1.");
+                    + "the host or virtual machine to monitor, such as testnode1. "
+                    + "Several hosts may be given as a comma separated list, or "
+                    + "'all' may be given to monitor every host.");
             System.exit(0);
         }
         String hostname = args[0];
         HashSet<String> strArgs = new HashSet<>();
         strArgs.addAll(Arrays.asList(args));
-        MeasurementLogger logger = new MeasurementLogger(new File("Dataset_" + hostname + ".txt"), false);
+        boolean binary = strArgs.contains("binary") || strArgs.contains("b");
+        boolean multiHost = hostname.equals(ALL_HOSTS) || hostname.contains(",");
+        Settings settings = new Settings(CONFIG_FILE);
+        MeasurementPipeline pipeline = createPipeline(settings);
         TaskLogger tasklogger = null;
-        new Thread(logger).start();
+        if (!multiHost) {
+            GenericLogger<Measurement> logger = createLogger(hostname, binary, settings);
+            new Thread(logger).start();
+            pipeline.addSink(new FileMeasurementSink(logger));
+        }
         if (!(strArgs.contains("silent") || strArgs.contains("s"))) {
             System.out.println("This application will run continually until the word "
                     + "'quit' is written.)");
             System.out.println("It is currently logging data out for: " + hostname);
-            System.out.println("This is being output to the file: Dataset_" + hostname + ".txt");
+            System.out.println("This is being output to the file: " + getFilename(multiHost ? "<host>" : hostname, binary));
             QuitWatcher quitWatcher = new QuitWatcher();
             new Thread(quitWatcher).start();
         }
@@ -101,6 +140,7 @@ public class Logger {
             adaptor = new TangoRemoteProcessingDataSourceAdaptor();
             //Adding hostname avoids conflicts if multiple instances run at once
             tasklogger = new TaskLogger(new File("Dataset_compss_"+ hostname + ".txt"), false);
+            configure(tasklogger, settings);
             new Thread(tasklogger).start();            
             try {
                 Thread.sleep(2000);
@@ -110,39 +150,408 @@ public class Logger {
         } else { //Zabbix is the default
             adaptor = new ZabbixDirectDbDataSourceAdaptor();
         }
-        Host host = adaptor.getHostByName(hostname);
+        DataSourceAdaptor lookup = cacheLookups(adaptor, settings);
+        if (multiHost) {
+            logHosts(adaptor, lookup, hostname, binary, settings, tasklogger, pipeline);
+            return;
+        }
+        if (settings.isChanged()) {
+            settings.save(CONFIG_FILE);
+        }
+        Host host = lookup.getHostByName(hostname);
         VmDeployed vm = null;
         if (host == null) {
-            vm = adaptor.getVmByName(hostname);
+            vm = lookup.getVmByName(hostname);
         }
         while (running) {
             HostMeasurement measurement = adaptor.getHostData(host);
-            if (adaptor instanceof TangoRemoteProcessingDataSourceAdaptor && tasklogger != null) {
-                for (CompssImplementation impl : ((TangoRemoteProcessingDataSourceAdaptor)adaptor).getCompssImplementation()) {
-                    tasklogger.printToFile(impl);
-                }
-            }
+            logTasks(adaptor, tasklogger);
             if (host != null && measurement != null) {               
-                logger.printToFile(measurement);
+                pipeline.accept(measurement);
             } else if (vm != null) {
-                logger.printToFile(adaptor.getVmData(vm));
+                pipeline.accept(adaptor.getVmData(vm));
             } else {
                 running = false;
                 java.util.logging.Logger.getLogger(Logger.class.getName()).log(Level.INFO, "The resource named was not found");
             }
+            try {
+                //Sleeping to the next whole second stops the time taken to poll from causing drift
+                long now = System.currentTimeMillis();
+                Thread.sleep(PollingMeasurementSource.getNextPollTime(now, 1000) - now);
+            } catch (InterruptedException ex) {
+                java.util.logging.Logger.getLogger(Logger.class.getName()).log(Level.SEVERE, null, ex);
+            }
+        }
+        pipeline.close();
+        if (tasklogger != null) {
+            tasklogger.stop();
+        }
+    }
+
+    /**
+     * This creates the pipeline that measurements are pushed into. Besides
+     * the file output, sinks for InfluxDB and collectd and the writing of
+     * rollups may be enabled in the settings file.
+     *
+     * @param settings The logger's settings
+     * @return The pipeline of sinks, excluding the file output
+     */
+    private static MeasurementPipeline createPipeline(Settings settings) {
+        MeasurementPipeline pipeline = new MeasurementPipeline();
+        int capacity = settings.getInt("data.logger.sink.queue.capacity", 10000);
+        int batchSize = settings.getInt("data.logger.sink.batch.max.size", 500);
+        boolean changesOnly = settings.getBoolean("data.logger.sink.changes.only", false);
+        if (settings.getBoolean("data.logger.sink.influx.enabled", false)) {
+            pipeline.addSink(new InfluxDbMeasurementSink(
+                    settings.getString("data.logger.sink.influx.hostname", "http://localhost:8086"),
+                    settings.getString("data.logger.sink.influx.user", ""),
+                    settings.getString("data.logger.sink.influx.password", ""),
+                    settings.getString("data.logger.sink.influx.db.name", "datalogger"),
+                    capacity, batchSize));
+        }
+        if (settings.getBoolean("data.logger.sink.collectd.enabled", false)) {
+            pipeline.addSink(new CollectdMeasurementSink(
+                    settings.getString("data.logger.sink.collectd.server", "localhost:25826"),
+                    capacity, batchSize));
+        }
+        if (settings.getBoolean("data.logger.rollup.enabled", false)) {
+            pipeline.addSink(new RollupMeasurementSink(
+                    new File(settings.getString("data.logger.rollup.directory", ".")),
+                    capacity, batchSize));
+        }
+        for (MeasurementSink sink : pipeline.getSinks()) {
+            if (sink instanceof QueuedMeasurementSink) {
+                ((QueuedMeasurementSink) sink).setChangesOnly(changesOnly);
+                ((QueuedMeasurementSink) sink).start();
+            }
+        }
+        return pipeline;
+    }
+
+    /**
+     * This gives the amount of hosts that may be polled at once.
+     *
+     * @param adaptor The data source adaptor that is polled
+     * @param queryThreads The configured amount of query threads, 0 to size
+     * the pool automatically
+     * @param hostCount The amount of hosts being logged
+     * @return The amount of query threads to use
+     */
+    private static int getQueryThreads(DataSourceAdaptor adaptor, int queryThreads, int hostCount) {
+        if (queryThreads > 0) {
+            return queryThreads;
+        }
+        if (adaptor instanceof ZabbixDirectDbDataSourceAdaptor || adaptor instanceof ZabbixDataSourceAdaptor) {
+            //These share one database connection or client between calls
+            return 1;
+        }
+        return Math.min(Math.max(hostCount, 1), MAX_QUERY_THREADS);
+    }
+
+    /**
+     * This logs out the data for many hosts at once. Data sources that push
+     * their measurements have each host's measurement logged as soon as it is
+     * complete, other data sources have each host polled on a fixed grid of
+     * wall clock time, every second by default. Each host's measurement is
+     * written out to its own file, once per change of its clock. The loggers
+     * for each file share a single pool of writer threads.
+     *
+     * Polled hosts are queried on a pool of threads, sized by the setting
+     * data.logger.query.threads. If this is 0 the pool has one thread per
+     * host, up to 32, so the adaptor must be safe to call from several
+     * threads at once. The Zabbix adaptors share a single connection or
+     * client between calls, so unless the setting says otherwise they are
+     * polled one host at a time.
+     *
+     * @param adaptor The data source adaptor to get the host data from
+     * @param lookup The adaptor to look up the hosts with, which may cache
+     * the lookups of the data source adaptor.
+     * @param hostnames Either a comma separated list of host names or "all",
+     * in which case every host that matches the host filter setting is logged.
+     * @param binary If the binary file format should be used
+     * @param settings The logger's settings
+     * @param tasklogger The logger for compss task information, may be null
+     * @param pipeline The pipeline of sinks that measurements are pushed into
+     */
+    private static void logHosts(DataSourceAdaptor adaptor, DataSourceAdaptor lookup, String hostnames, boolean binary, Settings settings, TaskLogger tasklogger, MeasurementPipeline pipeline) {
+        ScheduledExecutorService writerPool = Executors.newScheduledThreadPool(settings.getInt("data.logger.writer.threads", 2));
+        Pattern filter = Pattern.compile(settings.getString("data.logger.hosts.filter", ".*"));
+        int refreshCycles = settings.getInt("data.logger.hosts.refresh.cycles", 60);
+        int queryThreads = settings.getInt("data.logger.query.threads", 0);
+        int pollInterval = settings.getInt("data.logger.poll.interval", 1000);
+        if (settings.isChanged()) {
+            settings.save(CONFIG_FILE);
+        }
+        pipeline.addSink(new HostFileSink(binary, settings, writerPool));
+        List<Host> hosts = getHosts(lookup, hostnames, filter);
+        MeasurementSource source;
+        PollingMeasurementSource poller = null;
+        if (adaptor instanceof MeasurementSource) {
+            source = (MeasurementSource) adaptor;
+        } else {
+            //Unless limited, the hosts are queried at the same time rather than in turn
+            poller = new PollingMeasurementSource(adaptor, pollInterval, getQueryThreads(adaptor, queryThreads, hosts.size()));
+            poller.setHosts(hosts);
+            source = poller;
+        }
+        HostListener listener = new HostListener(pipeline, hosts);
+        source.addMeasurementListener(listener);
+        if (poller != null) {
+            poller.registerMBean("logger");
+            poller.start();
+        }
+        int cycle = 0;
+        while (running) {
+            if (hostnames.equals(ALL_HOSTS) && refreshCycles > 0 && cycle > 0 && cycle % refreshCycles == 0) {
+                hosts = getHosts(lookup, hostnames, filter);
+                listener.setHosts(hosts);
+                if (poller != null) {
+                    poller.setHosts(hosts);
+                }
+            }
+            cycle++;
+            logTasks(adaptor, tasklogger);
             try {
                 Thread.sleep(1000);
             } catch (InterruptedException ex) {
                 java.util.logging.Logger.getLogger(Logger.class.getName()).log(Level.SEVERE, null, ex);
             }
         }
-        logger.stop();
+        if (poller != null) {
+            poller.stop();
+        }
+        source.removeMeasurementListener(listener);
+        synchronized (pipeline) {
+            pipeline.close();
+        }
+        if (tasklogger != null) {
+            tasklogger.stop();
+        }
+        writerPool.shutdown();
+        try {
+            writerPool.awaitTermination(1, TimeUnit.MINUTES);
+        } catch (InterruptedException ex) {
+            java.util.logging.Logger.getLogger(Logger.class.getName()).log(Level.SEVERE, null, ex);
+        }
     }
 
     /**
-     * This looks for input from the console so that the application can be told
-     * when to quit.
+     * This wraps a data source adaptor in a cache of its host and VM lookups,
+     * if enabled in the settings, so that they are not repeatedly queried
+     * from the data source.
+     *
+     * @param adaptor The data source adaptor
+     * @param settings The logger's settings
+     * @return The adaptor to look up hosts and VMs with
+     */
+    private static DataSourceAdaptor cacheLookups(DataSourceAdaptor adaptor, Settings settings) {
+        int ttl = settings.getInt("data.logger.metadata.cache.ttl", 60);
+        if (ttl <= 0) {
+            return adaptor;
+        }
+        CachingDataSourceAdaptor answer = new CachingDataSourceAdaptor(adaptor);
+        for (CachingDataSourceAdaptor.Query query : new CachingDataSourceAdaptor.Query[]{
+            CachingDataSourceAdaptor.Query.HOST_BY_NAME, CachingDataSourceAdaptor.Query.VM_BY_NAME,
+            CachingDataSourceAdaptor.Query.HOST_LIST, CachingDataSourceAdaptor.Query.HOST_AND_VM_LIST,
+            CachingDataSourceAdaptor.Query.VM_LIST}) {
+            answer.setTimeToLive(query, TimeUnit.SECONDS.toMillis(ttl));
+        }
+        return answer;
+    }
+
+    /**
+     * This resolves the hosts to log the data for.
+     *
+     * @param adaptor The data source adaptor to get the hosts from
+     * @param hostnames Either a comma separated list of host names or "all"
+     * @param filter The filter that host names must match, when logging all
+     * hosts.
+     * @return The list of hosts to log the data for
      */
+    private static List<Host> getHosts(DataSourceAdaptor adaptor, String hostnames, Pattern filter) {
+        List<Host> answer = new ArrayList<>();
+        if (hostnames.equals(ALL_HOSTS)) {
+            for (Host host : adaptor.getHostList()) {
+                if (filter.matcher(host.getHostName()).matches()) {
+                    answer.add(host);
+                }
+            }
+            return answer;
+        }
+        for (String hostname : hostnames.split(",")) {
+            Host host = adaptor.getHostByName(hostname.trim());
+            if (host == null) {
+                java.util.logging.Logger.getLogger(Logger.class.getName()).log(Level.WARNING, "The host {0} was not found", hostname.trim());
+            } else {
+                answer.add(host);
+            }
+        }
+        return answer;
+    }
+
+    /**
+     * This logs out the compss task information, if the adaptor provides it.
+     *
+     * @param adaptor The data source adaptor
+     * @param tasklogger The logger for compss task information, may be null
+     */
+    private static void logTasks(DataSourceAdaptor adaptor, TaskLogger tasklogger) {
+        if (adaptor instanceof TangoRemoteProcessingDataSourceAdaptor && tasklogger != null) {
+            for (CompssImplementation impl : ((TangoRemoteProcessingDataSourceAdaptor) adaptor).getCompssImplementation()) {
+                tasklogger.printToFile(impl);
+            }
+        }
+    }
+
+    /**
+     * This gives the name of the file that the data for a host is written to.
+     *
+     * @param hostname The name of the host
+     * @param binary If the binary file format is in use
+     * @return The name of the file the host's data is written to
+     */
+    private static String getFilename(String hostname, boolean binary) {
+        return "Dataset_" + hostname + (binary ? ".bin" : ".txt");
+    }
+
+    /**
+     * This creates a logger for a host's measurements.
+     *
+     * @param hostname The name of the host
+     * @param binary If the binary file format should be used
+     * @param settings The settings to apply to the logger
+     * @return The logger for the host's data, it has not yet been started.
+     */
+    private static GenericLogger<Measurement> createLogger(String hostname, boolean binary, Settings settings) {
+        GenericLogger<Measurement> logger;
+        if (binary) {
+            logger = new BinaryMeasurementLogger(new File(getFilename(hostname, binary)), false);
+        } else {
+            logger = new MeasurementLogger(new File(getFilename(hostname, binary)), false);
+        }
+        configure(logger, settings);
+        return logger;
+    }
+
+    /**
+     * This applies the file handling settings to a logger.
+     *
+     * @param logger The logger to configure
+     * @param settings The settings to apply to the logger
+     */
+    private static void configure(GenericLogger<?> logger, Settings settings) {
+        logger.setMaxSegmentSize(settings.getLong("data.logger.segment.max.size.bytes", 0));
+        logger.setSegmentDuration(settings.getLong("data.logger.segment.duration.seconds", 0));
+        logger.setCompressSegments(settings.getBoolean("data.logger.segment.compress", true));
+        logger.setMaxBatchSize(settings.getInt("data.logger.batch.max.size", Integer.MAX_VALUE));
+        logger.setMaxLinger(settings.getLong("data.logger.batch.max.linger.ms", 0));
+        logger.setQueueCapacity(settings.getInt("data.logger.queue.capacity", Integer.MAX_VALUE));
+        try {
+            logger.setOverflowPolicy(GenericLogger.OverflowPolicy.valueOf(
+                    settings.getString("data.logger.queue.overflow.policy", "BLOCK").trim().toUpperCase()));
+        } catch (IllegalArgumentException ex) {
+            java.util.logging.Logger.getLogger(Logger.class.getName()).log(Level.WARNING,
+                    "Unknown queue overflow policy, the logger will block when its queue is full");
+        }
+    }
+
+    /**
+     * This passes the measurements of the hosts been logged into the
+     * pipeline. A data source may call it from more than one thread, so the
+     * pipeline is only given one measurement at a time.
+     */
+    private static class HostListener implements MeasurementListener {
+
+        private final MeasurementPipeline pipeline;
+        private volatile HashSet<String> hostnames;
+
+        /**
+         * This creates a listener that feeds the pipeline.
+         *
+         * @param pipeline The pipeline of sinks that measurements are pushed
+         * into
+         * @param hosts The hosts whose measurements are logged
+         */
+        public HostListener(MeasurementPipeline pipeline, List<Host> hosts) {
+            this.pipeline = pipeline;
+            setHosts(hosts);
+        }
+
+        /**
+         * This sets the hosts whose measurements are logged.
+         *
+         * @param hosts The hosts whose measurements are logged
+         */
+        public final void setHosts(List<Host> hosts) {
+            HashSet<String> names = new HashSet<>();
+            for (Host host : hosts) {
+                names.add(host.getHostName());
+            }
+            hostnames = names;
+        }
+
+        @Override
+        public void measurementReceived(Measurement measurement) {
+            if (!(measurement instanceof HostMeasurement) || ((HostMeasurement) measurement).getHost() == null
+                    || !hostnames.contains(((HostMeasurement) measurement).getHost().getHostName())) {
+                return;
+            }
+            synchronized (pipeline) {
+                pipeline.accept(measurement);
+            }
+        }
+
+    }
+
+    /**
+     * This sink writes each host's measurements out to its own file. The
+     * loggers for each file are created when a host is first seen and share
+     * a single pool of writer threads.
+     */
+    private static class HostFileSink implements MeasurementSink {
+
+        private final HashMap<String, GenericLogger<Measurement>> loggers = new HashMap<>();
+        private final boolean binary;
+        private final Settings settings;
+        private final ScheduledExecutorService writerPool;
+
+        /**
+         * This creates a sink that writes to a file per host.
+         *
+         * @param binary If the binary file format should be used
+         * @param settings The settings to apply to each logger
+         * @param writerPool The pool of threads the loggers write with
+         */
+        public HostFileSink(boolean binary, Settings settings, ScheduledExecutorService writerPool) {
+            this.binary = binary;
+            this.settings = settings;
+            this.writerPool = writerPool;
+        }
+
+        @Override
+        public void accept(Measurement measurement) {
+            if (!(measurement instanceof HostMeasurement) || ((HostMeasurement) measurement).getHost() == null) {
+                return;
+            }
+            String name = ((HostMeasurement) measurement).getHost().getHostName();
+            GenericLogger<Measurement> logger = loggers.get(name);
+            if (logger == null) {
+                logger = createLogger(name, binary, settings);
+                logger.start(writerPool);
+                loggers.put(name, logger);
+            }
+            logger.printToFile(measurement);
+        }
+
+        @Override
+        public void close() {
+            for (GenericLogger<Measurement> logger : loggers.values()) {
+                logger.stop();
+            }
+        }
+
+    }
+
     /**
      * This looks for input from the console so that the application can be told
      * when to quit.
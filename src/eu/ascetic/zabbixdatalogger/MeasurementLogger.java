@@ -15,25 +15,51 @@
  */
 package eu.ascetic.zabbixdatalogger;
 
+import eu.ascetic.ioutils.ColumnSchema;
 import eu.ascetic.ioutils.GenericLogger;
 import eu.ascetic.ioutils.ResultsStore;
+import eu.ascetic.ioutils.RowBuffer;
 import eu.ascetic.zabbixdatalogger.datasource.Measurement;
+import eu.ascetic.zabbixdatalogger.datasource.MetricValue;
 import java.io.File;
-import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
 import java.util.logging.Level;
 
 /**
  * This class logs out measurement data to disk.
+ *
+ * The columns of the file are described by a column schema. The header row
+ * is written once at the start of the file, when further metrics are
+ * encountered they are added as new columns to the end of each row and the
+ * new version of the schema is recorded in a sidecar file, i.e.
+ * Dataset_host.txt.schema, along with the byte offset at which it takes
+ * effect.
+ *
  * @author Richard Kavanagh
  */
 public class MeasurementLogger extends GenericLogger<Measurement> {
 
-    private final ArrayList<String> metricNames = new ArrayList<>();
+    private static final String TIME_STAMP_COLUMN = "Time Stamp Data";
+    private ColumnSchema schema = new ColumnSchema(Collections.singletonList(TIME_STAMP_COLUMN));
+    /**
+     * The schema version last recorded in the sidecar of each file written
+     * to, i.e. the log file and its overflow file.
+     */
+    private final HashMap<File, Integer> recordedVersions = new HashMap<>();
 
     public MeasurementLogger(File file, boolean overwrite) {
         super(file, overwrite);
         saveFile.setDelimeter("\t");
+        if (!overwrite && file.exists()) {
+            ColumnSchema existing = ColumnSchema.load(file);
+            if (existing != null && existing.contains(TIME_STAMP_COLUMN)) {
+                //Continue the existing file with the same column ids
+                schema = existing;
+                recordedVersions.put(file, schema.getVersion());
+            }
+        }
     }
 
     /**
@@ -46,63 +72,106 @@ public class MeasurementLogger extends GenericLogger<Measurement> {
     @Override
     public void saveToDisk(ResultsStore store, Collection<Measurement> measurements) {
         try {
-            if (!store.getResultsFile().exists() || metricNames.isEmpty()) {
+            for (Measurement measurement : measurements) {
+                schema.addColumns(measurement.getMetricNameList());
+            }
+            File file = store.getResultsFile();
+            if (!file.exists() || file.length() == 0) {
+                writeHeader(store);
+                recordSchema(file, 0);
+            } else if (!recordedVersions.containsKey(file)) {
                 /**
-                 * Write out the header if the file does not exist or is if the
-                 * file is been appended to for the first time. i.e. the headers
-                 * may be in a different order.
+                 * The file is been appended to for the first time and has no
+                 * schema, i.e. the columns may be in a different order.
                  */
-                for (Measurement measurement : measurements) {
-                    metricNames.addAll(measurement.getMetricNameList());
-                    writeHeader(store);
-                    /**
-                     * This gets the first item out of the measurements list, so
-                     * the header can be written.
-                     */
-                    break;  
-                }
-
+                writeHeader(store);
+                recordSchema(file, file.length());
+            } else if (recordedVersions.get(file) != schema.getVersion()) {
+                recordSchema(file, file.length());
             }
             for (Measurement measurement : measurements) {
                 writebody(measurement, store);
-                store.saveMemoryConservative();
             }
+            store.saveMemoryConservative();
         } catch (Exception ex) {
             //logging is important but should not stop the main thread from running!
             java.util.logging.Logger.getLogger(MeasurementLogger.class.getName()).log(Level.SEVERE, "An error occurred when saving an item to disk", ex);
         }
     }
 
-    private void metricNamesAdd(Measurement measurement) {
-        for (String metricName : measurement.getMetricNameList()) {
-            if (!metricNames.contains(metricName)) {
-                metricNames.add(metricName);
-            }
+    /**
+     * This records the current schema in the sidecar file of a given file.
+     *
+     * @param file The file the schema describes
+     * @param offset The byte offset at which the schema takes effect
+     */
+    private void recordSchema(File file, long offset) {
+        if (offset == 0) {
+            //A new file, so any schema history from a previous file is discarded
+            ColumnSchema.getSchemaFile(file).delete();
+        }
+        schema.save(file, offset);
+        recordedVersions.put(file, schema.getVersion());
+    }
+
+    @Override
+    protected void segmentRolled(File segment) {
+        File schemaFile = ColumnSchema.getSchemaFile(saveFile.getResultsFile());
+        if (schemaFile.exists()) {
+            schemaFile.renameTo(ColumnSchema.getSchemaFile(segment));
         }
     }
 
+    @Override
+    protected long getTimestamp(Measurement item) {
+        return item.getClock();
+    }
+
+    /**
+     * This gets the schema that describes the columns of the log file.
+     *
+     * @return The column schema
+     */
+    public ColumnSchema getSchema() {
+        return schema;
+    }
+
     @Override
     public void writeHeader(ResultsStore store) {
-        store.add("Time Stamp Data");
-        for (String name : metricNames) {
-            store.append(name);
+        store.add(TIME_STAMP_COLUMN);
+        for (int i = 1; i < schema.size(); i++) {
+            store.append(schema.getColumn(i));
         }
     }
 
+    /**
+     * This formats a measurement directly into the row buffer of the results
+     * store, so that no intermediate lists or strings are created for the row.
+     *
+     * @param item The measurement to write out
+     * @param store The results store to write the row to
+     */
     @Override
     public void writebody(Measurement item, ResultsStore store) {
-        if (item.getMetricNameList().size() > metricNames.size()) {
-            //Reprint Column Headers and write out new data items
-            metricNamesAdd(item);
-            writeHeader(store);
+        //Columns that have not been seen before are added to the end of the row
+        if (!schema.containsAll(item.getMetricNameList())) {
+            schema.addColumns(item.getMetricNameList());
         }
-        store.add(item.getClock());
-        for (String name : metricNames) {
-            if (item.metricExists(name)) {
-                store.append(item.getMetric(name).getValueAsString());
+        RowBuffer row = store.getRowBuffer();
+        row.add(item.getClock());
+        for (int i = 1; i < schema.size(); i++) {
+            MetricValue value = item.getMetric(schema.getColumn(i));
+            if (value == null) {
+                row.add((CharSequence) null);
+            } else if (!value.isNumeric() || value.hasText()) {
+                //Values given as text are written as given, e.g. "4.20"
+                row.add(value.getValueAsString());
+            } else if (value.isWhole()) {
+                row.add((long) value.getValue());
             } else {
-                store.append("");
+                row.add(value.getValue());
             }
         }
+        row.endRow();
     }
 }
@@ -60,9 +60,20 @@ public class ApplicationMeasurement extends Measurement {
     }
 
     public void setApplication(ApplicationOnHost application) {
+        checkNotSnapshot();
         this.application = application;
     }
 
+    @Override
+    public ApplicationMeasurement snapshot() {
+        if (isSnapshot()) {
+            return this;
+        }
+        ApplicationMeasurement answer = new ApplicationMeasurement(application);
+        shareWith(answer);
+        return answer;
+    }
+
     /**
      * The gets the host of the application that the measurement is for.
      *
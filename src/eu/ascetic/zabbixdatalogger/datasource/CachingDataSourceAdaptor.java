@@ -0,0 +1,397 @@
+/**
+ * Copyright 2018 University of Leeds
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package eu.ascetic.zabbixdatalogger.datasource;
+
+import eu.ascetic.zabbixdatalogger.datasource.types.Host;
+import eu.ascetic.zabbixdatalogger.datasource.types.MonitoredEntity;
+import eu.ascetic.zabbixdatalogger.datasource.types.VmDeployed;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * This caches the answers of another data source adaptor, so that queries
+ * such as the host list, which rarely change but may be expensive for the
+ * underlying data source, are not repeated on every call.
+ *
+ * Each kind of query has its own time to live. An answer that is close to
+ * expiring is refreshed in the background while the cached answer is still
+ * given out, so frequently asked queries do not wait on the data source.
+ * Identical queries that are made at the same time share a single call to
+ * the data source, even for kinds of query that are not cached. If the data
+ * source fails to answer, either by throwing an exception or by giving null
+ * as the adaptors do, the last answer is given out instead, if there is one.
+ * Null answers are never cached.
+ *
+ * Cached answers are shared by every caller and so must not be changed. The
+ * wrapped adaptor must be safe to call from several threads at once.
+ *
+ * @author Richard Kavanagh
+ */
+public class CachingDataSourceAdaptor implements DataSourceAdaptor {
+
+    /**
+     * The kinds of query that may be cached.
+     */
+    public enum Query {
+
+        HOST_BY_NAME, VM_BY_NAME, HOST_LIST, HOST_AND_VM_LIST, VM_LIST,
+        HOST_DATA, VM_DATA, LOWEST_POWER, HIGHEST_POWER, CPU_UTILISATION
+    }
+
+    /**
+     * The default time to live of host and VM lookups and of the lowest and
+     * highest power of a host, in milliseconds.
+     */
+    public static final long DEFAULT_METADATA_TTL = TimeUnit.MINUTES.toMillis(1);
+
+    private final DataSourceAdaptor adaptor;
+    private final ConcurrentHashMap<List<Object>, CachedAnswer> cache = new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<List<Object>, CompletableFuture<Object>> inFlight = new ConcurrentHashMap<>();
+    private final ExecutorService refresher = ExecutorAsyncDataSourceAdaptor.createExecutor(2, 64);
+    /**
+     * The time to live of each kind of query in nanoseconds, 0 for queries
+     * that are not cached.
+     */
+    private final long[] timeToLive = new long[Query.values().length];
+
+    /**
+     * This wraps a data source adaptor with a cache. Host and VM lookups and
+     * the lowest and highest power of hosts are cached for a minute,
+     * measurements are not cached.
+     *
+     * @param adaptor The adaptor to cache the answers of
+     */
+    public CachingDataSourceAdaptor(DataSourceAdaptor adaptor) {
+        this.adaptor = adaptor;
+        for (Query query : new Query[]{Query.HOST_BY_NAME, Query.VM_BY_NAME,
+            Query.HOST_LIST, Query.HOST_AND_VM_LIST, Query.VM_LIST,
+            Query.LOWEST_POWER, Query.HIGHEST_POWER}) {
+            setTimeToLive(query, DEFAULT_METADATA_TTL);
+        }
+    }
+
+    /**
+     * This sets how long the answers to a kind of query are kept for.
+     *
+     * @param query The kind of query
+     * @param millis The time to live in milliseconds, 0 stops the answers
+     * from been cached.
+     */
+    public final void setTimeToLive(Query query, long millis) {
+        synchronized (timeToLive) {
+            timeToLive[query.ordinal()] = TimeUnit.MILLISECONDS.toNanos(Math.max(millis, 0));
+        }
+    }
+
+    /**
+     * This gets how long the answers to a kind of query are kept for.
+     *
+     * @param query The kind of query
+     * @return The time to live in milliseconds, 0 if the answers are not
+     * cached.
+     */
+    public long getTimeToLive(Query query) {
+        synchronized (timeToLive) {
+            return TimeUnit.NANOSECONDS.toMillis(timeToLive[query.ordinal()]);
+        }
+    }
+
+    /**
+     * This discards every cached answer, so that the next queries go to the
+     * data source.
+     */
+    public void invalidate() {
+        cache.clear();
+    }
+
+    /**
+     * This gives the adaptor whose answers are cached.
+     *
+     * @return The wrapped adaptor
+     */
+    public DataSourceAdaptor getAdaptor() {
+        return adaptor;
+    }
+
+    /**
+     * This stops the background refreshing of cached answers.
+     */
+    public void close() {
+        refresher.shutdown();
+    }
+
+    /**
+     * This answers a query, from the cache if possible.
+     *
+     * @param <T> The type of the query's answer
+     * @param query The kind of query
+     * @param argument The argument of the query, or null if it has none
+     * @param loader The call to the data source that answers the query
+     * @return The answer to the query, or null if the data source failed and
+     * there was no earlier answer.
+     */
+    @SuppressWarnings("unchecked")
+    private <T> T get(Query query, Object argument, Callable<T> loader) {
+        long ttl;
+        synchronized (timeToLive) {
+            ttl = timeToLive[query.ordinal()];
+        }
+        List<Object> key = Arrays.asList(query, argument);
+        CachedAnswer cached = ttl > 0 ? cache.get(key) : null;
+        if (cached != null) {
+            long age = System.nanoTime() - cached.loaded;
+            if (age < ttl) {
+                if (age >= ttl - ttl / 4) {
+                    //Refresh ahead of expiry so callers do not have to wait
+                    load(key, ttl, loader, true);
+                }
+                return (T) cached.answer;
+            }
+        }
+        CompletableFuture<Object> answer = load(key, ttl, loader, false);
+        Object value = ExecutorAsyncDataSourceAdaptor.await(answer);
+        if ((value == null || answer.isCompletedExceptionally()) && cached != null) {
+            return (T) cached.answer;
+        }
+        return (T) value;
+    }
+
+    /**
+     * This calls the data source to answer a query, unless the same query is
+     * already been answered, in which case that call's answer is shared.
+     *
+     * @param key The query and its argument
+     * @param ttl The time to live of the answer in nanoseconds
+     * @param loader The call to the data source that answers the query
+     * @param background If the call should be made on the refresh threads
+     * rather than the calling thread
+     * @return The future answer of the query
+     */
+    private CompletableFuture<Object> load(final List<Object> key, final long ttl, final Callable<?> loader, final boolean background) {
+        final CompletableFuture<Object> flight = new CompletableFuture<>();
+        CompletableFuture<Object> existing = inFlight.putIfAbsent(key, flight);
+        if (existing != null) {
+            return existing;
+        }
+        Runnable task = new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    Object answer = loader.call();
+                    //Adaptors give null when they fail, which must not replace a good answer
+                    if (ttl > 0 && answer != null) {
+                        cache.put(key, new CachedAnswer(answer, System.nanoTime()));
+                    }
+                    flight.complete(answer);
+                } catch (Exception ex) {
+                    if (background) {
+                        //No caller waits on a background refresh to report it
+                        Logger.getLogger(CachingDataSourceAdaptor.class.getName()).log(Level.WARNING, "The cached answer could not be refreshed", ex);
+                    }
+                    flight.completeExceptionally(ex);
+                } finally {
+                    inFlight.remove(key, flight);
+                }
+            }
+        };
+        if (!background) {
+            task.run();
+            return flight;
+        }
+        try {
+            refresher.execute(task);
+        } catch (RuntimeException ex) {
+            //The cache has been closed, the cached answer remains in use
+            inFlight.remove(key, flight);
+            Logger.getLogger(CachingDataSourceAdaptor.class.getName()).log(Level.WARNING, "The cached answer could not be refreshed", ex);
+        }
+        return flight;
+    }
+
+    /**
+     * This turns a power or utilisation value into a primitive, giving 0 if
+     * the data source could not provide it.
+     *
+     * @param value The value to convert
+     * @return The value, or 0 if it is null
+     */
+    private static double toDouble(Double value) {
+        return value == null ? 0.0 : value;
+    }
+
+    @Override
+    public Host getHostByName(final String hostname) {
+        return get(Query.HOST_BY_NAME, hostname, new Callable<Host>() {
+            @Override
+            public Host call() {
+                return adaptor.getHostByName(hostname);
+            }
+        });
+    }
+
+    @Override
+    public VmDeployed getVmByName(final String name) {
+        return get(Query.VM_BY_NAME, name, new Callable<VmDeployed>() {
+            @Override
+            public VmDeployed call() {
+                return adaptor.getVmByName(name);
+            }
+        });
+    }
+
+    @Override
+    public List<Host> getHostList() {
+        return get(Query.HOST_LIST, null, new Callable<List<Host>>() {
+            @Override
+            public List<Host> call() {
+                return adaptor.getHostList();
+            }
+        });
+    }
+
+    @Override
+    public List<MonitoredEntity> getHostAndVmList() {
+        return get(Query.HOST_AND_VM_LIST, null, new Callable<List<MonitoredEntity>>() {
+            @Override
+            public List<MonitoredEntity> call() {
+                return adaptor.getHostAndVmList();
+            }
+        });
+    }
+
+    @Override
+    public List<VmDeployed> getVmList() {
+        return get(Query.VM_LIST, null, new Callable<List<VmDeployed>>() {
+            @Override
+            public List<VmDeployed> call() {
+                return adaptor.getVmList();
+            }
+        });
+    }
+
+    @Override
+    public HostMeasurement getHostData(final Host host) {
+        return get(Query.HOST_DATA, host, new Callable<HostMeasurement>() {
+            @Override
+            public HostMeasurement call() {
+                return adaptor.getHostData(host);
+            }
+        });
+    }
+
+    @Override
+    public List<HostMeasurement> getHostData() {
+        return get(Query.HOST_DATA, null, new Callable<List<HostMeasurement>>() {
+            @Override
+            public List<HostMeasurement> call() {
+                return adaptor.getHostData();
+            }
+        });
+    }
+
+    @Override
+    public List<HostMeasurement> getHostData(final List<Host> hostList) {
+        return get(Query.HOST_DATA, hostList == null ? null : new ArrayList<>(hostList), new Callable<List<HostMeasurement>>() {
+            @Override
+            public List<HostMeasurement> call() {
+                return adaptor.getHostData(hostList);
+            }
+        });
+    }
+
+    @Override
+    public VmMeasurement getVmData(final VmDeployed vm) {
+        return get(Query.VM_DATA, vm, new Callable<VmMeasurement>() {
+            @Override
+            public VmMeasurement call() {
+                return adaptor.getVmData(vm);
+            }
+        });
+    }
+
+    @Override
+    public List<VmMeasurement> getVmData() {
+        return get(Query.VM_DATA, null, new Callable<List<VmMeasurement>>() {
+            @Override
+            public List<VmMeasurement> call() {
+                return adaptor.getVmData();
+            }
+        });
+    }
+
+    @Override
+    public List<VmMeasurement> getVmData(final List<VmDeployed> vmList) {
+        return get(Query.VM_DATA, vmList == null ? null : new ArrayList<>(vmList), new Callable<List<VmMeasurement>>() {
+            @Override
+            public List<VmMeasurement> call() {
+                return adaptor.getVmData(vmList);
+            }
+        });
+    }
+
+    @Override
+    public double getLowestHostPowerUsage(final Host host) {
+        return toDouble(get(Query.LOWEST_POWER, host, new Callable<Double>() {
+            @Override
+            public Double call() {
+                return adaptor.getLowestHostPowerUsage(host);
+            }
+        }));
+    }
+
+    @Override
+    public double getHighestHostPowerUsage(final Host host) {
+        return toDouble(get(Query.HIGHEST_POWER, host, new Callable<Double>() {
+            @Override
+            public Double call() {
+                return adaptor.getHighestHostPowerUsage(host);
+            }
+        }));
+    }
+
+    @Override
+    public double getCpuUtilisation(final Host host, final int durationSeconds) {
+        return toDouble(get(Query.CPU_UTILISATION, Arrays.asList(host, durationSeconds), new Callable<Double>() {
+            @Override
+            public Double call() {
+                return adaptor.getCpuUtilisation(host, durationSeconds);
+            }
+        }));
+    }
+
+    /**
+     * A cached answer and the time it was obtained.
+     */
+    private static class CachedAnswer {
+
+        private final Object answer;
+        private final long loaded;
+
+        public CachedAnswer(Object answer, long loaded) {
+            this.answer = answer;
+            this.loaded = loaded;
+        }
+    }
+
+}
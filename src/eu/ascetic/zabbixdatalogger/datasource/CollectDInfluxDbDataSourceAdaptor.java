@@ -31,8 +31,10 @@ import java.time.Instant;
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.logging.Level;
 import java.util.logging.Logger;
+import java.util.regex.Pattern;
 import org.influxdb.InfluxDB;
 import org.influxdb.InfluxDBFactory;
 import org.influxdb.dto.Query;
@@ -48,6 +50,8 @@ public class CollectDInfluxDbDataSourceAdaptor implements DataSourceAdaptor, App
 
     private final Settings settings = new Settings(CONFIG_FILE);
     private static final String CONFIG_FILE = "energy-modeller-influx-db-config.properties";
+    private static final Pattern ACCELERATOR_POWER_PATTERN = Pattern.compile("nvidia_value::[0-9]+:power");
+    private static final Pattern CPU_IDLE_PATTERN = Pattern.compile("cpu_value:idle:[0-9]+:percent");
     private final String hostname;
     private final String user;
     private final String password;
@@ -55,6 +59,17 @@ public class CollectDInfluxDbDataSourceAdaptor implements DataSourceAdaptor, App
 
     private final InfluxDB influxDB;
     private final InfluxDBResultMapper resultMapper = new InfluxDBResultMapper();
+    /**
+     * The distribution of each host's power and utilisation, as seen by the
+     * measurements taken from the database.
+     */
+    private final QuantileSketchStore quantiles = new QuantileSketchStore();
+    /**
+     * The lowest and highest power of each host held in the database, these
+     * are queried once per host and are then combined with the sketches.
+     */
+    private final ConcurrentHashMap<String, Double> historicLowest = new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<String, Double> historicHighest = new ConcurrentHashMap<>();
 
     public CollectDInfluxDbDataSourceAdaptor() {
         dbName = settings.getString("energy.modeller.influx.db.name", "collectd");
@@ -226,6 +241,7 @@ public class CollectDInfluxDbDataSourceAdaptor implements DataSourceAdaptor, App
         }
         QueryResult results = runQuery("SELECT last(value),type_instance, instance, type FROM " + listMeasurements + " WHERE host = '" + host.getHostName() + "' AND time > now() - 30s GROUP BY instance, type_instance, type;");
         answer = convertToHostMeasurement(host, results);
+        quantiles.add(host.getHostName(), answer);
         return answer;
     }
     
@@ -276,7 +292,7 @@ public class CollectDInfluxDbDataSourceAdaptor implements DataSourceAdaptor, App
                      * nvidia_value::1:nvidia:power (and card 2)
                      */
                     try {
-                        if (metricName.matches("nvidia_value::[0-9]+:power")) {
+                        if (ACCELERATOR_POWER_PATTERN.matcher(metricName).matches()) {
                             acceleratorPowerUsed = acceleratorPowerUsed + Double.parseDouble(value.get(1).toString());
                         }
                     } catch (NumberFormatException ex) {
@@ -291,7 +307,7 @@ public class CollectDInfluxDbDataSourceAdaptor implements DataSourceAdaptor, App
          }
         }
         if (acceleratorPowerUsed > 0) {
-            MetricValue metric = new MetricValue(KpiList.ACCELERATOR_POWER_USED, KpiList.ACCELERATOR_POWER_USED, Double.toString(acceleratorPowerUsed), answer.getClock());
+            MetricValue metric = new MetricValue(KpiList.ACCELERATOR_POWER_USED, KpiList.ACCELERATOR_POWER_USED, acceleratorPowerUsed, answer.getClock());
             answer.addMetric(metric);
         }
         return answer;
@@ -316,7 +332,7 @@ public class CollectDInfluxDbDataSourceAdaptor implements DataSourceAdaptor, App
                 if (value.size() >= 5) {
                     metricName = metricName + ":" + (value.get(4) == null ? "" : value.get(4));
                 }   
-                if (metricName.matches("cpu_value:idle:[0-9]+:percent")) {
+                if (CPU_IDLE_PATTERN.matcher(metricName).matches()) {
                     count = count + 1;
                     idleValue = idleValue + Double.parseDouble(value.get(1).toString());
                 }
@@ -325,9 +341,9 @@ public class CollectDInfluxDbDataSourceAdaptor implements DataSourceAdaptor, App
         if (count > 0 && time != null) {
             double idleMetricValue = idleValue / count;
             idleMetricValue = idleMetricValue / 100; //make sure its in the range 0..1 instead of 0..100
-            MetricValue idle = new MetricValue(KpiList.CPU_IDLE_KPI_NAME, KpiList.CPU_IDLE_KPI_NAME, idleMetricValue + "", time.getEpochSecond());
+            MetricValue idle = new MetricValue(KpiList.CPU_IDLE_KPI_NAME, KpiList.CPU_IDLE_KPI_NAME, idleMetricValue, time.getEpochSecond());
             measurement.addMetric(idle);
-            MetricValue spotCpu = new MetricValue(KpiList.CPU_SPOT_USAGE_KPI_NAME, KpiList.CPU_SPOT_USAGE_KPI_NAME, 1 - idleMetricValue + "", time.getEpochSecond());
+            MetricValue spotCpu = new MetricValue(KpiList.CPU_SPOT_USAGE_KPI_NAME, KpiList.CPU_SPOT_USAGE_KPI_NAME, 1 - idleMetricValue, time.getEpochSecond());
             measurement.addMetric(spotCpu);             
         }
         return measurement;
@@ -385,8 +401,21 @@ public class CollectDInfluxDbDataSourceAdaptor implements DataSourceAdaptor, App
                         "The host to get the lowest power usage was null"); 
             return 0.0;
         }        
-        QueryResult results = runQuery("SELECT min(value) FROM power_value WHERE host = '" + host.getHostName() + "'");
-        return getSingleValueOut(results);
+        Double historic = historicLowest.get(host.getHostName());
+        if (historic == null) {
+            QueryResult results = runQuery("SELECT min(value) FROM power_value WHERE host = '" + host.getHostName() + "'");
+            double value = getSingleValueOut(results);
+            if (!Double.isNaN(value)) {
+                //Only a real result is kept, so a host with no power data yet is asked again
+                historic = value;
+                historicLowest.put(host.getHostName(), historic);
+            }
+        }
+        double seen = quantiles.getMin(host.getHostName(), KpiList.POWER_KPI_NAME);
+        if (historic == null) {
+            return Double.isNaN(seen) ? 0.0 : seen;
+        }
+        return Double.isNaN(seen) ? historic : Math.min(historic, seen);
         }
 
     @Override
@@ -396,8 +425,30 @@ public class CollectDInfluxDbDataSourceAdaptor implements DataSourceAdaptor, App
                         "The host to get highest power usage was null"); 
         return 0.0;
     }
-        QueryResult results = runQuery("SELECT max(value) FROM power_value WHERE host = '" + host.getHostName() + "';");
-        return getSingleValueOut(results);
+        Double historic = historicHighest.get(host.getHostName());
+        if (historic == null) {
+            QueryResult results = runQuery("SELECT max(value) FROM power_value WHERE host = '" + host.getHostName() + "';");
+            double value = getSingleValueOut(results);
+            if (!Double.isNaN(value)) {
+                historic = value;
+                historicHighest.put(host.getHostName(), historic);
+            }
+        }
+        double seen = quantiles.getMax(host.getHostName(), KpiList.POWER_KPI_NAME);
+        if (historic == null) {
+            return Double.isNaN(seen) ? 0.0 : seen;
+        }
+        return Double.isNaN(seen) ? historic : Math.max(historic, seen);
+    }
+
+    /**
+     * This provides the quantile sketches of each host's power and cpu
+     * utilisation, as seen by the measurements taken by this adaptor.
+     *
+     * @return The quantile sketches of this data source adaptor
+     */
+    public QuantileSketchStore getQuantiles() {
+        return quantiles;
     }
 
     @Override
@@ -443,22 +494,18 @@ public class CollectDInfluxDbDataSourceAdaptor implements DataSourceAdaptor, App
      * This parses the result of a query that provides a single result.
      *
      * @param results The result object to parse
-     * @return The single value returned from the query.
+     * @return The single value returned from the query, or NaN if the query
+     * returned no value.
      */
     private double getSingleValueOut(QueryResult results) {
-        if (results.getResults() == null || results.getResults().isEmpty()) {
-            return 0.0;
-        }
-        QueryResult.Result result = results.getResults().get(0);
-        if (result.getSeries() == null || result.getSeries().isEmpty()) {
-            return 0.0;
+        if (isQueryResultEmpty(results)) {
+            return Double.NaN;
         }
-        QueryResult.Series series = result.getSeries().get(0);
-        if (series.getValues() == null || series.getValues().isEmpty()) {
-            return 0.0;
+        List<Object> value = results.getResults().get(0).getSeries().get(0).getValues().get(0);
+        if (value.size() < 2 || value.get(1) == null) {
+            return Double.NaN;
         }
-        List<Object> value = series.getValues().get(0);
-        return (Double) value.get(1);
+        return ((Number) value.get(1)).doubleValue();
     }
 
     /**
@@ -21,6 +21,13 @@ import eu.ascetic.zabbixdatalogger.datasource.types.VmDeployed;
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
 import org.jcollectd.agent.api.DataSource;
 import org.jcollectd.agent.api.Notification;
 import org.jcollectd.agent.api.Values;
@@ -30,19 +37,83 @@ import org.jcollectd.server.protocol.UdpReceiver;
 /**
  * This adaptor allows for the use of CollectD as a data source.
  *
+ * A host's measurement is built up from many packets, it is published to
+ * readers and listeners once it is complete, which is either when a packet
+ * arrives whose time is at least one collection interval after the start of
+ * the measurement's interval or, as a fallback, when no further packets have
+ * arrived for the host within a short quiet period. collectd stamps each
+ * plugin's read separately, so the packets of one interval may well carry
+ * different whole seconds.
+ *
  * @author Richard Kavanagh
  */
-public class CollectdDataSourceAdaptor implements DataSourceAdaptor, Dispatcher {
+public class CollectdDataSourceAdaptor implements DataSourceAdaptor, MeasurementSource, Dispatcher {
 
-    private final HashMap<String, Host> knownHosts = new HashMap<>();
-    private final HashMap<Host, HostMeasurement> recentMeasurements = new HashMap<>();
+    private final ConcurrentHashMap<String, Host> knownHosts = new ConcurrentHashMap<>();
+    /**
+     * The measurements that are being built up from received packets.
+     */
+    private final ConcurrentHashMap<Host, HostState> building = new ConcurrentHashMap<>();
+    /**
+     * The snapshot of each host's last complete measurement, which is what
+     * readers on other threads are given.
+     */
+    private final ConcurrentHashMap<Host, HostMeasurement> published = new ConcurrentHashMap<>();
+    /**
+     * The longest collection interval in seconds that each host has reported,
+     * this is only used by the receiver thread.
+     */
+    private final HashMap<Host, Long> intervals = new HashMap<>();
+    /**
+     * The amount of collection intervals after which a metric that has not
+     * been reported again is removed, as with collectd's own timeout.
+     */
+    private volatile int staleIntervals = 2;
     private final UdpReceiver reciever = new UdpReceiver();
     private final Thread recieverThread = new Thread(reciever);
+    /**
+     * The metric names already built from the parts of a collectd identifier,
+     * this avoids rebuilding the same names by concatenation on every packet.
+     */
+    private final HashMap<MetricNameKey, String> metricNames = new HashMap<>();
+    /**
+     * The key used to look up metric names, it is only used by the receiver
+     * thread that calls dispatch.
+     */
+    private final MetricNameKey probe = new MetricNameKey();
+    /**
+     * The recent history of each host, used to answer questions that cover a
+     * window of time.
+     */
+    private final TimeSeriesStore history = new TimeSeriesStore();
+    /**
+     * The distribution of each host's power and utilisation.
+     */
+    private final QuantileSketchStore quantiles = new QuantileSketchStore();
+    private final MeasurementListeners listeners = new MeasurementListeners();
+    private volatile long quietPeriodNanos = TimeUnit.MILLISECONDS.toNanos(200);
+    /**
+     * This completes the measurements of hosts that have gone quiet.
+     */
+    private final ScheduledExecutorService completer = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+        @Override
+        public Thread newThread(Runnable runnable) {
+            Thread thread = new Thread(runnable, "collectd-measurement-completer");
+            thread.setDaemon(true);
+            return thread;
+        }
+    });
     
     public CollectdDataSourceAdaptor() {
         reciever.setDispatcher(this);
         recieverThread.setDaemon(true);
         recieverThread.start();
+        completer.scheduleWithFixedDelay(new Runnable() {
+            @Override
+            public void run() {
+                completeQuietHosts();
+            }
+        }, 50, 50, TimeUnit.MILLISECONDS);
     }
     
     @Override
@@ -80,21 +151,21 @@ public class CollectdDataSourceAdaptor implements DataSourceAdaptor, Dispatcher
 
     @Override
     public HostMeasurement getHostData(Host host) {
-        return recentMeasurements.get(host);
+        return published.get(host);
     }
 
     @Override
     public List<HostMeasurement> getHostData() {
-        return new ArrayList<>(recentMeasurements.values());
+        return new ArrayList<>(published.values());
     }
 
     @Override
     public List<HostMeasurement> getHostData(List<Host> hostList) {
         ArrayList<HostMeasurement> answer = new ArrayList<>();
         for (Host host : hostList) {
-
-            if (recentMeasurements.containsKey(host)) {
-                answer.add(recentMeasurements.get(host));
+            HostMeasurement measurement = published.get(host);
+            if (measurement != null) {
+                answer.add(measurement);
             }
         }
         return answer;
@@ -117,17 +188,43 @@ public class CollectdDataSourceAdaptor implements DataSourceAdaptor, Dispatcher
 
     @Override
     public double getLowestHostPowerUsage(Host host) {
-        throw new UnsupportedOperationException("Not supported yet."); //To change body of generated methods, choose Tools | Templates.
+        double answer = quantiles.getMin(host.getHostName(), KpiList.POWER_KPI_NAME);
+        return Double.isNaN(answer) ? 0.0 : answer;
     }
 
     @Override
     public double getHighestHostPowerUsage(Host host) {
-        throw new UnsupportedOperationException("Not supported yet."); //To change body of generated methods, choose Tools | Templates.
+        double answer = quantiles.getMax(host.getHostName(), KpiList.POWER_KPI_NAME);
+        return Double.isNaN(answer) ? 0.0 : answer;
     }
 
     @Override
     public double getCpuUtilisation(Host host, int durationSeconds) {
-        throw new UnsupportedOperationException("Not supported yet."); //To change body of generated methods, choose Tools | Templates.
+        double answer = history.getCpuUtilisation(host.getHostName(), durationSeconds);
+        if (Double.isNaN(answer)) {
+            HostMeasurement measurement = published.get(host);
+            return measurement == null ? 0 : measurement.getCpuUtilisation();
+        }
+        return answer;
+    }
+
+    /**
+     * This provides the recent history of values held for each host.
+     *
+     * @return The time series store of this data source adaptor
+     */
+    public TimeSeriesStore getHistory() {
+        return history;
+    }
+
+    /**
+     * This provides the quantile sketches of each host's power and cpu
+     * utilisation.
+     *
+     * @return The quantile sketches of this data source adaptor
+     */
+    public QuantileSketchStore getQuantiles() {
+        return quantiles;
     }
 
     @Override
@@ -141,16 +238,150 @@ public class CollectdDataSourceAdaptor implements DataSourceAdaptor, Dispatcher
         } else {
             host = knownHosts.get(values.getHost());
         }
-        HostMeasurement measurement = recentMeasurements.get(host);
-        if (measurement == null) {
-            measurement = new HostMeasurement(host); 
+        HostState state = building.get(host);
+        if (state == null) {
+            state = new HostState(new HostMeasurement(host));
+            building.put(host, state);
         }
-        if (values.getDataSource() != null) {
-            parseWithDataSource(measurement, values);
-        } else {
-            parseWithoutDataSource(measurement, values);
+        HostMeasurement completed = null;
+        synchronized (state) {
+            HostMeasurement measurement = state.measurement;
+            long time = values.getTime();
+            long interval = getInterval(host, values);
+            if (state.changed && interval > 0 && time >= state.intervalStart + (interval << 30)) {
+                //The packet is from the next interval, so the last one is complete
+                completed = complete(host, state);
+            }
+            if (!state.changed || time < state.intervalStart) {
+                state.intervalStart = time;
+            }
+            if (values.getDataSource() != null) {
+                parseWithDataSource(measurement, values);
+            } else {
+                parseWithoutDataSource(measurement, values);
+            }
+            if (interval > 0) {
+                measurement.cleanStaleMetrics((int) Math.min(Integer.MAX_VALUE, interval * staleIntervals));
+            }
+            state.changed = true;
+            state.received = System.nanoTime();
+        }
+        listeners.fire(completed);
+    }
+
+    @Override
+    public void addMeasurementListener(MeasurementListener listener) {
+        listeners.add(listener);
+    }
+
+    @Override
+    public void removeMeasurementListener(MeasurementListener listener) {
+        listeners.remove(listener);
+    }
+
+    /**
+     * This sets how long after a host's last packet its measurement is taken
+     * to be complete, if no packet for the next interval has arrived first.
+     *
+     * @param millis The quiet period in milliseconds, the default is 200.
+     */
+    public void setQuietPeriod(long millis) {
+        this.quietPeriodNanos = TimeUnit.MILLISECONDS.toNanos(millis);
+    }
+
+    /**
+     * This completes the measurements of hosts that have not sent a packet
+     * within the quiet period.
+     */
+    private void completeQuietHosts() {
+        long now = System.nanoTime();
+        for (Map.Entry<Host, HostState> entry : building.entrySet()) {
+            HostState state = entry.getValue();
+            HostMeasurement completed = null;
+            synchronized (state) {
+                if (state.changed && now - state.received >= quietPeriodNanos) {
+                    completed = complete(entry.getKey(), state);
+                }
+            }
+            listeners.fire(completed);
         }
-        recentMeasurements.put(host, measurement);
+    }
+
+    /**
+     * This publishes a host's complete measurement. A snapshot is only taken
+     * once per interval, so packets within an interval change the measurement
+     * in place rather than copying it. The caller must hold the state's lock.
+     *
+     * @param host The host the measurement is for
+     * @param state The host's measurement that is complete
+     * @return The published snapshot, which is to be passed on to listeners
+     */
+    private HostMeasurement complete(Host host, HostState state) {
+        HostMeasurement snapshot = state.measurement.snapshot();
+        //Only complete intervals are recorded, so all of a sample's values match
+        history.add(host.getHostName(), snapshot);
+        quantiles.add(host.getHostName(), snapshot);
+        published.put(host, snapshot);
+        state.changed = false;
+        return snapshot;
+    }
+
+    /**
+     * A host's measurement that is being built up from packets. It is used
+     * by both the receiver thread and the quiet period check, which lock it.
+     */
+    private static class HostState {
+
+        private final HostMeasurement measurement;
+        /**
+         * If packets have arrived since the measurement was last published.
+         */
+        private boolean changed = false;
+        /**
+         * The time the last packet arrived, from System.nanoTime.
+         */
+        private long received;
+        /**
+         * The earliest time given by a packet of the interval being built, in
+         * collectd's units of 2^-30 seconds.
+         */
+        private long intervalStart;
+
+        public HostState(HostMeasurement measurement) {
+            this.measurement = measurement;
+        }
+    }
+
+    /**
+     * This gets the collection interval of a host, which is the longest
+     * interval given in any of its packets.
+     *
+     * @param host The host the packet is from
+     * @param values The packet
+     * @return The interval in seconds, or 0 if it is not known.
+     */
+    private long getInterval(Host host, Values values) {
+        long interval = values.getInterval();
+        if (interval >= (1L << 30)) {
+            //High resolution intervals are in units of 2^-30 seconds
+            interval = interval >> 30;
+        }
+        Long longest = intervals.get(host);
+        if (longest == null || interval > longest) {
+            intervals.put(host, interval);
+            return Math.max(interval, 0);
+        }
+        return longest;
+    }
+
+    /**
+     * This sets the amount of collection intervals after which a metric that
+     * has not been reported again is removed from a host's measurement.
+     *
+     * @param staleIntervals The amount of intervals, the default is 2.
+     */
+    public void setStaleIntervals(int staleIntervals) {
+        this.staleIntervals = staleIntervals;
     }
 
     /**
@@ -163,14 +394,9 @@ public class CollectdDataSourceAdaptor implements DataSourceAdaptor, Dispatcher
      */
     private HostMeasurement parseWithoutDataSource(HostMeasurement toUpdate, Values values) {
         long clock = (values.getTime() >> 30);
-        String name = values.getPlugin();
-        if (values.getPluginInstance() != null) {
-            name = name + " " + values.getPluginInstance();
-        } else if (values.getTypeInstance() != null) {
-            name = name + " " + values.getTypeInstance();
-        }
+        String name = getMetricName(false, values, null);
         for (Number value : values.getData()) {
-            MetricValue metric = new MetricValue(name, name, value.toString(), clock);
+            MetricValue metric = new MetricValue(name, name, value, clock);
             toUpdate.addMetric(metric);
         }
         toUpdate.setClock(clock);
@@ -187,27 +413,61 @@ public class CollectdDataSourceAdaptor implements DataSourceAdaptor, Dispatcher
      */
     private HostMeasurement parseWithDataSource(HostMeasurement toUpdate, Values values) {
         long clock = (values.getTime() >> 30);
-        String name = values.getPlugin();
-        if (values.getTypeInstance() != null) {
-            name = name + " " + values.getTypeInstance();
-        }
-        if (values.getPluginInstance() != null) {
-            name = name + " " + values.getPluginInstance();
-        }
         int i = 0;
         List<DataSource> datasource = values.getDataSource();
         for (Number value : values.getData()) {
-            String instanceName = name;
-            if (datasource.get(i) != null && !datasource.get(i).getName().equals("value")) {
-                instanceName = instanceName + " " + datasource.get(i).getName();
+            String dataSourceName = null;
+            if (i < datasource.size() && datasource.get(i) != null && !datasource.get(i).getName().equals("value")) {
+                dataSourceName = datasource.get(i).getName();
             }
-            MetricValue metric = new MetricValue(instanceName, instanceName, value.toString(), clock);
+            i++;
+            String instanceName = getMetricName(true, values, dataSourceName);
+            MetricValue metric = new MetricValue(instanceName, instanceName, value, clock);
             toUpdate.addMetric(metric);
         }
         toUpdate.setClock(clock);        
         return toUpdate;
     }
 
+    /**
+     * This gets the name of a metric from the parts of a collectd identifier.
+     * Names are built once and then reused, the name is also the metric's key.
+     *
+     * @param withDataSource If the values packet has a data source, which
+     * alters the order the parts of the name are given in.
+     * @param values The values packet the metric is from
+     * @param dataSource The name of the data source of the value, or null.
+     * @return The name of the metric
+     */
+    private String getMetricName(boolean withDataSource, Values values, String dataSource) {
+        probe.set(withDataSource, values.getPlugin(), values.getPluginInstance(), values.getTypeInstance(), dataSource);
+        String name = metricNames.get(probe);
+        if (name != null) {
+            return name;
+        }
+        name = values.getPlugin();
+        if (withDataSource) {
+            if (values.getTypeInstance() != null) {
+                name = name + " " + values.getTypeInstance();
+            }
+            if (values.getPluginInstance() != null) {
+                name = name + " " + values.getPluginInstance();
+            }
+            if (dataSource != null) {
+                name = name + " " + dataSource;
+            }
+        } else if (values.getPluginInstance() != null) {
+            name = name + " " + values.getPluginInstance();
+        } else if (values.getTypeInstance() != null) {
+            name = name + " " + values.getTypeInstance();
+        }
+        name = MetricSymbolTable.intern(name);
+        MetricNameKey key = new MetricNameKey();
+        key.set(withDataSource, values.getPlugin(), values.getPluginInstance(), values.getTypeInstance(), dataSource);
+        metricNames.put(key, name);
+        return name;
+    }
+
     @Override
     public void dispatch(Notification notification) {
         
@@ -237,4 +497,57 @@ public class CollectdDataSourceAdaptor implements DataSourceAdaptor, Dispatcher
         System.out.println("The aim of this data source adaptor is to focus on reading Values");
     }
 
+    /**
+     * This is the set of identifier parts that a metric name is built from.
+     */
+    private static class MetricNameKey {
+
+        private boolean withDataSource;
+        private String plugin;
+        private String pluginInstance;
+        private String typeInstance;
+        private String dataSource;
+        private int hash;
+
+        /**
+         * This sets the parts of the identifier held by this key.
+         *
+         * @param withDataSource If the values packet has a data source
+         * @param plugin The plugin name
+         * @param pluginInstance The plugin instance name
+         * @param typeInstance The type instance name
+         * @param dataSource The data source name
+         */
+        private void set(boolean withDataSource, String plugin, String pluginInstance, String typeInstance, String dataSource) {
+            this.withDataSource = withDataSource;
+            this.plugin = plugin;
+            this.pluginInstance = pluginInstance;
+            this.typeInstance = typeInstance;
+            this.dataSource = dataSource;
+            int answer = withDataSource ? 1 : 0;
+            answer = 31 * answer + Objects.hashCode(plugin);
+            answer = 31 * answer + Objects.hashCode(pluginInstance);
+            answer = 31 * answer + Objects.hashCode(typeInstance);
+            hash = 31 * answer + Objects.hashCode(dataSource);
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (!(obj instanceof MetricNameKey)) {
+                return false;
+            }
+            MetricNameKey other = (MetricNameKey) obj;
+            return withDataSource == other.withDataSource
+                    && Objects.equals(plugin, other.plugin)
+                    && Objects.equals(pluginInstance, other.pluginInstance)
+                    && Objects.equals(typeInstance, other.typeInstance)
+                    && Objects.equals(dataSource, other.dataSource);
+        }
+    }
+
 }
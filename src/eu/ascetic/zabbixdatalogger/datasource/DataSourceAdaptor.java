@@ -113,7 +113,8 @@ public interface DataSourceAdaptor {
      * This finds the lowest/resting power usage by a client.
      *
      * @param host The host to get the lowest power usage data for.
-     * @return The lowest i.e. resting power usage of a host
+     * @return The lowest i.e. resting power usage of a host, or 0.0 if no
+     * power data is held for the host.
      */
     public double getLowestHostPowerUsage(Host host);
 
@@ -121,7 +122,8 @@ public interface DataSourceAdaptor {
      * This finds the highest power usage by a host.
      *
      * @param host The host to get the highest power usage data for.
-     * @return The highest power usage of a host
+     * @return The highest power usage of a host, or 0.0 if no power data is
+     * held for the host.
      */
     public double getHighestHostPowerUsage(eu.ascetic.zabbixdatalogger.datasource.types.Host host);
     
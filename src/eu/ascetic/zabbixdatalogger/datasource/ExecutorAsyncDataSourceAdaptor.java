@@ -0,0 +1,442 @@
+/**
+ * Copyright 2018 University of Leeds
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package eu.ascetic.zabbixdatalogger.datasource;
+
+import eu.ascetic.zabbixdatalogger.datasource.types.Host;
+import eu.ascetic.zabbixdatalogger.datasource.types.MonitoredEntity;
+import eu.ascetic.zabbixdatalogger.datasource.types.VmDeployed;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BiFunction;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * This makes any blocking data source adaptor asynchronous, by running its
+ * queries on a bounded pool of threads. Queries for a list of hosts or VMs
+ * are split into one query per host or VM that run at the same time, so a
+ * poll of many hosts takes about as long as the slowest host rather than the
+ * sum of all of them.
+ *
+ * It is also a blocking data source adaptor in its own right, so it may be
+ * used in place of the adaptor it wraps. If the pool's queue is full the
+ * query is run on the calling thread, which slows callers down rather than
+ * queueing work without bound.
+ *
+ * The wrapped adaptor must be safe to call from several threads at once.
+ *
+ * @author Richard Kavanagh
+ */
+public class ExecutorAsyncDataSourceAdaptor implements AsyncDataSourceAdaptor, DataSourceAdaptor {
+
+    private final DataSourceAdaptor adaptor;
+    private final ExecutorService executor;
+    private final boolean ownsExecutor;
+
+    /**
+     * This wraps a data source adaptor with its own pool of threads.
+     *
+     * @param adaptor The blocking adaptor to wrap
+     * @param threads The amount of queries that may run at once
+     */
+    public ExecutorAsyncDataSourceAdaptor(DataSourceAdaptor adaptor, int threads) {
+        this(adaptor, createExecutor(threads, threads * 64), true);
+    }
+
+    /**
+     * This wraps a data source adaptor, running its queries on a given
+     * executor.
+     *
+     * @param adaptor The blocking adaptor to wrap
+     * @param executor The executor to run queries on, this is not shut down
+     * by close.
+     */
+    public ExecutorAsyncDataSourceAdaptor(DataSourceAdaptor adaptor, ExecutorService executor) {
+        this(adaptor, executor, false);
+    }
+
+    /**
+     * This wraps a data source adaptor.
+     *
+     * @param adaptor The blocking adaptor to wrap
+     * @param executor The executor to run queries on
+     * @param ownsExecutor If the executor should be shut down by close
+     */
+    private ExecutorAsyncDataSourceAdaptor(DataSourceAdaptor adaptor, ExecutorService executor, boolean ownsExecutor) {
+        this.adaptor = adaptor;
+        this.executor = executor;
+        this.ownsExecutor = ownsExecutor;
+    }
+
+    /**
+     * This creates a bounded pool of daemon threads, suitable for running data
+     * source queries. When its queue is full tasks are run by the thread that
+     * submits them.
+     *
+     * @param threads The amount of threads in the pool
+     * @param queueCapacity The amount of tasks that may wait for a thread
+     * @return The new executor
+     */
+    public static ExecutorService createExecutor(int threads, int queueCapacity) {
+        final AtomicInteger count = new AtomicInteger();
+        ThreadFactory factory = new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable task) {
+                Thread thread = new Thread(task, "data-source-query-" + count.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            }
+        };
+        return new ThreadPoolExecutor(threads, threads, 60, TimeUnit.SECONDS,
+                new LinkedBlockingQueue<Runnable>(Math.max(1, queueCapacity)), factory,
+                new ThreadPoolExecutor.CallerRunsPolicy());
+    }
+
+    /**
+     * This gives the blocking adaptor that is wrapped.
+     *
+     * @return The wrapped adaptor
+     */
+    public DataSourceAdaptor getAdaptor() {
+        return adaptor;
+    }
+
+    /**
+     * This shuts down the pool of threads, if it was created by this adaptor.
+     */
+    public void close() {
+        if (ownsExecutor) {
+            executor.shutdown();
+        }
+    }
+
+    /**
+     * This runs a query on the executor.
+     *
+     * @param <T> The type of the query's answer
+     * @param query The query to run
+     * @return The future answer of the query
+     */
+    private <T> CompletableFuture<T> submit(final Callable<T> query) {
+        final CompletableFuture<T> answer = new CompletableFuture<>();
+        try {
+            executor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        answer.complete(query.call());
+                    } catch (Exception ex) {
+                        answer.completeExceptionally(ex);
+                    }
+                }
+            });
+        } catch (RejectedExecutionException ex) {
+            answer.completeExceptionally(ex);
+        }
+        return answer;
+    }
+
+    /**
+     * This waits for the answer of a query. A failed query is logged and gives
+     * a null answer, as the blocking adaptors do when data is not available.
+     *
+     * @param <T> The type of the query's answer
+     * @param future The future answer of the query
+     * @return The answer, or null if the query failed.
+     */
+    public static <T> T await(CompletableFuture<T> future) {
+        try {
+            return future.get();
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            Logger.getLogger(ExecutorAsyncDataSourceAdaptor.class.getName()).log(Level.SEVERE, null, ex);
+        } catch (ExecutionException ex) {
+            Logger.getLogger(ExecutorAsyncDataSourceAdaptor.class.getName()).log(Level.SEVERE, "The data source query failed", ex.getCause());
+        }
+        return null;
+    }
+
+    /**
+     * This combines many futures into one future list of their answers, in
+     * the same order. Failed or null answers are left out of the list.
+     *
+     * @param <T> The type of each answer
+     * @param futures The futures to combine
+     * @return The future list of answers
+     */
+    public static <T> CompletableFuture<List<T>> allOf(final List<CompletableFuture<T>> futures) {
+        CompletableFuture<?>[] all = futures.toArray(new CompletableFuture<?>[futures.size()]);
+        return CompletableFuture.allOf(all).handle(new BiFunction<Void, Throwable, List<T>>() {
+            @Override
+            public List<T> apply(Void ignored, Throwable failure) {
+                List<T> answer = new ArrayList<>(futures.size());
+                for (CompletableFuture<T> future : futures) {
+                    if (future.isCompletedExceptionally()) {
+                        try {
+                            future.join();
+                        } catch (RuntimeException ex) {
+                            Logger.getLogger(ExecutorAsyncDataSourceAdaptor.class.getName()).log(Level.SEVERE, "The data source query failed", ex.getCause());
+                        }
+                        continue;
+                    }
+                    T item = future.join();
+                    if (item != null) {
+                        answer.add(item);
+                    }
+                }
+                return answer;
+            }
+        });
+    }
+
+    @Override
+    public CompletableFuture<Host> getHostByNameAsync(final String hostname) {
+        return submit(new Callable<Host>() {
+            @Override
+            public Host call() {
+                return adaptor.getHostByName(hostname);
+            }
+        });
+    }
+
+    @Override
+    public CompletableFuture<VmDeployed> getVmByNameAsync(final String name) {
+        return submit(new Callable<VmDeployed>() {
+            @Override
+            public VmDeployed call() {
+                return adaptor.getVmByName(name);
+            }
+        });
+    }
+
+    @Override
+    public CompletableFuture<List<Host>> getHostListAsync() {
+        return submit(new Callable<List<Host>>() {
+            @Override
+            public List<Host> call() {
+                return adaptor.getHostList();
+            }
+        });
+    }
+
+    @Override
+    public CompletableFuture<List<MonitoredEntity>> getHostAndVmListAsync() {
+        return submit(new Callable<List<MonitoredEntity>>() {
+            @Override
+            public List<MonitoredEntity> call() {
+                return adaptor.getHostAndVmList();
+            }
+        });
+    }
+
+    @Override
+    public CompletableFuture<List<VmDeployed>> getVmListAsync() {
+        return submit(new Callable<List<VmDeployed>>() {
+            @Override
+            public List<VmDeployed> call() {
+                return adaptor.getVmList();
+            }
+        });
+    }
+
+    @Override
+    public CompletableFuture<HostMeasurement> getHostDataAsync(final Host host) {
+        return submit(new Callable<HostMeasurement>() {
+            @Override
+            public HostMeasurement call() {
+                return adaptor.getHostData(host);
+            }
+        });
+    }
+
+    @Override
+    public CompletableFuture<List<HostMeasurement>> getHostDataAsync() {
+        return submit(new Callable<List<HostMeasurement>>() {
+            @Override
+            public List<HostMeasurement> call() {
+                return adaptor.getHostData();
+            }
+        });
+    }
+
+    @Override
+    public CompletableFuture<List<HostMeasurement>> getHostDataAsync(List<Host> hostList) {
+        List<CompletableFuture<HostMeasurement>> futures = new ArrayList<>();
+        if (hostList != null) {
+            for (Host host : hostList) {
+                futures.add(getHostDataAsync(host));
+            }
+        }
+        return allOf(futures);
+    }
+
+    @Override
+    public CompletableFuture<VmMeasurement> getVmDataAsync(final VmDeployed vm) {
+        return submit(new Callable<VmMeasurement>() {
+            @Override
+            public VmMeasurement call() {
+                return adaptor.getVmData(vm);
+            }
+        });
+    }
+
+    @Override
+    public CompletableFuture<List<VmMeasurement>> getVmDataAsync() {
+        return submit(new Callable<List<VmMeasurement>>() {
+            @Override
+            public List<VmMeasurement> call() {
+                return adaptor.getVmData();
+            }
+        });
+    }
+
+    @Override
+    public CompletableFuture<List<VmMeasurement>> getVmDataAsync(List<VmDeployed> vmList) {
+        List<CompletableFuture<VmMeasurement>> futures = new ArrayList<>();
+        if (vmList != null) {
+            for (VmDeployed vm : vmList) {
+                futures.add(getVmDataAsync(vm));
+            }
+        }
+        return allOf(futures);
+    }
+
+    @Override
+    public CompletableFuture<Double> getLowestHostPowerUsageAsync(final Host host) {
+        return submit(new Callable<Double>() {
+            @Override
+            public Double call() {
+                return adaptor.getLowestHostPowerUsage(host);
+            }
+        });
+    }
+
+    @Override
+    public CompletableFuture<Double> getHighestHostPowerUsageAsync(final Host host) {
+        return submit(new Callable<Double>() {
+            @Override
+            public Double call() {
+                return adaptor.getHighestHostPowerUsage(host);
+            }
+        });
+    }
+
+    @Override
+    public CompletableFuture<Double> getCpuUtilisationAsync(final Host host, final int durationSeconds) {
+        return submit(new Callable<Double>() {
+            @Override
+            public Double call() {
+                return adaptor.getCpuUtilisation(host, durationSeconds);
+            }
+        });
+    }
+
+    @Override
+    public Host getHostByName(String hostname) {
+        return adaptor.getHostByName(hostname);
+    }
+
+    @Override
+    public VmDeployed getVmByName(String name) {
+        return adaptor.getVmByName(name);
+    }
+
+    @Override
+    public List<Host> getHostList() {
+        return adaptor.getHostList();
+    }
+
+    @Override
+    public List<MonitoredEntity> getHostAndVmList() {
+        return adaptor.getHostAndVmList();
+    }
+
+    @Override
+    public List<VmDeployed> getVmList() {
+        return adaptor.getVmList();
+    }
+
+    @Override
+    public HostMeasurement getHostData(Host host) {
+        return adaptor.getHostData(host);
+    }
+
+    @Override
+    public List<HostMeasurement> getHostData() {
+        return adaptor.getHostData();
+    }
+
+    /**
+     * This queries each of the hosts at the same time.
+     *
+     * @param hostList The list of hosts to get the data from
+     * @return A list of host measurements, hosts whose query failed are left
+     * out.
+     */
+    @Override
+    public List<HostMeasurement> getHostData(List<Host> hostList) {
+        List<HostMeasurement> answer = await(getHostDataAsync(hostList));
+        return answer == null ? new ArrayList<HostMeasurement>() : answer;
+    }
+
+    @Override
+    public VmMeasurement getVmData(VmDeployed vm) {
+        return adaptor.getVmData(vm);
+    }
+
+    @Override
+    public List<VmMeasurement> getVmData() {
+        return adaptor.getVmData();
+    }
+
+    /**
+     * This queries each of the VMs at the same time.
+     *
+     * @param vmList The list of vms to get the data from
+     * @return A list of vm measurements, VMs whose query failed are left out.
+     */
+    @Override
+    public List<VmMeasurement> getVmData(List<VmDeployed> vmList) {
+        List<VmMeasurement> answer = await(getVmDataAsync(vmList));
+        return answer == null ? new ArrayList<VmMeasurement>() : answer;
+    }
+
+    @Override
+    public double getLowestHostPowerUsage(Host host) {
+        return adaptor.getLowestHostPowerUsage(host);
+    }
+
+    @Override
+    public double getHighestHostPowerUsage(Host host) {
+        return adaptor.getHighestHostPowerUsage(host);
+    }
+
+    @Override
+    public double getCpuUtilisation(Host host, int durationSeconds) {
+        return adaptor.getCpuUtilisation(host, durationSeconds);
+    }
+
+}
@@ -0,0 +1,513 @@
+/**
+ * Copyright 2018 University of Leeds
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package eu.ascetic.zabbixdatalogger.datasource;
+
+import eu.ascetic.zabbixdatalogger.datasource.types.Host;
+import eu.ascetic.zabbixdatalogger.datasource.types.MonitoredEntity;
+import eu.ascetic.zabbixdatalogger.datasource.types.VmDeployed;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BiFunction;
+import java.util.function.Function;
+import java.util.function.Supplier;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * This combines several data source adaptors into one. Each host's data is
+ * requested from every source at the same time and the answers are merged
+ * into a single measurement, so a poll takes as long as the slowest source
+ * rather than the sum of all of them.
+ *
+ * The first source added is the primary source, which provides the list of
+ * hosts and VMs, host and VM lookups and VM data. The other sources may name
+ * hosts differently, so each may be given a function that maps the primary
+ * source's host names onto its own.
+ *
+ * When more than one source provides the same metric the newest value is
+ * used, unless a precedence has been set for the metric, in which case the
+ * value comes from the first source in the precedence order that has it.
+ *
+ * A source's own host for a primary host is looked up on the pool of
+ * threads, as part of the host's first query, and then remembered. A host
+ * that a source does not hold is looked up again once the host retry
+ * interval has passed.
+ *
+ * The sources must be safe to call from several threads at once.
+ *
+ * @author Richard Kavanagh
+ */
+public class FederatedDataSourceAdaptor implements DataSourceAdaptor {
+
+    private final ExecutorService executor;
+    private final boolean ownsExecutor;
+    private final CopyOnWriteArrayList<Source> sources = new CopyOnWriteArrayList<>();
+    private final ConcurrentHashMap<String, List<DataSourceAdaptor>> precedence = new ConcurrentHashMap<>();
+    private volatile DataSourceAdaptor statisticsSource = null;
+    /**
+     * The time after which a host that a source did not hold is looked up
+     * again, in nanoseconds.
+     */
+    private volatile long hostRetryNanos = TimeUnit.MINUTES.toNanos(1);
+
+    /**
+     * This creates a federated adaptor with its own pool of threads.
+     *
+     * @param threads The amount of queries that may run at once
+     */
+    public FederatedDataSourceAdaptor(int threads) {
+        this(ExecutorAsyncDataSourceAdaptor.createExecutor(threads, threads * 64), true);
+    }
+
+    /**
+     * This creates a federated adaptor that queries its sources on a given
+     * executor.
+     *
+     * @param executor The executor to run queries on, this is not shut down
+     * by close.
+     */
+    public FederatedDataSourceAdaptor(ExecutorService executor) {
+        this(executor, false);
+    }
+
+    /**
+     * This creates a federated adaptor.
+     *
+     * @param executor The executor to run queries on
+     * @param ownsExecutor If the executor should be shut down by close
+     */
+    private FederatedDataSourceAdaptor(ExecutorService executor, boolean ownsExecutor) {
+        this.executor = executor;
+        this.ownsExecutor = ownsExecutor;
+    }
+
+    /**
+     * This adds a source that names hosts in the same way as the primary
+     * source.
+     *
+     * @param source The source to add
+     */
+    public void addSource(DataSourceAdaptor source) {
+        addSource(source, null);
+    }
+
+    /**
+     * This adds a source that may name hosts differently to the primary
+     * source.
+     *
+     * @param source The source to add
+     * @param hostNameMapping This maps the name of a host in the primary
+     * source onto its name in this source, it may give null if the source does
+     * not hold the host. If null the names are the same.
+     */
+    public void addSource(DataSourceAdaptor source, Function<String, String> hostNameMapping) {
+        sources.add(new Source(this, source, new ExecutorAsyncDataSourceAdaptor(source, executor), hostNameMapping));
+    }
+
+    /**
+     * This sets how long a source's answer that it does not hold a host is
+     * remembered for, before the host is looked up in the source again.
+     *
+     * @param seconds The time in seconds, the default is 60.
+     */
+    public void setHostRetryInterval(int seconds) {
+        hostRetryNanos = TimeUnit.SECONDS.toNanos(seconds);
+    }
+
+    /**
+     * This sets which sources a metric should be taken from, in order of
+     * preference.
+     *
+     * @param metric The key of the metric
+     * @param order The sources in the order they are preferred, sources that
+     * are not listed are not used for this metric. If none of the listed
+     * sources has the metric it is left out of the merged measurement.
+     */
+    public void setPrecedence(String metric, DataSourceAdaptor... order) {
+        precedence.put(metric, new ArrayList<>(Arrays.asList(order)));
+    }
+
+    /**
+     * This sets the source that is asked for the lowest and highest power and
+     * the CPU utilisation of hosts, by default this is the primary source.
+     *
+     * @param source The source of host statistics
+     */
+    public void setStatisticsSource(DataSourceAdaptor source) {
+        statisticsSource = source;
+    }
+
+    /**
+     * This lists the sources in the order they were added.
+     *
+     * @return The sources, the first of which is the primary source
+     */
+    public List<DataSourceAdaptor> getSources() {
+        List<DataSourceAdaptor> answer = new ArrayList<>();
+        for (Source source : sources) {
+            answer.add(source.adaptor);
+        }
+        return answer;
+    }
+
+    /**
+     * This shuts down the pool of threads, if it was created by this adaptor.
+     */
+    public void close() {
+        if (ownsExecutor) {
+            executor.shutdown();
+        }
+    }
+
+    /**
+     * This gets the primary source.
+     *
+     * @return The first source added
+     */
+    private DataSourceAdaptor getPrimary() {
+        return sources.get(0).adaptor;
+    }
+
+    /**
+     * This finds the host known to a given source that matches a host of the
+     * primary source.
+     *
+     * @param source The source to find the host in
+     * @param host The host as named by the primary source
+     * @return The host as named by the source, or null if the source does not
+     * hold it.
+     */
+    private Host getSourceHost(DataSourceAdaptor source, Host host) {
+        for (Source candidate : sources) {
+            if (candidate.adaptor == source) {
+                return candidate.getHost(host);
+            }
+        }
+        return null;
+    }
+
+    @Override
+    public Host getHostByName(String hostname) {
+        return getPrimary().getHostByName(hostname);
+    }
+
+    @Override
+    public VmDeployed getVmByName(String name) {
+        return getPrimary().getVmByName(name);
+    }
+
+    @Override
+    public List<Host> getHostList() {
+        return getPrimary().getHostList();
+    }
+
+    @Override
+    public List<MonitoredEntity> getHostAndVmList() {
+        return getPrimary().getHostAndVmList();
+    }
+
+    @Override
+    public List<VmDeployed> getVmList() {
+        return getPrimary().getVmList();
+    }
+
+    @Override
+    public HostMeasurement getHostData(Host host) {
+        return ExecutorAsyncDataSourceAdaptor.await(getHostDataAsync(host));
+    }
+
+    /**
+     * This queries every source for a host's data at the same time, merging
+     * their answers.
+     *
+     * @param host The host to get the measurement data for.
+     * @return The future host measurement data
+     */
+    public CompletableFuture<HostMeasurement> getHostDataAsync(final Host host) {
+        if (host == null) {
+            return CompletableFuture.completedFuture(null);
+        }
+        final List<Source> queried = new ArrayList<>(sources);
+        final List<CompletableFuture<HostMeasurement>> parts = new ArrayList<>(queried.size());
+        for (final Source source : queried) {
+            //The host lookup is part of the query, so no lookup blocks the caller
+            CompletableFuture<HostMeasurement> part = source.getHostAsync(host).thenCompose(new Function<Host, CompletableFuture<HostMeasurement>>() {
+                @Override
+                public CompletableFuture<HostMeasurement> apply(Host sourceHost) {
+                    if (sourceHost == null) {
+                        return CompletableFuture.completedFuture(null);
+                    }
+                    return source.async.getHostDataAsync(sourceHost);
+                }
+            });
+            //A failed source is logged and does not stop the others from been merged
+            parts.add(part.handle(new BiFunction<HostMeasurement, Throwable, HostMeasurement>() {
+                @Override
+                public HostMeasurement apply(HostMeasurement measurement, Throwable failure) {
+                    if (failure != null) {
+                        Logger.getLogger(FederatedDataSourceAdaptor.class.getName()).log(Level.SEVERE, "A data source query failed", failure);
+                        return null;
+                    }
+                    return measurement;
+                }
+            }));
+        }
+        CompletableFuture<?>[] all = parts.toArray(new CompletableFuture<?>[parts.size()]);
+        return CompletableFuture.allOf(all).thenApply(new Function<Void, HostMeasurement>() {
+            @Override
+            public HostMeasurement apply(Void ignored) {
+                List<HostMeasurement> answers = new ArrayList<>(parts.size());
+                for (CompletableFuture<HostMeasurement> part : parts) {
+                    answers.add(part.join());
+                }
+                return merge(host, queried, answers);
+            }
+        });
+    }
+
+    /**
+     * This merges the answers of each source into a single measurement. The
+     * answers of the sources are not altered, as they may be shared.
+     *
+     * @param host The host the data is for, as named by the primary source
+     * @param queried The sources that were queried
+     * @param answers The answer of each source, which may be null
+     * @return The merged measurement, or null if no source had data
+     */
+    private HostMeasurement merge(Host host, List<Source> queried, List<HostMeasurement> answers) {
+        HostMeasurement answer = null;
+        for (HostMeasurement part : answers) {
+            if (part == null) {
+                continue;
+            }
+            if (answer == null) {
+                answer = new HostMeasurement(host, part.getClock());
+            }
+            answer.addMetrics(part); //The newer of any two values is kept
+        }
+        if (answer == null) {
+            return null;
+        }
+        for (Map.Entry<String, List<DataSourceAdaptor>> rule : precedence.entrySet()) {
+            MetricValue chosen = null;
+            for (DataSourceAdaptor preferred : rule.getValue()) {
+                HostMeasurement part = getAnswer(preferred, queried, answers);
+                chosen = part == null ? null : part.getMetric(rule.getKey());
+                if (chosen != null) {
+                    break;
+                }
+            }
+            //Values from sources that are not listed are never used
+            answer.deleteMetric(rule.getKey());
+            if (chosen != null) {
+                answer.addMetric(chosen);
+            }
+        }
+        return answer;
+    }
+
+    /**
+     * This gets the answer that a given source gave.
+     *
+     * @param source The source
+     * @param queried The sources that were queried
+     * @param answers The answer of each source
+     * @return The source's answer, or null if it was not queried or had no
+     * data.
+     */
+    private static HostMeasurement getAnswer(DataSourceAdaptor source, List<Source> queried, List<HostMeasurement> answers) {
+        for (int i = 0; i < queried.size(); i++) {
+            if (queried.get(i).adaptor == source) {
+                return answers.get(i);
+            }
+        }
+        return null;
+    }
+
+    @Override
+    public List<HostMeasurement> getHostData() {
+        return getHostData(getHostList());
+    }
+
+    /**
+     * This queries every host at the same time.
+     *
+     * @param hostList The list of hosts to get the data from
+     * @return A list of host measurements
+     */
+    @Override
+    public List<HostMeasurement> getHostData(List<Host> hostList) {
+        if (hostList == null) {
+            hostList = new ArrayList<>();
+        }
+        List<CompletableFuture<HostMeasurement>> futures = new ArrayList<>();
+        for (Host host : hostList) {
+            futures.add(getHostDataAsync(host));
+        }
+        List<HostMeasurement> answer = ExecutorAsyncDataSourceAdaptor.await(ExecutorAsyncDataSourceAdaptor.allOf(futures));
+        return answer == null ? new ArrayList<HostMeasurement>() : answer;
+    }
+
+    @Override
+    public VmMeasurement getVmData(VmDeployed vm) {
+        return getPrimary().getVmData(vm);
+    }
+
+    @Override
+    public List<VmMeasurement> getVmData() {
+        return getPrimary().getVmData();
+    }
+
+    @Override
+    public List<VmMeasurement> getVmData(List<VmDeployed> vmList) {
+        return getPrimary().getVmData(vmList);
+    }
+
+    /**
+     * This gets the source of host statistics.
+     *
+     * @return The source set as the statistics source, else the primary
+     */
+    private DataSourceAdaptor getStatisticsSource() {
+        DataSourceAdaptor answer = statisticsSource;
+        return answer == null ? getPrimary() : answer;
+    }
+
+    @Override
+    public double getLowestHostPowerUsage(Host host) {
+        DataSourceAdaptor source = getStatisticsSource();
+        Host sourceHost = getSourceHost(source, host);
+        return sourceHost == null ? 0.0 : source.getLowestHostPowerUsage(sourceHost);
+    }
+
+    @Override
+    public double getHighestHostPowerUsage(Host host) {
+        DataSourceAdaptor source = getStatisticsSource();
+        Host sourceHost = getSourceHost(source, host);
+        return sourceHost == null ? 0.0 : source.getHighestHostPowerUsage(sourceHost);
+    }
+
+    @Override
+    public double getCpuUtilisation(Host host, int durationSeconds) {
+        DataSourceAdaptor source = getStatisticsSource();
+        Host sourceHost = getSourceHost(source, host);
+        return sourceHost == null ? 0.0 : source.getCpuUtilisation(sourceHost, durationSeconds);
+    }
+
+    /**
+     * A source of data, along with how its hosts are named.
+     */
+    private static class Source {
+
+        private final FederatedDataSourceAdaptor owner;
+        private final DataSourceAdaptor adaptor;
+        private final ExecutorAsyncDataSourceAdaptor async;
+        private final Function<String, String> hostNameMapping;
+        /**
+         * The source's hosts, by the name the primary source gives them.
+         */
+        private final ConcurrentHashMap<String, Host> hosts = new ConcurrentHashMap<>();
+        /**
+         * The hosts the source did not hold, by the name the primary source
+         * gives them, along with the time from System.nanoTime after which
+         * they are looked up again.
+         */
+        private final ConcurrentHashMap<String, Long> missing = new ConcurrentHashMap<>();
+
+        public Source(FederatedDataSourceAdaptor owner, DataSourceAdaptor adaptor, ExecutorAsyncDataSourceAdaptor async, Function<String, String> hostNameMapping) {
+            this.owner = owner;
+            this.adaptor = adaptor;
+            this.async = async;
+            this.hostNameMapping = hostNameMapping;
+        }
+
+        /**
+         * This finds this source's host that matches a host of the primary
+         * source, looking it up on the pool of threads if it is not already
+         * known.
+         *
+         * @param host The host as named by the primary source
+         * @return The future host as named by this source, which is null if it
+         * is not held by this source.
+         */
+        public CompletableFuture<Host> getHostAsync(final Host host) {
+            if (hostNameMapping == null) {
+                return CompletableFuture.completedFuture(host);
+            }
+            Host known = hosts.get(host.getHostName());
+            if (known != null || isMissing(host)) {
+                return CompletableFuture.completedFuture(known);
+            }
+            return CompletableFuture.supplyAsync(new Supplier<Host>() {
+                @Override
+                public Host get() {
+                    return getHost(host);
+                }
+            }, owner.executor);
+        }
+
+        /**
+         * This finds this source's host that matches a host of the primary
+         * source.
+         *
+         * @param host The host as named by the primary source
+         * @return The host as named by this source, or null if it is not held
+         * by this source.
+         */
+        public Host getHost(Host host) {
+            if (hostNameMapping == null) {
+                return host;
+            }
+            Host answer = hosts.get(host.getHostName());
+            if (answer != null || isMissing(host)) {
+                return answer;
+            }
+            String name = hostNameMapping.apply(host.getHostName());
+            answer = name == null ? null : adaptor.getHostByName(name);
+            if (answer == null) {
+                //The source may not have seen the host yet, so it is asked again later
+                if (name != null) {
+                    Logger.getLogger(FederatedDataSourceAdaptor.class.getName()).log(Level.WARNING,
+                            "The host {0} was not found in a data source", name);
+                }
+                missing.put(host.getHostName(), System.nanoTime() + owner.hostRetryNanos);
+                return null;
+            }
+            missing.remove(host.getHostName());
+            hosts.put(host.getHostName(), answer);
+            return answer;
+        }
+
+        /**
+         * This indicates if the source was recently found not to hold a host.
+         *
+         * @param host The host as named by the primary source
+         * @return If the host should not yet be looked up again
+         */
+        private boolean isMissing(Host host) {
+            Long retry = missing.get(host.getHostName());
+            return retry != null && System.nanoTime() - retry < 0;
+        }
+    }
+
+}
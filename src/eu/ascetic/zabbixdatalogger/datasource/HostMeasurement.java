@@ -15,8 +15,6 @@
  */
 package eu.ascetic.zabbixdatalogger.datasource;
 
-import static eu.ascetic.zabbixdatalogger.datasource.KpiList.ENERGY_KPI_NAME;
-import static eu.ascetic.zabbixdatalogger.datasource.KpiList.POWER_KPI_NAME;
 import eu.ascetic.zabbixdatalogger.datasource.types.Host;
 
 /**
@@ -62,9 +60,20 @@ public class HostMeasurement extends Measurement {
      * @param host The host that the measurement is for.
      */
     public void setHost(Host host) {
+        checkNotSnapshot();
         this.host = host;
     }
 
+    @Override
+    public HostMeasurement snapshot() {
+        if (isSnapshot()) {
+            return this;
+        }
+        HostMeasurement answer = new HostMeasurement(host);
+        shareWith(answer);
+        return answer;
+    }
+
     @Override
     public String toString() {
         return host.toString() + " Time: " + getClock() + " Metric Count: " + getMetricCount() + " Clock Diff: " + getMaximumClockDifference();
@@ -76,7 +85,7 @@ public class HostMeasurement extends Measurement {
      * @return The power consumed when the measurement was taken.
      */
     public double getPower() {
-        return this.getMetric(POWER_KPI_NAME).getValue();
+        return getSlot(POWER_SLOT).getValue();
     }
 
     /**
@@ -87,7 +96,7 @@ public class HostMeasurement extends Measurement {
      * might give to an energy company.
      */
     public double getEnergy() {
-        return this.getMetric(ENERGY_KPI_NAME).getValue();
+        return getSlot(ENERGY_SLOT).getValue();
     }
 
 }
@@ -25,16 +25,22 @@ import static eu.ascetic.zabbixdatalogger.datasource.KpiList.CPU_SPOT_USAGE_KPI_
 import static eu.ascetic.zabbixdatalogger.datasource.KpiList.CPU_STEAL_KPI_NAME;
 import static eu.ascetic.zabbixdatalogger.datasource.KpiList.CPU_SYSTEM_KPI_NAME;
 import static eu.ascetic.zabbixdatalogger.datasource.KpiList.CPU_USER_KPI_NAME;
+import static eu.ascetic.zabbixdatalogger.datasource.KpiList.ENERGY_KPI_NAME;
 import static eu.ascetic.zabbixdatalogger.datasource.KpiList.MEMORY_AVAILABLE_KPI_NAME;
 import static eu.ascetic.zabbixdatalogger.datasource.KpiList.MEMORY_TOTAL_KPI_NAME;
 import static eu.ascetic.zabbixdatalogger.datasource.KpiList.NETWORK_IN_STARTS_WITH_KPI_NAME;
 import static eu.ascetic.zabbixdatalogger.datasource.KpiList.NETWORK_OUT_STARTS_WITH_KPI_NAME;
-import java.util.ArrayList;
+import static eu.ascetic.zabbixdatalogger.datasource.KpiList.POWER_KPI_NAME;
+import java.util.AbstractCollection;
+import java.util.AbstractSet;
+import java.util.Arrays;
 import java.util.Collection;
+import java.util.ConcurrentModificationException;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Iterator;
 import java.util.Map;
+import java.util.NoSuchElementException;
 import java.util.Set;
 import java.util.logging.Level;
 import java.util.logging.Logger;
@@ -43,12 +49,98 @@ import java.util.logging.Logger;
  * This is the base class for all measurements, either for a vm instance or a
  * host physical machine.
  *
+ * The metrics of a measurement are held in a pair of arrays that are sorted by
+ * the id each metric's key has in the shared metric symbol table. This is far
+ * more compact than a hash map per measurement, when the latest measurement
+ * of many hosts is held in memory.
+ *
+ * The well known KPIs, such as the cpu and memory metrics, are also held in
+ * fixed slots so they can be read without a lookup. KPIs derived from several
+ * metrics, such as the cpu utilisation, are calculated on first use and are
+ * cached until a metric is added or removed.
+ *
+ * A measurement that is updated on one thread may be shared with others by
+ * publishing an immutable snapshot of it. The snapshot shares the arrays of
+ * the measurement it was taken from, so taking one is cheap, and the
+ * measurement copies its arrays the next time it is changed. Readers of a
+ * snapshot therefore see a consistent view without locking.
+ *
  * @author Richard Kavanagh
  */
 public abstract class Measurement {
 
+    private static final int[] NO_IDS = new int[0];
+    private static final MetricValue[] NO_VALUES = new MetricValue[0];
+    /**
+     * The fixed slots of the well known KPIs, which are the ids of their keys.
+     */
+    static final int CPU_SPOT_USAGE_SLOT = MetricSymbolTable.getId(CPU_SPOT_USAGE_KPI_NAME);
+    static final int CPU_SPOT_USAGE_SLOT2 = MetricSymbolTable.getId(CPU_SPOT_USAGE_KPI_NAME2);
+    static final int CPU_SYSTEM_SLOT = MetricSymbolTable.getId(CPU_SYSTEM_KPI_NAME);
+    static final int CPU_USER_SLOT = MetricSymbolTable.getId(CPU_USER_KPI_NAME);
+    static final int CPU_INTERUPT_SLOT = MetricSymbolTable.getId(CPU_INTERUPT_KPI_NAME);
+    static final int CPU_IO_WAIT_SLOT = MetricSymbolTable.getId(CPU_IO_WAIT_KPI_NAME);
+    static final int CPU_NICE_SLOT = MetricSymbolTable.getId(CPU_NICE_KPI_NAME);
+    static final int CPU_SOFT_IRQ_SLOT = MetricSymbolTable.getId(CPU_SOFT_IRQ_KPI_NAME);
+    static final int CPU_STEAL_SLOT = MetricSymbolTable.getId(CPU_STEAL_KPI_NAME);
+    static final int CPU_IDLE_SLOT = MetricSymbolTable.getId(CPU_IDLE_KPI_NAME);
+    static final int MEMORY_AVAILABLE_SLOT = MetricSymbolTable.getId(MEMORY_AVAILABLE_KPI_NAME);
+    static final int MEMORY_TOTAL_SLOT = MetricSymbolTable.getId(MEMORY_TOTAL_KPI_NAME);
+    static final int POWER_SLOT = MetricSymbolTable.getId(POWER_KPI_NAME);
+    static final int ENERGY_SLOT = MetricSymbolTable.getId(ENERGY_KPI_NAME);
+    /**
+     * The cpu utilisation metrics that are summed, in the order their clock
+     * values are preferred as the cpu utilisation's time stamp.
+     */
+    private static final int[] CPU_COMPONENT_SLOTS = {CPU_SYSTEM_SLOT, CPU_USER_SLOT,
+        CPU_INTERUPT_SLOT, CPU_IO_WAIT_SLOT, CPU_NICE_SLOT, CPU_SOFT_IRQ_SLOT, CPU_STEAL_SLOT};
+    /**
+     * The flags that mark which derived KPIs have a cached value.
+     */
+    private static final int CPU_UTILISATION_CACHED = 1;
+    private static final int CPU_TIME_STAMP_CACHED = 2;
+    private static final int NETWORK_IN_CACHED = 4;
+    private static final int NETWORK_OUT_CACHED = 8;
     private long clock;
-    private HashMap<String, MetricValue> metrics = new HashMap<>();
+    /**
+     * The symbol table ids of the metrics' keys, in ascending order.
+     */
+    private int[] ids = NO_IDS;
+    /**
+     * The metrics, in the same order as their ids.
+     */
+    private MetricValue[] values = NO_VALUES;
+    private int size = 0;
+    private int modCount = 0;
+    /**
+     * The well known KPIs, indexed by the id of their key.
+     */
+    private MetricValue[] slots = new MetricValue[MetricSymbolTable.FIXED_SLOT_COUNT];
+    /**
+     * The derived KPIs whose cached values are valid. This is volatile as the
+     * derived KPIs of a snapshot may be calculated by any reader, each value
+     * is written before its flag is set.
+     */
+    private volatile int cached = 0;
+    /**
+     * If this measurement is an immutable snapshot.
+     */
+    private boolean snapshot = false;
+    /**
+     * If the arrays of this measurement are shared with a snapshot, in which
+     * case they must be copied before they are changed.
+     */
+    private boolean shared = false;
+    /**
+     * The metrics ordered by clock, used to find stale metrics. It is only
+     * built by the first call to cleanStaleMetrics, so measurements that are
+     * never cleaned do not pay for it, and is never part of a snapshot.
+     */
+    private MetricClockIndex clockIndex = null;
+    private double cpuUtilisation;
+    private long cpuUtilisationTimeStamp;
+    private double networkIn;
+    private double networkOut;
 
     /**
      * This looks at the metrics gained, for this given gathering of measurement
@@ -61,8 +153,8 @@ public abstract class Measurement {
     public long getMaximumClockDifference() {
         long lowest = Integer.MAX_VALUE;
         long highest = Integer.MIN_VALUE;
-        for (MetricValue entry : metrics.values()) {
-            long current = entry.getClock();
+        for (int i = 0; i < size; i++) {
+            long current = values[i].getClock();
             if (current < lowest) {
                 lowest = current;
             }
@@ -82,8 +174,8 @@ public abstract class Measurement {
      * @return The difference in seconds between the two metric values.
      */
     public long getClockDifference(String metricName, String metricName2) {
-        MetricValue value1 = metrics.get(metricName);
-        MetricValue value2 = metrics.get(metricName2);
+        MetricValue value1 = getMetric(metricName);
+        MetricValue value2 = getMetric(metricName2);
         if (value1 == null || value2 == null) {
             return 0;
         }
@@ -106,7 +198,7 @@ public abstract class Measurement {
      * the time specified in Unix time.
      */
     public long getClockDifference(String metricName, long time) {
-        MetricValue value1 = metrics.get(metricName);
+        MetricValue value1 = getMetric(metricName);
         if (value1 == null) {
             return 0;
         }
@@ -184,26 +276,103 @@ public abstract class Measurement {
     }
     
     /**
-     * This removes stale data from the measurement.
+     * This removes stale data from the measurement. A metric is stale if its
+     * clock differs from the measurement's clock by more than the tolerance.
+     * Metrics are indexed by their clock, so only the metrics that have gone
+     * stale are looked at.
+     *
      * @param tolerance The tolerance in seconds from the latest measurement
      * @return The count of metric values removed
      */
     public int cleanStaleMetrics(int tolerance) {
+        if (size == 0) {
+            return 0;
+        }
+        if (clockIndex == null) {
+            clockIndex = new MetricClockIndex();
+            rebuildClockIndex();
+        }
+        if (clockIndex.getMaxClock() > clock + tolerance) {
+            //Metrics newer than the measurement are rare, so are found by a scan
+            return cleanStaleMetricsByScan(tolerance);
+        }
+        long oldest = clock - tolerance;
         int count = 0;
-        ArrayList<String> toRemove = new ArrayList<>();
-        for (Iterator<Map.Entry<String,MetricValue>> iterator = metrics.entrySet().iterator(); iterator.hasNext();) {
-            Object next = iterator.next();
-            Map.Entry<String,MetricValue> item = (Map.Entry<String,MetricValue>)next;
-            if (!isContemporary(item.getValue().getName(),clock , tolerance)) {
-                toRemove.add(item.getKey());
-                count = count + 1;
+        while (!clockIndex.isEmpty() && clockIndex.peekClock() < oldest) {
+            int id = clockIndex.peekId();
+            long metricClock = clockIndex.peekClock();
+            clockIndex.poll();
+            int index = Arrays.binarySearch(ids, 0, size, id);
+            //Entries for metrics that have since been replaced are skipped
+            if (index >= 0 && values[index] != null && values[index].getClock() == metricClock) {
+                if (count == 0) {
+                    beforeChange();
+                }
+                values[index] = null;
+                changed(id, null);
+                count++;
+            }
+        }
+        if (count > 0) {
+            int kept = 0;
+            for (int i = 0; i < size; i++) {
+                if (values[i] != null) {
+                    ids[kept] = ids[i];
+                    values[kept] = values[i];
+                    kept++;
+                }
+            }
+            size = kept;
+            modCount++;
+        }
+        return count;
+    }
+
+    /**
+     * This removes stale data from the measurement by looking at every
+     * metric, it is used when some metrics are newer than the measurement.
+     *
+     * @param tolerance The tolerance in seconds from the latest measurement
+     * @return The count of metric values removed
+     */
+    private int cleanStaleMetricsByScan(int tolerance) {
+        boolean any = false;
+        for (int i = 0; i < size && !any; i++) {
+            any = Math.abs(values[i].getClock() - clock) > tolerance;
+        }
+        if (any) {
+            beforeChange();
+        }
+        int kept = 0;
+        for (int i = 0; i < size && any; i++) {
+            if (Math.abs(values[i].getClock() - clock) <= tolerance) {
+                ids[kept] = ids[i];
+                values[kept] = values[i];
+                kept++;
+            } else {
+                changed(ids[i], null);
             }
         }
-        for (String item : toRemove) {
-            metrics.remove(item);
+        int count = any ? size - kept : 0;
+        if (count > 0) {
+            Arrays.fill(values, kept, size, null);
+            size = kept;
+            modCount++;
         }
+        rebuildClockIndex();
         return count;
-    }    
+    }
+
+    /**
+     * This rebuilds the clock index from the current metrics, dropping any
+     * outdated entries.
+     */
+    private void rebuildClockIndex() {
+        clockIndex.clear();
+        for (int i = 0; i < size; i++) {
+            clockIndex.add(ids[i], values[i].getClock());
+        }
+    }
 
     /**
      * This returns the maximum delay that any metric encountered.
@@ -213,8 +382,8 @@ public abstract class Measurement {
      */
     public long getMaxDelay() {
         long delay = Integer.MIN_VALUE;
-        for (MetricValue entry : metrics.values()) {
-            long current = Long.parseLong(entry.getDelay());
+        for (int i = 0; i < size; i++) {
+            long current = Long.parseLong(values[i].getDelay());
             if (current > delay) {
                 delay = current;
             }
@@ -230,8 +399,8 @@ public abstract class Measurement {
      */
     public long getMinDelay() {
         long delay = Integer.MAX_VALUE;
-        for (MetricValue entry : metrics.values()) {
-            long current = Long.parseLong(entry.getDelay());
+        for (int i = 0; i < size; i++) {
+            long current = Long.parseLong(values[i].getDelay());
             if (current < delay) {
                 delay = current;
             }
@@ -246,17 +415,22 @@ public abstract class Measurement {
      * @return The list of all metrics names that were measured.
      */
     public Set<String> getMetricNameList() {
-        return metrics.keySet();
+        return new MetricNames();
     }
 
     /**
-     * This lists the metrics that are available in this measurement
+     * This lists the metrics that are available in this measurement. The map
+     * is a copy, changes to it do not alter the measurement.
      *
      * @return the list of all metrics and the key value that is used to quickly
      * identify a metric.
      */
     public HashMap<String, MetricValue> getMetrics() {
-        return metrics;
+        HashMap<String, MetricValue> answer = new HashMap<>();
+        for (int i = 0; i < size; i++) {
+            answer.put(MetricSymbolTable.getName(ids[i]), values[i]);
+        }
+        return answer;
     }
 
     /**
@@ -265,7 +439,7 @@ public abstract class Measurement {
      * @return The count of how many values for different metrics are stored.
      */
     public int getMetricCount() {
-        return metrics.size();
+        return size;
     }
 
     /**
@@ -274,7 +448,7 @@ public abstract class Measurement {
      * @return The metric values for this measurement.
      */
     public Collection<MetricValue> getItems() {
-        return metrics.values();
+        return new MetricItems();
     }
 
     /**
@@ -283,7 +457,19 @@ public abstract class Measurement {
      * @param metrics the metrics to set
      */
     public void setMetrics(HashMap<String, MetricValue> metrics) {
-        this.metrics = metrics;
+        beforeChange();
+        ids = NO_IDS;
+        values = NO_VALUES;
+        size = 0;
+        modCount++;
+        Arrays.fill(slots, null);
+        cached = 0;
+        if (clockIndex != null) {
+            clockIndex.clear();
+        }
+        for (Map.Entry<String, MetricValue> metric : metrics.entrySet()) {
+            put(MetricSymbolTable.getId(metric.getKey()), metric.getValue());
+        }
     }
 
     /**
@@ -298,31 +484,228 @@ public abstract class Measurement {
             throw new NullPointerException("Adding metric failed the value was null");
 //            return; //Don't allow null metric values
         }
-        if (item.getValueAsString().isEmpty()) {
+        if (!item.isNumeric() && item.getValueAsString().isEmpty()) {
             return; //Don't allow empty values          
         }
-        if (!metrics.containsKey(item.getKey())) {
-            metrics.put(item.getKey(), item);
-        } else {
-            MetricValue existing = metrics.get(item.getKey());
+        if (item.getKeyId() < 0) {
+            return; //Metrics are identified by their key, so it must be set
+        }
+        int index = Arrays.binarySearch(ids, 0, size, item.getKeyId());
+        if (index < 0) {
+            insert(-(index + 1), item.getKeyId(), item);
+        } else if (item.getClock() > values[index].getClock()) {
             // Add only the newer of the two items.
-            if (existing != null && item.getClock() > existing.getClock()) {
-                metrics.put(item.getKey(), item);
+            beforeChange();
+            values[index] = item;
+            changed(item.getKeyId(), item);
+        }
+    }
+
+    /**
+     * This places a metric into the measurement, replacing any metric with
+     * the same key.
+     *
+     * @param id The symbol table id of the metric's key
+     * @param item The metric to place in the measurement
+     */
+    private void put(int id, MetricValue item) {
+        int index = Arrays.binarySearch(ids, 0, size, id);
+        if (index < 0) {
+            insert(-(index + 1), id, item);
+        } else {
+            beforeChange();
+            values[index] = item;
+            changed(id, item);
+        }
+    }
+
+    /**
+     * This inserts a new metric into the arrays, at the position that keeps
+     * them sorted by id.
+     *
+     * @param index The position to insert the metric at
+     * @param id The symbol table id of the metric's key
+     * @param item The metric to insert
+     */
+    private void insert(int index, int id, MetricValue item) {
+        beforeChange();
+        if (size == ids.length) {
+            int capacity = Math.max(8, size * 2);
+            ids = Arrays.copyOf(ids, capacity);
+            values = Arrays.copyOf(values, capacity);
+        }
+        if (index < size) {
+            System.arraycopy(ids, index, ids, index + 1, size - index);
+            System.arraycopy(values, index, values, index + 1, size - index);
+        }
+        ids[index] = id;
+        values[index] = item;
+        size++;
+        modCount++;
+        changed(id, item);
+    }
+
+    /**
+     * This records that the metric with a given id has changed, updating its
+     * fixed slot if it is a well known KPI and invalidating the derived KPIs.
+     *
+     * @param id The symbol table id of the metric's key
+     * @param item The new value of the metric, or null if it was removed.
+     */
+    private void changed(int id, MetricValue item) {
+        if (id < slots.length) {
+            slots[id] = item;
+        }
+        cached = 0;
+        if (item != null && clockIndex != null) {
+            clockIndex.add(id, item.getClock());
+            if (clockIndex.size() > 2 * size + 64) {
+                rebuildClockIndex();
             }
         }
     }
 
+    /**
+     * This is called before the metrics of the measurement are changed. It
+     * prevents snapshots from being changed and gives the measurement its own
+     * copy of any arrays that it shares with a snapshot.
+     */
+    private void beforeChange() {
+        checkNotSnapshot();
+        if (shared) {
+            ids = Arrays.copyOf(ids, ids.length);
+            values = Arrays.copyOf(values, values.length);
+            slots = Arrays.copyOf(slots, slots.length);
+            shared = false;
+        }
+    }
+
+    /**
+     * This is called before any part of the measurement is changed, so that
+     * snapshots remain immutable.
+     *
+     * @throws UnsupportedOperationException If the measurement is a snapshot
+     */
+    protected final void checkNotSnapshot() {
+        if (snapshot) {
+            throw new UnsupportedOperationException("This measurement is an immutable snapshot");
+        }
+    }
+
+    /**
+     * This indicates if the measurement is an immutable snapshot.
+     *
+     * @return If the measurement is an immutable snapshot
+     */
+    public boolean isSnapshot() {
+        return snapshot;
+    }
+
+    /**
+     * This gives an immutable snapshot of the measurement, that can be
+     * handed to other threads. The snapshot shares the arrays of this
+     * measurement until this measurement is next changed.
+     *
+     * @return The snapshot, or this measurement if it is already a snapshot.
+     */
+    public abstract Measurement snapshot();
+
+    /**
+     * This completes a snapshot of this measurement, by sharing the metrics
+     * and cached KPIs of this measurement with it. Subclasses create the
+     * snapshot, copy their own fields and then call this method.
+     *
+     * @param answer The newly created snapshot
+     */
+    protected final void shareWith(Measurement answer) {
+        answer.clock = clock;
+        answer.ids = ids;
+        answer.values = values;
+        answer.size = size;
+        answer.slots = slots;
+        answer.cpuUtilisation = cpuUtilisation;
+        answer.cpuUtilisationTimeStamp = cpuUtilisationTimeStamp;
+        answer.networkIn = networkIn;
+        answer.networkOut = networkOut;
+        answer.cached = cached;
+        answer.snapshot = true;
+        shared = true;
+    }
+
+    /**
+     * This gets a well known KPI from its fixed slot.
+     *
+     * @param slot The slot of the KPI, i.e. POWER_SLOT
+     * @return The metric, or null if it is not present.
+     */
+    MetricValue getSlot(int slot) {
+        return slots[slot];
+    }
+
+    /**
+     * This gets the id of the metric at a given position, metrics are held in
+     * ascending order of id.
+     *
+     * @param index The position of the metric, less than getMetricCount()
+     * @return The symbol table id of the metric's key
+     */
+    int getIdAt(int index) {
+        return ids[index];
+    }
+
+    /**
+     * This gets the metric at a given position, metrics are held in
+     * ascending order of id.
+     *
+     * @param index The position of the metric, less than getMetricCount()
+     * @return The metric
+     */
+    MetricValue getValueAt(int index) {
+        return values[index];
+    }
+
+    /**
+     * This removes the metric at a given position in the arrays.
+     *
+     * @param index The position of the metric to remove
+     */
+    private void removeAt(int index) {
+        beforeChange();
+        changed(ids[index], null);
+        System.arraycopy(ids, index + 1, ids, index, size - index - 1);
+        System.arraycopy(values, index + 1, values, index, size - index - 1);
+        size--;
+        values[size] = null;
+        modCount++;
+    }
+
+    /**
+     * This finds the position of a metric in the arrays.
+     *
+     * @param key The key of the metric
+     * @return The position of the metric, or a negative value if the metric
+     * is not present.
+     */
+    private int indexOf(String key) {
+        if (key == null) {
+            return -1;
+        }
+        int id = MetricSymbolTable.lookup(key);
+        if (id < 0) {
+            return -1;
+        }
+        return Arrays.binarySearch(ids, 0, size, id);
+    }
+
     /**
      * This deletes a metric and value from a measurement.
      *
      * @param metricName a metric to delete from this measurement dataset
      */
     public void deleteMetric(String metricName) {
-        if (metricName == null) {
-           return; //Don't allow null metric values
-        }
-        if (!metrics.containsKey(metricName)) {
-            metrics.remove(metricName);
+        int index = indexOf(metricName);
+        if (index >= 0) {
+            removeAt(index);
         }
     }
 
@@ -361,25 +744,39 @@ public abstract class Measurement {
      * @return The metric and its value that is identified by the key.
      */
     public MetricValue getMetric(String key) {
-        return metrics.get(key);
+        int index = indexOf(key);
+        return index < 0 ? null : values[index];
     }
     
     /**
-     * This gets the item that represents a given metric
+     * This gets the items whose keys match a regular expression. The pattern
+     * is compiled once and the keys that match it are remembered, so repeated
+     * lookups only consider the metrics that are known to match.
      *
-     * @param key The key that is used to identify a given measurement
-     * @return The metric and its value that is identified by the key.
+     * @param key The regular expression that the metrics' keys must match, or
+     * the exact key of a metric.
+     * @return The metrics whose keys match the expression.
      */    
     public HashSet<MetricValue> getMetricByRegularExpression(String key) {
         HashSet<MetricValue> answer = new HashSet<>();
-        if (metrics.get(key) != null) {
-            answer.add(metrics.get(key));
+        MetricValue exact = getMetric(key);
+        if (exact != null) {
+            answer.add(exact);
             return answer;
         }
-        Set<String> keys = metrics.keySet();
-        for (String currentKey : keys) {
-            if (currentKey.matches(key)) {
-                answer.add(metrics.get(currentKey));
+        int[] matches = MetricPatternIndex.getIndex(key).getMatches();
+        if (matches.length <= size) {
+            for (int id : matches) {
+                int index = Arrays.binarySearch(ids, 0, size, id);
+                if (index >= 0) {
+                    answer.add(values[index]);
+                }
+            }
+        } else {
+            for (int i = 0; i < size; i++) {
+                if (Arrays.binarySearch(matches, ids[i]) >= 0) {
+                    answer.add(values[i]);
+                }
             }
         }
         return answer;
@@ -392,7 +789,7 @@ public abstract class Measurement {
      * @return If a value for the metric exists or not.
      */
     public boolean metricExists(String key) {
-        return metrics.containsKey(key);
+        return indexOf(key) >= 0;
     }
 
     /**
@@ -410,6 +807,7 @@ public abstract class Measurement {
      * @param clock The time the measurement was taken
      */
     public void setClock(long clock) {
+        checkNotSnapshot();
         this.clock = clock;
     }
 
@@ -420,41 +818,34 @@ public abstract class Measurement {
      * range 0...1
      */
     public double getCpuUtilisation() {
-        if (metrics.containsKey(CPU_SPOT_USAGE_KPI_NAME)) {
-            return this.getMetric(CPU_SPOT_USAGE_KPI_NAME).getValue() / 100;
-        }
-        if (metrics.containsKey(CPU_SPOT_USAGE_KPI_NAME2)) {
-            return this.getMetric(CPU_SPOT_USAGE_KPI_NAME2).getValue() / 100;
-        }
-        double interrupt = 0.0;
-        double iowait = 0.0;
-        double nice = 0.0;
-        double softirq = 0.0;
-        double steal = 0.0;
-        double system = 0.0;
-        double user = 0.0;
-        if (metrics.containsKey(CPU_SYSTEM_KPI_NAME)) {
-            system = this.getMetric(CPU_SYSTEM_KPI_NAME).getValue();
-        }
-        if (metrics.containsKey(CPU_USER_KPI_NAME)) {
-            user = this.getMetric(CPU_USER_KPI_NAME).getValue();
-        }
-        if (metrics.containsKey(CPU_INTERUPT_KPI_NAME)) {
-            interrupt = this.getMetric(CPU_INTERUPT_KPI_NAME).getValue();
-        }
-        if (metrics.containsKey(CPU_IO_WAIT_KPI_NAME)) {
-            iowait = this.getMetric(CPU_IO_WAIT_KPI_NAME).getValue();
+        if ((cached & CPU_UTILISATION_CACHED) == 0) {
+            cpuUtilisation = calculateCpuUtilisation();
+            cached = cached | CPU_UTILISATION_CACHED;
         }
-        if (metrics.containsKey(CPU_NICE_KPI_NAME)) {
-            nice = this.getMetric(CPU_NICE_KPI_NAME).getValue();
+        return cpuUtilisation;
+    }
+
+    /**
+     * This calculates the cpu utilisation, either from the measured spot
+     * usage or from the sum of its components.
+     *
+     * @return The cpu utilisation when the measurement was taken. Values in
+     * range 0...1
+     */
+    private double calculateCpuUtilisation() {
+        if (slots[CPU_SPOT_USAGE_SLOT] != null) {
+            return slots[CPU_SPOT_USAGE_SLOT].getValue() / 100;
         }
-        if (metrics.containsKey(CPU_SOFT_IRQ_KPI_NAME)) {
-            softirq = this.getMetric(CPU_SOFT_IRQ_KPI_NAME).getValue();
+        if (slots[CPU_SPOT_USAGE_SLOT2] != null) {
+            return slots[CPU_SPOT_USAGE_SLOT2].getValue() / 100;
         }
-        if (metrics.containsKey(CPU_STEAL_KPI_NAME)) {
-            steal = this.getMetric(CPU_STEAL_KPI_NAME).getValue();
+        double total = 0.0;
+        for (int slot : CPU_COMPONENT_SLOTS) {
+            if (slots[slot] != null) {
+                total = total + slots[slot].getValue();
+            }
         }
-        return (system + user + interrupt + iowait + nice + softirq + steal) / 100;
+        return total / 100;
     }
 
     /**
@@ -463,31 +854,22 @@ public abstract class Measurement {
      * @return The cpu utilisation's time stamp data.
      */
     public long getCpuUtilisationTimeStamp() {
-        if (metrics.containsKey(CPU_SPOT_USAGE_KPI_NAME)) {
-            return this.getMetric(CPU_SPOT_USAGE_KPI_NAME).getClock();
-        }
-        if (metrics.containsKey(CPU_SYSTEM_KPI_NAME)) {
-            return this.getMetric(CPU_SYSTEM_KPI_NAME).getClock();
-        }
-        if (metrics.containsKey(CPU_USER_KPI_NAME)) {
-            return this.getMetric(CPU_USER_KPI_NAME).getClock();
-        }
-        if (metrics.containsKey(CPU_INTERUPT_KPI_NAME)) {
-            return this.getMetric(CPU_INTERUPT_KPI_NAME).getClock();
-        }
-        if (metrics.containsKey(CPU_IO_WAIT_KPI_NAME)) {
-            return this.getMetric(CPU_IO_WAIT_KPI_NAME).getClock();
-        }
-        if (metrics.containsKey(CPU_NICE_KPI_NAME)) {
-            return this.getMetric(CPU_NICE_KPI_NAME).getClock();
-        }
-        if (metrics.containsKey(CPU_SOFT_IRQ_KPI_NAME)) {
-            return this.getMetric(CPU_SOFT_IRQ_KPI_NAME).getClock();
-        }
-        if (metrics.containsKey(CPU_STEAL_KPI_NAME)) {
-            return this.getMetric(CPU_STEAL_KPI_NAME).getClock();
+        if ((cached & CPU_TIME_STAMP_CACHED) == 0) {
+            long answer = 0;
+            if (slots[CPU_SPOT_USAGE_SLOT] != null) {
+                answer = slots[CPU_SPOT_USAGE_SLOT].getClock();
+            } else {
+                for (int slot : CPU_COMPONENT_SLOTS) {
+                    if (slots[slot] != null) {
+                        answer = slots[slot].getClock();
+                        break;
+                    }
+                }
+            }
+            cpuUtilisationTimeStamp = answer;
+            cached = cached | CPU_TIME_STAMP_CACHED;
         }
-        return 0;
+        return cpuUtilisationTimeStamp;
     }
 
     /**
@@ -497,10 +879,10 @@ public abstract class Measurement {
      * range 0...1
      */
     public double getCpuIdle() {
-        if (metrics.containsKey(CPU_SPOT_USAGE_KPI_NAME)) {
-            return 1.0 - this.getMetric(CPU_SPOT_USAGE_KPI_NAME).getValue();
+        if (slots[CPU_SPOT_USAGE_SLOT] != null) {
+            return 1.0 - slots[CPU_SPOT_USAGE_SLOT].getValue();
         }
-        return this.getMetric(CPU_IDLE_KPI_NAME).getValue() / 100.0;
+        return slots[CPU_IDLE_SLOT].getValue() / 100.0;
     }
 
     /**
@@ -511,7 +893,7 @@ public abstract class Measurement {
      */
     public double getMemoryAvailable() {
         //Original value given in bytes. 1024 * 1024 = 1048576
-        return this.getMetric(MEMORY_AVAILABLE_KPI_NAME).getValue() / 1048576;
+        return slots[MEMORY_AVAILABLE_SLOT].getValue() / 1048576;
     }
 
     /**
@@ -532,7 +914,7 @@ public abstract class Measurement {
      */
     public double getMemoryTotal() {
         //Original value given in bytes. 1024 * 1024 = 1048576
-        return this.getMetric(MEMORY_TOTAL_KPI_NAME).getValue() / 1048576;
+        return slots[MEMORY_TOTAL_SLOT].getValue() / 1048576;
     }
 
     /**
@@ -542,13 +924,17 @@ public abstract class Measurement {
      * @return The amount of data transfered in, units are in bits/second.
      */
     public double getNetworkIn() {
-        double answer = 0.0;
-        for (Map.Entry<String, MetricValue> metric : metrics.entrySet()) {
-            if (metric.getKey().startsWith(NETWORK_IN_STARTS_WITH_KPI_NAME)) {
-                answer = answer + metric.getValue().getValue();
+        if ((cached & NETWORK_IN_CACHED) == 0) {
+            double answer = 0.0;
+            for (int i = 0; i < size; i++) {
+                if (MetricSymbolTable.getName(ids[i]).startsWith(NETWORK_IN_STARTS_WITH_KPI_NAME)) {
+                    answer = answer + values[i].getValue();
+                }
             }
+            networkIn = answer;
+            cached = cached | NETWORK_IN_CACHED;
         }
-        return answer;
+        return networkIn;
     }
 
     /**
@@ -558,13 +944,110 @@ public abstract class Measurement {
      * @return The amount of data transfered out, units are in bits/second.
      */
     public double getNetworkOut() {
-        double answer = 0.0;
-        for (Map.Entry<String, MetricValue> metric : metrics.entrySet()) {
-            if (metric.getKey().startsWith(NETWORK_OUT_STARTS_WITH_KPI_NAME)) {
-                answer = answer + metric.getValue().getValue();
+        if ((cached & NETWORK_OUT_CACHED) == 0) {
+            double answer = 0.0;
+            for (int i = 0; i < size; i++) {
+                if (MetricSymbolTable.getName(ids[i]).startsWith(NETWORK_OUT_STARTS_WITH_KPI_NAME)) {
+                    answer = answer + values[i].getValue();
+                }
             }
+            networkOut = answer;
+            cached = cached | NETWORK_OUT_CACHED;
+        }
+        return networkOut;
+    }
+
+    /**
+     * This iterates over the metrics of the measurement, in the order of
+     * their ids.
+     *
+     * @param <T> The type of element given by the iterator
+     */
+    private abstract class MetricIterator<T> implements Iterator<T> {
+
+        private int cursor = 0;
+        private int expectedModCount = modCount;
+
+        @Override
+        public boolean hasNext() {
+            return cursor < size;
+        }
+
+        /**
+         * This moves on to the next metric.
+         *
+         * @return The position of the next metric in the arrays
+         */
+        protected int nextIndex() {
+            if (modCount != expectedModCount) {
+                throw new ConcurrentModificationException();
+            }
+            if (cursor >= size) {
+                throw new NoSuchElementException();
+            }
+            cursor++;
+            return cursor - 1;
+        }
+
+        @Override
+        public void remove() {
+            if (cursor == 0) {
+                throw new IllegalStateException();
+            }
+            if (modCount != expectedModCount) {
+                throw new ConcurrentModificationException();
+            }
+            cursor--;
+            removeAt(cursor);
+            expectedModCount = modCount;
+        }
+    }
+
+    /**
+     * This is a view of the keys of the metrics in the measurement.
+     */
+    private class MetricNames extends AbstractSet<String> {
+
+        @Override
+        public Iterator<String> iterator() {
+            return new MetricIterator<String>() {
+                @Override
+                public String next() {
+                    return MetricSymbolTable.getName(ids[nextIndex()]);
+                }
+            };
+        }
+
+        @Override
+        public int size() {
+            return size;
+        }
+
+        @Override
+        public boolean contains(Object key) {
+            return key instanceof String && metricExists((String) key);
+        }
+    }
+
+    /**
+     * This is a view of the metrics in the measurement.
+     */
+    private class MetricItems extends AbstractCollection<MetricValue> {
+
+        @Override
+        public Iterator<MetricValue> iterator() {
+            return new MetricIterator<MetricValue>() {
+                @Override
+                public MetricValue next() {
+                    return values[nextIndex()];
+                }
+            };
+        }
+
+        @Override
+        public int size() {
+            return size;
         }
-        return answer;
     }
 
 }
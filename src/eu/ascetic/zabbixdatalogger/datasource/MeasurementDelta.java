@@ -0,0 +1,227 @@
+/**
+ * Copyright 2018 University of Leeds
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package eu.ascetic.zabbixdatalogger.datasource;
+
+import java.util.Arrays;
+import java.util.HashMap;
+
+/**
+ * This works out which metrics of a measurement have changed since the
+ * previous measurement from the same host or VM. A metric has changed if it
+ * is new, or if either its value or its clock differs from the last time it
+ * was seen. Metrics that have disappeared since the previous measurement are
+ * reported as removed.
+ *
+ * The previous state of each source is held as a copy, so measurements that
+ * are updated in place between samples are handled correctly. The comparison
+ * is a single merge pass over the sorted metric ids of the two samples. Each
+ * source has two copies that are swapped after every comparison, so once they
+ * have grown to fit the source's metrics no further allocation takes place.
+ *
+ * This class is not thread safe, the results of a comparison are held until
+ * the next call to compare.
+ *
+ * @author Richard Kavanagh
+ */
+public class MeasurementDelta {
+
+    private static final int[] NO_IDS = new int[0];
+    private final HashMap<String, Sample> previous = new HashMap<>();
+    private MetricValue[] changed = new MetricValue[0];
+    private int changedCount = 0;
+    private int[] removed = NO_IDS;
+    private int removedCount = 0;
+
+    /**
+     * This compares a measurement with the previous measurement given for the
+     * same source, and then records it as the latest measurement of that
+     * source.
+     *
+     * @param source The name of the host or VM the measurement is from
+     * @param measurement The measurement to compare
+     * @return The amount of metrics that have changed
+     */
+    public int compare(String source, Measurement measurement) {
+        Sample last = previous.get(source);
+        if (last == null) {
+            last = new Sample();
+            last.spare = new Sample();
+            last.spare.spare = last;
+        }
+        Sample next = last.spare;
+        int count = measurement.getMetricCount();
+        if (changed.length < count) {
+            changed = new MetricValue[count];
+        }
+        if (removed.length < last.size) {
+            removed = new int[last.size];
+        }
+        next.ensureCapacity(count);
+        changedCount = 0;
+        removedCount = 0;
+        int j = 0;
+        for (int i = 0; i < count; i++) {
+            int id = measurement.getIdAt(i);
+            while (j < last.size && last.ids[j] < id) {
+                removed[removedCount] = last.ids[j];
+                removedCount++;
+                j++;
+            }
+            MetricValue metric = measurement.getValueAt(i);
+            if (j < last.size && last.ids[j] == id) {
+                if (!last.matches(j, metric)) {
+                    changed[changedCount] = metric;
+                    changedCount++;
+                }
+                j++;
+            } else {
+                changed[changedCount] = metric;
+                changedCount++;
+            }
+            next.set(i, id, metric);
+        }
+        while (j < last.size) {
+            removed[removedCount] = last.ids[j];
+            removedCount++;
+            j++;
+        }
+        next.size = count;
+        previous.put(source, next);
+        return changedCount;
+    }
+
+    /**
+     * This gets the amount of metrics that changed in the last comparison.
+     *
+     * @return The amount of changed metrics
+     */
+    public int getChangedCount() {
+        return changedCount;
+    }
+
+    /**
+     * This gets a metric that changed in the last comparison.
+     *
+     * @param index The index of the metric, less than getChangedCount()
+     * @return The changed metric
+     */
+    public MetricValue getChanged(int index) {
+        return changed[index];
+    }
+
+    /**
+     * This gets the amount of metrics that were present in the previous
+     * measurement but not in the last one compared.
+     *
+     * @return The amount of removed metrics
+     */
+    public int getRemovedCount() {
+        return removedCount;
+    }
+
+    /**
+     * This gets the key of a metric that was removed.
+     *
+     * @param index The index of the metric, less than getRemovedCount()
+     * @return The key of the removed metric
+     */
+    public String getRemoved(int index) {
+        return MetricSymbolTable.getName(removed[index]);
+    }
+
+    /**
+     * This forgets the previous measurement of a source, so that all of its
+     * metrics are reported as changed by the next comparison.
+     *
+     * @param source The name of the host or VM
+     */
+    public void reset(String source) {
+        previous.remove(source);
+    }
+
+    /**
+     * This holds a copy of the metrics of a measurement of a source, in
+     * ascending order of id.
+     */
+    private static class Sample {
+
+        /**
+         * The copy that the next measurement of the source is written into.
+         */
+        private Sample spare;
+        private int[] ids = NO_IDS;
+        private long[] clocks = new long[0];
+        private boolean[] numeric = new boolean[0];
+        private long[] values = new long[0];
+        private String[] texts = new String[0];
+        private int size = 0;
+
+        /**
+         * This makes sure there is room to hold a given amount of metrics.
+         *
+         * @param capacity The amount of metrics to hold
+         */
+        private void ensureCapacity(int capacity) {
+            if (ids.length < capacity) {
+                ids = Arrays.copyOf(ids, capacity);
+                clocks = Arrays.copyOf(clocks, capacity);
+                numeric = Arrays.copyOf(numeric, capacity);
+                values = Arrays.copyOf(values, capacity);
+                texts = Arrays.copyOf(texts, capacity);
+            }
+        }
+
+        /**
+         * This tests if a metric has the same value and clock as the one held
+         * at a given position.
+         *
+         * @param index The position of the held metric
+         * @param metric The metric to compare
+         * @return If the metric is unchanged
+         */
+        private boolean matches(int index, MetricValue metric) {
+            if (clocks[index] != metric.getClock() || numeric[index] != metric.isNumeric()) {
+                return false;
+            }
+            if (metric.isNumeric()) {
+                return values[index] == Double.doubleToLongBits(metric.getValue());
+            }
+            String text = metric.getValueAsString();
+            return text == null ? texts[index] == null : text.equals(texts[index]);
+        }
+
+        /**
+         * This records a metric at a given position.
+         *
+         * @param index The position to record the metric at
+         * @param id The symbol table id of the metric's key
+         * @param metric The metric to record
+         */
+        private void set(int index, int id, MetricValue metric) {
+            ids[index] = id;
+            clocks[index] = metric.getClock();
+            numeric[index] = metric.isNumeric();
+            if (metric.isNumeric()) {
+                values[index] = Double.doubleToLongBits(metric.getValue());
+                texts[index] = null;
+            } else {
+                values[index] = 0;
+                texts[index] = metric.getValueAsString();
+            }
+        }
+    }
+
+}
@@ -0,0 +1,38 @@
+/**
+ * Copyright 2018 University of Leeds
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package eu.ascetic.zabbixdatalogger.datasource;
+
+/**
+ * This is notified each time a data source has a new measurement, such as
+ * when all of the values of a host's latest collection interval have
+ * arrived.
+ *
+ * Listeners are called on the data source's own threads, possibly on more
+ * than one of them, so should hand any lengthy work off to another thread.
+ *
+ * @author Richard Kavanagh
+ */
+public interface MeasurementListener {
+
+    /**
+     * This is called when a new measurement is available.
+     *
+     * @param measurement The new measurement, this must not be changed by the
+     * listener as it may be shared with other listeners.
+     */
+    public void measurementReceived(Measurement measurement);
+
+}
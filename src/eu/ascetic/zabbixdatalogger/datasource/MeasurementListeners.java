@@ -0,0 +1,81 @@
+/**
+ * Copyright 2018 University of Leeds
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package eu.ascetic.zabbixdatalogger.datasource;
+
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * This holds the listeners of a measurement source and tells them of new
+ * measurements. A listener that fails is logged and does not stop the other
+ * listeners from been told.
+ *
+ * @author Richard Kavanagh
+ */
+public class MeasurementListeners {
+
+    private final CopyOnWriteArrayList<MeasurementListener> listeners = new CopyOnWriteArrayList<>();
+
+    /**
+     * This adds a listener.
+     *
+     * @param listener The listener to add
+     */
+    public void add(MeasurementListener listener) {
+        if (listener != null) {
+            listeners.addIfAbsent(listener);
+        }
+    }
+
+    /**
+     * This removes a listener.
+     *
+     * @param listener The listener to remove
+     */
+    public void remove(MeasurementListener listener) {
+        listeners.remove(listener);
+    }
+
+    /**
+     * This indicates if there are no listeners, in which case measurements
+     * need not be prepared for them.
+     *
+     * @return If there are no listeners
+     */
+    public boolean isEmpty() {
+        return listeners.isEmpty();
+    }
+
+    /**
+     * This tells every listener of a new measurement.
+     *
+     * @param measurement The new measurement
+     */
+    public void fire(Measurement measurement) {
+        if (measurement == null) {
+            return;
+        }
+        for (MeasurementListener listener : listeners) {
+            try {
+                listener.measurementReceived(measurement);
+            } catch (RuntimeException ex) {
+                Logger.getLogger(MeasurementListeners.class.getName()).log(Level.SEVERE, "A measurement listener failed", ex);
+            }
+        }
+    }
+
+}
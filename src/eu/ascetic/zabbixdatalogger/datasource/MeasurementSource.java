@@ -0,0 +1,41 @@
+/**
+ * Copyright 2018 University of Leeds
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package eu.ascetic.zabbixdatalogger.datasource;
+
+/**
+ * This is a data source that pushes each new measurement to its listeners,
+ * rather than waiting to be polled for it.
+ *
+ * @see PollingMeasurementSource
+ * @author Richard Kavanagh
+ */
+public interface MeasurementSource {
+
+    /**
+     * This registers a listener to be told of each new measurement.
+     *
+     * @param listener The listener to add
+     */
+    public void addMeasurementListener(MeasurementListener listener);
+
+    /**
+     * This stops a listener from being told of new measurements.
+     *
+     * @param listener The listener to remove
+     */
+    public void removeMeasurementListener(MeasurementListener listener);
+
+}
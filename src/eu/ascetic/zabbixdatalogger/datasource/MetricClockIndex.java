@@ -0,0 +1,149 @@
+/**
+ * Copyright 2018 University of Leeds
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package eu.ascetic.zabbixdatalogger.datasource;
+
+import java.util.Arrays;
+
+/**
+ * This orders the metrics of a measurement by their clock, so that the
+ * metrics that have gone stale can be found without looking at every metric.
+ *
+ * It is a binary min heap of (clock, metric id) entries. An entry is added
+ * each time a metric is set and entries are not removed when a metric is
+ * replaced, so a popped entry must be checked against the measurement's
+ * current value of the metric. The owner rebuilds the index once it holds
+ * too many outdated entries.
+ *
+ * @author Richard Kavanagh
+ */
+final class MetricClockIndex {
+
+    private long[] clocks = new long[16];
+    private int[] ids = new int[16];
+    private int size = 0;
+    private long maxClock = Long.MIN_VALUE;
+
+    /**
+     * This adds an entry to the index.
+     *
+     * @param id The symbol table id of the metric's key
+     * @param clock The clock of the metric
+     */
+    void add(int id, long clock) {
+        if (size == clocks.length) {
+            clocks = Arrays.copyOf(clocks, size * 2);
+            ids = Arrays.copyOf(ids, size * 2);
+        }
+        int child = size;
+        size++;
+        while (child > 0) {
+            int parent = (child - 1) >>> 1;
+            if (clocks[parent] <= clock) {
+                break;
+            }
+            clocks[child] = clocks[parent];
+            ids[child] = ids[parent];
+            child = parent;
+        }
+        clocks[child] = clock;
+        ids[child] = id;
+        if (clock > maxClock) {
+            maxClock = clock;
+        }
+    }
+
+    /**
+     * This indicates if the index has no entries.
+     *
+     * @return If the index is empty
+     */
+    boolean isEmpty() {
+        return size == 0;
+    }
+
+    /**
+     * This gives the amount of entries in the index, including outdated ones.
+     *
+     * @return The amount of entries
+     */
+    int size() {
+        return size;
+    }
+
+    /**
+     * This gives the clock of the oldest entry.
+     *
+     * @return The oldest clock in the index
+     */
+    long peekClock() {
+        return clocks[0];
+    }
+
+    /**
+     * This gives the metric id of the oldest entry.
+     *
+     * @return The metric id of the oldest entry
+     */
+    int peekId() {
+        return ids[0];
+    }
+
+    /**
+     * This gives the newest clock added since the index was last cleared.
+     *
+     * @return The newest clock, or Long.MIN_VALUE if nothing has been added.
+     */
+    long getMaxClock() {
+        return maxClock;
+    }
+
+    /**
+     * This removes the oldest entry.
+     */
+    void poll() {
+        size--;
+        if (size == 0) {
+            return;
+        }
+        long clock = clocks[size];
+        int id = ids[size];
+        int parent = 0;
+        int half = size >>> 1;
+        while (parent < half) {
+            int child = 2 * parent + 1;
+            if (child + 1 < size && clocks[child + 1] < clocks[child]) {
+                child++;
+            }
+            if (clock <= clocks[child]) {
+                break;
+            }
+            clocks[parent] = clocks[child];
+            ids[parent] = ids[child];
+            parent = child;
+        }
+        clocks[parent] = clock;
+        ids[parent] = id;
+    }
+
+    /**
+     * This removes every entry.
+     */
+    void clear() {
+        size = 0;
+        maxClock = Long.MIN_VALUE;
+    }
+
+}
@@ -0,0 +1,128 @@
+/**
+ * Copyright 2018 University of Leeds
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package eu.ascetic.zabbixdatalogger.datasource;
+
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.regex.Pattern;
+
+/**
+ * This remembers which metric keys in the metric symbol table match a
+ * regular expression. Each pattern is compiled once and each key is only
+ * tested against it once, the first time the pattern is used after the key
+ * is added to the symbol table. Searching a measurement for metrics that
+ * match a pattern then only needs to consider the ids of the keys that are
+ * already known to match.
+ *
+ * @author Richard Kavanagh
+ */
+public final class MetricPatternIndex {
+
+    /**
+     * The most patterns that are indexed, if more are used the cache is
+     * emptied and built up again.
+     */
+    private static final int MAX_PATTERNS = 1024;
+    private static final ConcurrentHashMap<String, MetricPatternIndex> INDEXES = new ConcurrentHashMap<>();
+    private final Pattern pattern;
+    /**
+     * The amount of keys in the symbol table that have been tested.
+     */
+    private volatile int checked = 0;
+    /**
+     * The ids of the keys that match the pattern, in ascending order.
+     */
+    private volatile int[] matches = new int[0];
+
+    /**
+     * This creates an index for a given pattern.
+     *
+     * @param regex The regular expression
+     */
+    private MetricPatternIndex(String regex) {
+        pattern = Pattern.compile(regex);
+    }
+
+    /**
+     * This gets the index for a regular expression, compiling the expression
+     * if it has not been used before.
+     *
+     * @param regex The regular expression
+     * @return The index of the keys that match the expression
+     * @throws java.util.regex.PatternSyntaxException If the expression is
+     * invalid
+     */
+    public static MetricPatternIndex getIndex(String regex) {
+        MetricPatternIndex answer = INDEXES.get(regex);
+        if (answer == null) {
+            if (INDEXES.size() >= MAX_PATTERNS) {
+                INDEXES.clear();
+            }
+            answer = new MetricPatternIndex(regex);
+            MetricPatternIndex existing = INDEXES.putIfAbsent(regex, answer);
+            if (existing != null) {
+                answer = existing;
+            }
+        }
+        return answer;
+    }
+
+    /**
+     * This gets the compiled form of the regular expression.
+     *
+     * @return The compiled pattern
+     */
+    public Pattern getPattern() {
+        return pattern;
+    }
+
+    /**
+     * This lists the ids of the metric keys that match the pattern, testing
+     * any keys that have been added to the symbol table since the last call.
+     *
+     * @return The ids of the matching keys, in ascending order. The array must
+     * not be modified.
+     */
+    public int[] getMatches() {
+        if (checked < MetricSymbolTable.size()) {
+            update();
+        }
+        return matches;
+    }
+
+    /**
+     * This tests the keys that have been added to the symbol table since the
+     * pattern was last used.
+     */
+    private synchronized void update() {
+        int size = MetricSymbolTable.size();
+        int[] answer = matches;
+        int count = answer.length;
+        for (int id = checked; id < size; id++) {
+            if (pattern.matcher(MetricSymbolTable.getName(id)).matches()) {
+                if (count == answer.length) {
+                    answer = Arrays.copyOf(answer, Math.max(4, count * 2));
+                }
+                answer[count++] = id;
+            }
+        }
+        if (count != matches.length) {
+            matches = Arrays.copyOf(answer, count);
+        }
+        checked = size;
+    }
+
+}
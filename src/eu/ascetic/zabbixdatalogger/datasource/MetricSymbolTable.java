@@ -0,0 +1,155 @@
+/**
+ * Copyright 2018 University of Leeds
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package eu.ascetic.zabbixdatalogger.datasource;
+
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * This is a table of every metric key that has been seen, which is shared by
+ * all measurements. Each key is given a compact integer id, in the order the
+ * keys are first seen, and a single canonical string instance. Measurements
+ * use the ids to index their metrics, rather than each holding its own hash
+ * map of keys, and metric values share the canonical key strings rather than
+ * each holding their own copy.
+ *
+ * Ids are never reused or removed, so they remain valid for the lifetime of
+ * the application.
+ *
+ * @author Richard Kavanagh
+ */
+public final class MetricSymbolTable {
+
+    private static final ConcurrentHashMap<String, Integer> IDS = new ConcurrentHashMap<>();
+    private static volatile String[] names = new String[256];
+    private static volatile int size = 0;
+    /**
+     * The well known KPIs, these are given the first ids in the table so that
+     * measurements can hold them in fixed slots indexed by id.
+     */
+    private static final String[] FIXED_SLOT_KPIS = {
+        KpiList.CPU_SPOT_USAGE_KPI_NAME,
+        KpiList.CPU_SPOT_USAGE_KPI_NAME2,
+        KpiList.CPU_SYSTEM_KPI_NAME,
+        KpiList.CPU_USER_KPI_NAME,
+        KpiList.CPU_INTERUPT_KPI_NAME,
+        KpiList.CPU_IO_WAIT_KPI_NAME,
+        KpiList.CPU_NICE_KPI_NAME,
+        KpiList.CPU_SOFT_IRQ_KPI_NAME,
+        KpiList.CPU_STEAL_KPI_NAME,
+        KpiList.CPU_IDLE_KPI_NAME,
+        KpiList.MEMORY_AVAILABLE_KPI_NAME,
+        KpiList.MEMORY_TOTAL_KPI_NAME,
+        KpiList.POWER_KPI_NAME,
+        KpiList.ENERGY_KPI_NAME};
+    /**
+     * The amount of well known KPIs, which have the ids 0 to
+     * FIXED_SLOT_COUNT - 1.
+     */
+    static final int FIXED_SLOT_COUNT = FIXED_SLOT_KPIS.length;
+
+    static {
+        for (String kpi : FIXED_SLOT_KPIS) {
+            add(kpi);
+        }
+    }
+
+    /**
+     * This is a static utility class so it is not instantiated.
+     */
+    private MetricSymbolTable() {
+    }
+
+    /**
+     * This gets the id of a metric key, adding the key to the table if it has
+     * not been seen before.
+     *
+     * @param key The metric key
+     * @return The id of the key
+     */
+    public static int getId(String key) {
+        Integer id = IDS.get(key);
+        if (id != null) {
+            return id;
+        }
+        return add(key);
+    }
+
+    /**
+     * This gets the id of a metric key, without adding it to the table.
+     *
+     * @param key The metric key
+     * @return The id of the key, or -1 if the key has not been seen before.
+     */
+    public static int lookup(String key) {
+        Integer id = IDS.get(key);
+        return id == null ? -1 : id;
+    }
+
+    /**
+     * This gets the canonical instance of a metric key, adding the key to the
+     * table if it has not been seen before.
+     *
+     * @param key The metric key
+     * @return The shared string instance for the key
+     */
+    public static String intern(String key) {
+        return getName(getId(key));
+    }
+
+    /**
+     * This gets the metric key that an id represents.
+     *
+     * @param id The id of the key
+     * @return The canonical instance of the metric key
+     */
+    public static String getName(int id) {
+        return names[id];
+    }
+
+    /**
+     * This gives the amount of metric keys that have been seen.
+     *
+     * @return The amount of entries in the table
+     */
+    public static int size() {
+        return size;
+    }
+
+    /**
+     * This adds a new key to the table.
+     *
+     * @param key The metric key to add
+     * @return The id of the key
+     */
+    private static synchronized int add(String key) {
+        Integer id = IDS.get(key);
+        if (id != null) {
+            return id;
+        }
+        String[] current = names;
+        if (size == current.length) {
+            current = Arrays.copyOf(current, current.length * 2);
+        }
+        current[size] = key;
+        //The name is published before the id so readers of an id find its name
+        names = current;
+        IDS.put(key, size);
+        size++;
+        return size - 1;
+    }
+
+}
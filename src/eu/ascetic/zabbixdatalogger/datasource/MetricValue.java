@@ -19,6 +19,10 @@ package eu.ascetic.zabbixdatalogger.datasource;
  * This class records the value of a specific metric. It is aimed at separating
  * out the measurement from the origin of the value, i.e. Zabbix/Ganglia etc
  *
+ * Numeric values are held as a primitive double that is parsed once, when the
+ * value is set. The textual form of a numeric value is only created if it is
+ * asked for, i.e. when writing the value out to file.
+ *
  * @author Richard Kavanagh
  */
 public class MetricValue {
@@ -31,6 +35,10 @@ public class MetricValue {
      * The key.
      */
     private String key;
+    /**
+     * The id of the key in the metric symbol table.
+     */
+    private int keyId = -1;
 
     /**
      * The delay.
@@ -38,9 +46,22 @@ public class MetricValue {
     private String delay;
 
     /**
-     * The value that was taken for the metric.
+     * The value that was taken for the metric, or NaN if it is not numeric.
+     */
+    private double value = Double.NaN;
+    /**
+     * If the value that was taken for the metric is a number.
      */
-    private String value;
+    private boolean numeric = false;
+    /**
+     * If the value should be written out as a whole number.
+     */
+    private boolean whole = false;
+    /**
+     * The textual form of the value, this is created on demand for numeric
+     * values.
+     */
+    private String text;
     /**
      * The time.
      */
@@ -64,9 +85,62 @@ public class MetricValue {
      * @param clock The time the value was taken.
      */
     public MetricValue(String name, String key, String value, long clock) {
-        this.name = name;
-        this.key = key;
-        this.value = value;
+        setKey(key);
+        this.name = key != null && key.equals(name) ? this.key : name;
+        setValue(value);
+        this.clock = clock;
+    }
+
+    /**
+     * Instantiates a new metric value, from a value that is already a number.
+     *
+     * @param name The name of the metric (human readable)
+     * @param key The key used to identify the metric
+     * @param value The value the metric holds
+     * @param clock The time the value was taken.
+     */
+    public MetricValue(String name, String key, double value, long clock) {
+        setKey(key);
+        this.name = key != null && key.equals(name) ? this.key : name;
+        setValue(value);
+        this.clock = clock;
+    }
+
+    /**
+     * Instantiates a new metric value, from a value that is already a whole
+     * number.
+     *
+     * @param name The name of the metric (human readable)
+     * @param key The key used to identify the metric
+     * @param value The value the metric holds
+     * @param clock The time the value was taken.
+     */
+    public MetricValue(String name, String key, long value, long clock) {
+        setKey(key);
+        this.name = key != null && key.equals(name) ? this.key : name;
+        setValue(value);
+        this.clock = clock;
+    }
+
+    /**
+     * Instantiates a new metric value, from a value that is already a number,
+     * such as a value from a collectd packet or a database row. Integral types
+     * are written out as whole numbers.
+     *
+     * @param name The name of the metric (human readable)
+     * @param key The key used to identify the metric
+     * @param value The value the metric holds
+     * @param clock The time the value was taken.
+     */
+    public MetricValue(String name, String key, Number value, long clock) {
+        setKey(key);
+        this.name = key != null && key.equals(name) ? this.key : name;
+        if (value instanceof Long || value instanceof Integer
+                || value instanceof Short || value instanceof Byte) {
+            setValue(value.longValue());
+        } else {
+            setValue(value.doubleValue());
+        }
         this.clock = clock;
     }
 
@@ -102,8 +176,24 @@ public class MetricValue {
      *
      * @param key the new key
      */
-    public void setKey(String key) {
-        this.key = key;
+    public final void setKey(String key) {
+        if (key == null) {
+            this.key = null;
+            this.keyId = -1;
+            return;
+        }
+        keyId = MetricSymbolTable.getId(key);
+        this.key = MetricSymbolTable.getName(keyId);
+    }
+
+    /**
+     * Gets the id of the key in the metric symbol table, which is shared by
+     * all measurements.
+     *
+     * @return the id of the key, or -1 if the key has not been set.
+     */
+    public int getKeyId() {
+        return keyId;
     }
 
     /**
@@ -130,16 +220,75 @@ public class MetricValue {
      * @return the last value
      */
     public String getValueAsString() {
-        return value;
+        if (text == null && numeric) {
+            text = whole ? Long.toString((long) value) : Double.toString(value);
+        }
+        return text;
     }
 
     /**
      * Gets the last value.
      *
      * @return the last value
+     * @throws NumberFormatException If the value is not numeric
      */
     public double getValue() {
-        return Double.parseDouble(value);
+        if (numeric) {
+            return value;
+        }
+        return Double.parseDouble(text);
+    }
+
+    /**
+     * This indicates if the value of the metric is a number that is written
+     * out as a whole number.
+     *
+     * @return If the value is a whole number
+     */
+    public boolean isWhole() {
+        return numeric && whole;
+    }
+
+    /**
+     * This indicates if the textual form of the value is already held, either
+     * because the value was given as text or because it has already been
+     * asked for, so that getValueAsString does not need to create it.
+     *
+     * @return If the value's text is held
+     */
+    public boolean hasText() {
+        return text != null;
+    }
+
+    /**
+     * This indicates if the value of the metric is a number.
+     *
+     * @return If the value is numeric, and so getValue will not fail.
+     */
+    public boolean isNumeric() {
+        return numeric;
+    }
+
+    /**
+     * Sets the last value.
+     *
+     * @param value the new last value
+     */
+    public final void setValue(String value) {
+        this.text = value;
+        this.whole = false;
+        if (value == null || value.isEmpty()) {
+            this.value = Double.NaN;
+            this.numeric = false;
+            return;
+        }
+        try {
+            this.value = Double.parseDouble(value);
+            this.numeric = true;
+        } catch (NumberFormatException ex) {
+            this.value = Double.NaN;
+            this.numeric = false;
+        }
     }
 
     /**
@@ -147,8 +296,23 @@ public class MetricValue {
      *
      * @param value the new last value
      */
-    public void setValue(String value) {
+    public final void setValue(double value) {
+        this.value = value;
+        this.numeric = true;
+        this.whole = false;
+        this.text = null;
+    }
+
+    /**
+     * Sets the last value, to a whole number.
+     *
+     * @param value the new last value
+     */
+    public final void setValue(long value) {
         this.value = value;
+        this.numeric = true;
+        this.whole = true;
+        this.text = null;
     }
 
     /**
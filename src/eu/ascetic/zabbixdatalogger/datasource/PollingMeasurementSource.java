@@ -0,0 +1,447 @@
+/**
+ * Copyright 2018 University of Leeds
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package eu.ascetic.zabbixdatalogger.datasource;
+
+import eu.ascetic.zabbixdatalogger.datasource.types.Host;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+/**
+ * This turns a data source that must be polled into one that pushes new
+ * measurements to its listeners. Only measurements that are newer than the
+ * last one seen for the same host are passed on, so listeners see each
+ * measurement once.
+ *
+ * Polls start on a fixed grid of wall clock time, i.e. at whole multiples of
+ * the interval since the epoch, so the time taken by each poll does not cause
+ * the poll times to drift and every host, in this or any other process, is
+ * polled at the same moments. Each host is polled as its own task on a pool
+ * of threads. If a host's previous poll has not finished by the time of its
+ * next poll that poll is skipped and counted as an overrun, rather than
+ * queueing up further polls of a slow host.
+ *
+ * @author Richard Kavanagh
+ */
+public class PollingMeasurementSource implements MeasurementSource, PollingMeasurementSourceMBean {
+
+    /**
+     * The shortest time between reports of a host's overruns, in nanoseconds.
+     */
+    private static final long OVERRUN_REPORT_INTERVAL = TimeUnit.MINUTES.toNanos(1);
+    private final DataSourceAdaptor adaptor;
+    private final int threads;
+    private volatile long intervalMillis;
+    private final MeasurementListeners listeners = new MeasurementListeners();
+    private final ConcurrentHashMap<String, Long> lastClocks = new ConcurrentHashMap<>();
+    /**
+     * The polls made each interval, a single poll of every host if no hosts
+     * have been set.
+     */
+    private volatile List<HostPoll> polls = Collections.singletonList(new HostPoll(null));
+    private final AtomicLong pollCount = new AtomicLong();
+    private final AtomicLong overrunCount = new AtomicLong();
+    private final AtomicLong missedPollCount = new AtomicLong();
+    private ScheduledExecutorService ticker = null;
+    private ExecutorService workers = null;
+    private ObjectName registeredName = null;
+    /**
+     * The wall clock time the next poll is due, this is only used by the
+     * ticker thread.
+     */
+    private long nextPoll;
+
+    /**
+     * This creates a source that polls a data source adaptor, one host at a
+     * time.
+     *
+     * @param adaptor The data source to poll
+     * @param intervalMillis The time between polls in milliseconds
+     */
+    public PollingMeasurementSource(DataSourceAdaptor adaptor, long intervalMillis) {
+        this(adaptor, intervalMillis, 1);
+    }
+
+    /**
+     * This creates a source that polls a data source adaptor.
+     *
+     * @param adaptor The data source to poll, if threads is more than one
+     * this must be safe to call from several threads at once.
+     * @param intervalMillis The time between polls in milliseconds
+     * @param threads The amount of hosts that may be polled at once
+     */
+    public PollingMeasurementSource(DataSourceAdaptor adaptor, long intervalMillis, int threads) {
+        this.adaptor = adaptor;
+        this.intervalMillis = intervalMillis;
+        this.threads = Math.max(threads, 1);
+    }
+
+    /**
+     * This gives a push based source for a data source adaptor. Adaptors that
+     * already push their measurements are used directly, any other adaptor is
+     * polled by a new, started, polling measurement source.
+     *
+     * @param adaptor The data source adaptor
+     * @param intervalMillis The time between polls, if polling is needed
+     * @return The measurement source for the adaptor
+     */
+    public static MeasurementSource getSource(DataSourceAdaptor adaptor, long intervalMillis) {
+        if (adaptor instanceof MeasurementSource) {
+            return (MeasurementSource) adaptor;
+        }
+        PollingMeasurementSource answer = new PollingMeasurementSource(adaptor, intervalMillis);
+        answer.start();
+        return answer;
+    }
+
+    /**
+     * This gives the next point on the grid of poll times that is after a
+     * given time.
+     *
+     * @param time The wall clock time in milliseconds
+     * @param intervalMillis The time between polls in milliseconds
+     * @return The next poll time in milliseconds
+     */
+    public static long getNextPollTime(long time, long intervalMillis) {
+        return (Math.floorDiv(time, intervalMillis) + 1) * intervalMillis;
+    }
+
+    /**
+     * This sets the hosts that are polled, each host is polled separately.
+     *
+     * @param hosts The hosts to poll, or null to poll every host in a single
+     * call.
+     */
+    public void setHosts(List<Host> hosts) {
+        if (hosts == null) {
+            polls = Collections.singletonList(new HostPoll(null));
+            return;
+        }
+        //Keep the state of hosts that were already been polled
+        HashMap<String, HostPoll> current = new HashMap<>();
+        for (HostPoll poll : polls) {
+            if (poll.host != null) {
+                current.put(poll.host.getHostName(), poll);
+            }
+        }
+        List<HostPoll> answer = new ArrayList<>(hosts.size());
+        for (Host host : hosts) {
+            HostPoll poll = current.get(host.getHostName());
+            answer.add(poll == null ? new HostPoll(host) : poll);
+        }
+        polls = answer;
+    }
+
+    /**
+     * This starts polling, on daemon threads.
+     */
+    public synchronized void start() {
+        if (ticker != null) {
+            return;
+        }
+        ticker = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable task) {
+                Thread thread = new Thread(task, "measurement-poll-ticker");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+        final AtomicInteger count = new AtomicInteger();
+        workers = Executors.newFixedThreadPool(threads, new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable task) {
+                Thread thread = new Thread(task, "measurement-poller-" + count.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+        nextPoll = getNextPollTime(System.currentTimeMillis(), intervalMillis);
+        scheduleTick(ticker);
+    }
+
+    /**
+     * This stops polling, any polls that are under way may still pass on
+     * their measurements.
+     */
+    public synchronized void stop() {
+        if (ticker != null) {
+            //Polls that are under way are left to finish
+            ticker.shutdownNow();
+            workers.shutdown();
+            ticker = null;
+            workers = null;
+        }
+        unregisterMBean();
+    }
+
+    /**
+     * This registers this source with the platform's MBean server, so that
+     * its interval may be changed and its overruns watched over JMX.
+     *
+     * @param name The name to register the source under, which tells apart
+     * several sources in the same process.
+     */
+    public synchronized void registerMBean(String name) {
+        if (registeredName != null) {
+            return;
+        }
+        try {
+            ObjectName objectName = new ObjectName("eu.ascetic.zabbixdatalogger:type=PollingMeasurementSource,name=" + ObjectName.quote(name));
+            MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            server.registerMBean(this, objectName);
+            registeredName = objectName;
+        } catch (JMException ex) {
+            Logger.getLogger(PollingMeasurementSource.class.getName()).log(Level.SEVERE, "The poller could not be registered with JMX", ex);
+        }
+    }
+
+    /**
+     * This removes this source from the platform's MBean server.
+     */
+    private void unregisterMBean() {
+        if (registeredName == null) {
+            return;
+        }
+        try {
+            ManagementFactory.getPlatformMBeanServer().unregisterMBean(registeredName);
+        } catch (JMException ex) {
+            Logger.getLogger(PollingMeasurementSource.class.getName()).log(Level.SEVERE, null, ex);
+        }
+        registeredName = null;
+    }
+
+    @Override
+    public void addMeasurementListener(MeasurementListener listener) {
+        listeners.add(listener);
+    }
+
+    @Override
+    public void removeMeasurementListener(MeasurementListener listener) {
+        listeners.remove(listener);
+    }
+
+    @Override
+    public long getIntervalMillis() {
+        return intervalMillis;
+    }
+
+    @Override
+    public void setIntervalMillis(long intervalMillis) {
+        if (intervalMillis <= 0) {
+            Logger.getLogger(PollingMeasurementSource.class.getName()).log(Level.WARNING, "The poll interval must be positive, {0} was ignored", intervalMillis);
+            return;
+        }
+        this.intervalMillis = intervalMillis;
+    }
+
+    @Override
+    public int getHostCount() {
+        List<HostPoll> current = polls;
+        return current.size() == 1 && current.get(0).host == null ? 0 : current.size();
+    }
+
+    @Override
+    public long getPollCount() {
+        return pollCount.get();
+    }
+
+    @Override
+    public long getOverrunCount() {
+        return overrunCount.get();
+    }
+
+    @Override
+    public long getMissedPollCount() {
+        return missedPollCount.get();
+    }
+
+    /**
+     * This schedules the next poll for its point on the grid.
+     *
+     * @param executor The ticker to schedule the poll with
+     */
+    private void scheduleTick(ScheduledExecutorService executor) {
+        long delay = Math.max(nextPoll - System.currentTimeMillis(), 0);
+        try {
+            executor.schedule(new Runnable() {
+                @Override
+                public void run() {
+                    tick();
+                }
+            }, delay, TimeUnit.MILLISECONDS);
+        } catch (RejectedExecutionException ex) {
+            //Polling has been stopped
+        }
+    }
+
+    /**
+     * This starts the polls that are due and schedules the next ones.
+     */
+    private void tick() {
+        ScheduledExecutorService executor;
+        ExecutorService pool;
+        synchronized (this) {
+            executor = ticker;
+            pool = workers;
+        }
+        if (executor == null) {
+            return;
+        }
+        long now = System.currentTimeMillis();
+        long interval = intervalMillis;
+        long late = now - nextPoll;
+        if (late >= interval) {
+            long missed = late / interval;
+            missedPollCount.addAndGet(missed);
+            Logger.getLogger(PollingMeasurementSource.class.getName()).log(Level.WARNING, "The poller ran {0} ms late, {1} polls were missed", new Object[]{late, missed});
+        }
+        pollCount.incrementAndGet();
+        for (HostPoll poll : polls) {
+            submit(pool, poll, interval);
+        }
+        //Both terms guard against the ticker running a little early
+        nextPoll = Math.max(getNextPollTime(now, interval), getNextPollTime(nextPoll, interval));
+        scheduleTick(executor);
+    }
+
+    /**
+     * This starts a poll of a host, unless its previous poll is still
+     * running.
+     *
+     * @param pool The threads to poll with
+     * @param poll The poll to start
+     * @param interval The current poll interval, for reporting overruns
+     */
+    private void submit(ExecutorService pool, final HostPoll poll, long interval) {
+        if (!poll.busy.compareAndSet(false, true)) {
+            overrunCount.incrementAndGet();
+            poll.overruns++;
+            long now = System.nanoTime();
+            if (poll.lastReported == 0 || now - poll.lastReported >= OVERRUN_REPORT_INTERVAL) {
+                //Reports are limited so that a slow host does not flood the log
+                Logger.getLogger(PollingMeasurementSource.class.getName()).log(Level.WARNING,
+                        "Polling {0} is taking longer than the {1} ms interval, {2} of its polls have been skipped",
+                        new Object[]{poll.getName(), interval, poll.overruns});
+                poll.lastReported = now;
+                poll.overruns = 0;
+            }
+            return;
+        }
+        try {
+            pool.execute(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        poll(poll.host);
+                    } catch (RuntimeException ex) {
+                        //A failed poll should not stop the next one
+                        Logger.getLogger(PollingMeasurementSource.class.getName()).log(Level.SEVERE, "Polling the data source failed", ex);
+                    } finally {
+                        poll.busy.set(false);
+                    }
+                }
+            });
+        } catch (RejectedExecutionException ex) {
+            //Polling has been stopped
+            poll.busy.set(false);
+        }
+    }
+
+    /**
+     * This polls the data source once, passing on any new measurements.
+     *
+     * @param host The host to poll, or null to poll every host
+     */
+    private void poll(Host host) {
+        if (host != null) {
+            emit(adaptor.getHostData(host));
+            return;
+        }
+        List<HostMeasurement> measurements = adaptor.getHostData();
+        if (measurements != null) {
+            for (HostMeasurement measurement : measurements) {
+                emit(measurement);
+            }
+        }
+    }
+
+    /**
+     * This passes a measurement on to the listeners, if it is newer than the
+     * last measurement of the same host. Each host is only polled by one
+     * thread at a time.
+     *
+     * @param measurement The measurement that was polled
+     */
+    private void emit(HostMeasurement measurement) {
+        if (measurement == null || measurement.getHost() == null) {
+            return;
+        }
+        String name = measurement.getHost().getHostName();
+        Long last = lastClocks.get(name);
+        if (last != null && measurement.getClock() <= last) {
+            return; //This measurement has already been passed on
+        }
+        lastClocks.put(name, measurement.getClock());
+        listeners.fire(measurement);
+    }
+
+    /**
+     * The state of the polls of a single host.
+     */
+    private static class HostPoll {
+
+        private final Host host;
+        private final AtomicBoolean busy = new AtomicBoolean();
+        /**
+         * The overruns since the last report and when that report was made,
+         * these are only used by the ticker thread.
+         */
+        private long overruns = 0;
+        private long lastReported = 0;
+
+        public HostPoll(Host host) {
+            this.host = host;
+        }
+
+        /**
+         * This gives the name of the host for reporting.
+         *
+         * @return The host's name
+         */
+        public String getName() {
+            return host == null ? "all hosts" : host.getHostName();
+        }
+    }
+
+}
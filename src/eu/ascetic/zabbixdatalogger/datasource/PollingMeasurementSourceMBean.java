@@ -0,0 +1,73 @@
+/**
+ * Copyright 2018 University of Leeds
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package eu.ascetic.zabbixdatalogger.datasource;
+
+/**
+ * This is the management interface of a polling measurement source, which
+ * allows its poll interval to be changed and its overruns to be watched over
+ * JMX while it runs.
+ *
+ * @author Richard Kavanagh
+ */
+public interface PollingMeasurementSourceMBean {
+
+    /**
+     * This gets the time between polls.
+     *
+     * @return The poll interval in milliseconds
+     */
+    public long getIntervalMillis();
+
+    /**
+     * This sets the time between polls, the change takes effect from the
+     * next poll.
+     *
+     * @param intervalMillis The poll interval in milliseconds
+     */
+    public void setIntervalMillis(long intervalMillis);
+
+    /**
+     * This gets the amount of hosts that are polled separately.
+     *
+     * @return The amount of hosts polled, 0 if every host is polled in one
+     * call.
+     */
+    public int getHostCount();
+
+    /**
+     * This gets the amount of polls that have been started.
+     *
+     * @return The amount of polls
+     */
+    public long getPollCount();
+
+    /**
+     * This gets the amount of times a host was not polled because its
+     * previous poll had not finished.
+     *
+     * @return The amount of overruns
+     */
+    public long getOverrunCount();
+
+    /**
+     * This gets the amount of polls that were missed altogether, because the
+     * poller was not run on time.
+     *
+     * @return The amount of missed polls
+     */
+    public long getMissedPollCount();
+
+}
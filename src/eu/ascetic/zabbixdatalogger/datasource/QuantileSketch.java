@@ -0,0 +1,429 @@
+/**
+ * Copyright 2018 University of Leeds
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package eu.ascetic.zabbixdatalogger.datasource;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.Arrays;
+
+/**
+ * This is a streaming sketch of the distribution of a metric's values, from
+ * which quantiles such as the median or 95th percentile can be estimated
+ * without keeping the values themselves.
+ *
+ * Values are counted in buckets whose bounds grow geometrically, so that
+ * every quantile is given to within a fixed relative accuracy of the true
+ * value, e.g. within 1%. Sketches with the same accuracy merge exactly by
+ * adding their bucket counts, so the sketches of several nodes may be
+ * combined. The minimum and maximum are held exactly.
+ *
+ * This class is not thread safe.
+ *
+ * @author Richard Kavanagh
+ */
+public class QuantileSketch {
+
+    /**
+     * The 5th, 50th, 95th and 99th percentiles.
+     */
+    public static final double[] STANDARD_QUANTILES = {0.05, 0.5, 0.95, 0.99};
+    /**
+     * The smallest magnitude that is not counted as zero.
+     */
+    private static final double MIN_INDEXABLE = 1e-9;
+    /**
+     * The most buckets kept for either sign, if there are more the buckets
+     * that hold the smallest magnitudes are merged together.
+     */
+    private static final int MAX_BUCKETS = 2048;
+    private final double relativeAccuracy;
+    private final double gamma;
+    private final double logGamma;
+    private final Buckets positive = new Buckets();
+    private final Buckets negative = new Buckets();
+    private long zeroCount = 0;
+    private long count = 0;
+    private double min = Double.NaN;
+    private double max = Double.NaN;
+
+    /**
+     * This creates a sketch whose quantiles are accurate to within 1%.
+     */
+    public QuantileSketch() {
+        this(0.01);
+    }
+
+    /**
+     * This creates a sketch.
+     *
+     * @param relativeAccuracy The relative accuracy of the quantiles given,
+     * in the range 0..1 i.e. 0.01 for 1%.
+     */
+    public QuantileSketch(double relativeAccuracy) {
+        if (relativeAccuracy <= 0 || relativeAccuracy >= 1) {
+            throw new IllegalArgumentException("The relative accuracy must be between 0 and 1");
+        }
+        this.relativeAccuracy = relativeAccuracy;
+        gamma = (1 + relativeAccuracy) / (1 - relativeAccuracy);
+        logGamma = Math.log(gamma);
+    }
+
+    /**
+     * This adds a value to the sketch, values that are not a number are
+     * ignored.
+     *
+     * @param value The value to add
+     */
+    public void add(double value) {
+        if (Double.isNaN(value)) {
+            return;
+        }
+        if (value > MIN_INDEXABLE) {
+            positive.add(indexOf(value), 1);
+        } else if (value < -MIN_INDEXABLE) {
+            negative.add(indexOf(-value), 1);
+        } else {
+            zeroCount++;
+        }
+        if (count == 0) {
+            min = value;
+            max = value;
+        } else {
+            min = Math.min(min, value);
+            max = Math.max(max, value);
+        }
+        count++;
+    }
+
+    /**
+     * This merges the counts of another sketch into this one.
+     *
+     * @param other The sketch to merge in, which must have the same relative
+     * accuracy as this sketch.
+     */
+    public void merge(QuantileSketch other) {
+        if (other.relativeAccuracy != relativeAccuracy) {
+            throw new IllegalArgumentException("Only sketches with the same relative accuracy may be merged");
+        }
+        if (other.count == 0) {
+            return;
+        }
+        positive.merge(other.positive);
+        negative.merge(other.negative);
+        zeroCount = zeroCount + other.zeroCount;
+        if (count == 0) {
+            min = other.min;
+            max = other.max;
+        } else {
+            min = Math.min(min, other.min);
+            max = Math.max(max, other.max);
+        }
+        count = count + other.count;
+    }
+
+    /**
+     * This estimates a quantile of the values added to the sketch.
+     *
+     * @param quantile The quantile in the range 0..1, i.e. 0.95 for the 95th
+     * percentile.
+     * @return The estimated value of the quantile, or NaN if the sketch is
+     * empty.
+     */
+    public double getQuantile(double quantile) {
+        if (count == 0 || quantile < 0 || quantile > 1) {
+            return Double.NaN;
+        }
+        if (quantile == 0) {
+            return min;
+        }
+        if (quantile == 1) {
+            return max;
+        }
+        long rank = (long) (quantile * (count - 1));
+        double answer;
+        if (rank < negative.total) {
+            //Negative values are ordered from the largest magnitude down
+            answer = -valueOf(negative.getIndexAtRank(negative.total - 1 - rank));
+        } else if (rank < negative.total + zeroCount) {
+            answer = 0;
+        } else {
+            answer = valueOf(positive.getIndexAtRank(rank - negative.total - zeroCount));
+        }
+        return Math.max(min, Math.min(max, answer));
+    }
+
+    /**
+     * This estimates several quantiles at once.
+     *
+     * @param quantiles The quantiles in the range 0..1
+     * @return The estimated value of each quantile
+     */
+    public double[] getQuantiles(double[] quantiles) {
+        double[] answer = new double[quantiles.length];
+        for (int i = 0; i < quantiles.length; i++) {
+            answer[i] = getQuantile(quantiles[i]);
+        }
+        return answer;
+    }
+
+    /**
+     * This gives the amount of values added to the sketch.
+     *
+     * @return The count of values
+     */
+    public long getCount() {
+        return count;
+    }
+
+    /**
+     * This gives the smallest value added to the sketch.
+     *
+     * @return The minimum value, or NaN if the sketch is empty.
+     */
+    public double getMin() {
+        return min;
+    }
+
+    /**
+     * This gives the largest value added to the sketch.
+     *
+     * @return The maximum value, or NaN if the sketch is empty.
+     */
+    public double getMax() {
+        return max;
+    }
+
+    /**
+     * This gives the relative accuracy of the quantiles of this sketch.
+     *
+     * @return The relative accuracy in the range 0..1
+     */
+    public double getRelativeAccuracy() {
+        return relativeAccuracy;
+    }
+
+    /**
+     * This creates an independent copy of this sketch.
+     *
+     * @return A copy of the sketch
+     */
+    public QuantileSketch copy() {
+        QuantileSketch answer = new QuantileSketch(relativeAccuracy);
+        answer.merge(this);
+        return answer;
+    }
+
+    /**
+     * This writes the sketch out, so that it may be sent to another node
+     * and merged with its sketches.
+     *
+     * @param out The output to write to
+     * @throws IOException If the write fails
+     */
+    public void writeTo(DataOutput out) throws IOException {
+        out.writeDouble(relativeAccuracy);
+        out.writeLong(count);
+        out.writeLong(zeroCount);
+        out.writeDouble(min);
+        out.writeDouble(max);
+        positive.writeTo(out);
+        negative.writeTo(out);
+    }
+
+    /**
+     * This reads in a sketch that was written out by writeTo.
+     *
+     * @param in The input to read from
+     * @return The sketch that was read
+     * @throws IOException If the read fails
+     */
+    public static QuantileSketch readFrom(DataInput in) throws IOException {
+        QuantileSketch answer = new QuantileSketch(in.readDouble());
+        answer.count = in.readLong();
+        answer.zeroCount = in.readLong();
+        answer.min = in.readDouble();
+        answer.max = in.readDouble();
+        answer.positive.readFrom(in);
+        answer.negative.readFrom(in);
+        return answer;
+    }
+
+    /**
+     * This gives the index of the bucket that holds a positive value.
+     *
+     * @param value The value, which must be positive
+     * @return The index of its bucket
+     */
+    private int indexOf(double value) {
+        return (int) Math.ceil(Math.log(value) / logGamma);
+    }
+
+    /**
+     * This gives the value that represents a bucket, which is within the
+     * relative accuracy of every value in the bucket.
+     *
+     * @param index The index of the bucket
+     * @return The value of the bucket
+     */
+    private double valueOf(int index) {
+        return 2 * Math.pow(gamma, index) / (gamma + 1);
+    }
+
+    /**
+     * This holds the counts of a contiguous range of buckets.
+     */
+    private static class Buckets {
+
+        private long[] counts = new long[0];
+        /**
+         * The index of the bucket held in counts[0].
+         */
+        private int offset = 0;
+        private long total = 0;
+
+        /**
+         * This adds to the count of a bucket.
+         *
+         * @param index The index of the bucket
+         * @param amount The amount to add
+         */
+        private void add(int index, long amount) {
+            if (counts.length == 0) {
+                counts = new long[16];
+                offset = index - 8;
+            }
+            if (index < offset) {
+                int size = Math.min(MAX_BUCKETS, Math.max(counts.length + offset - index, counts.length * 2));
+                if (size > counts.length) {
+                    long[] grown = new long[size];
+                    int shift = size - counts.length;
+                    System.arraycopy(counts, 0, grown, shift, counts.length);
+                    counts = grown;
+                    offset = offset - shift;
+                }
+                if (index < offset) {
+                    //Merge the smallest magnitudes into the lowest bucket kept
+                    index = offset;
+                }
+            } else if (index >= offset + counts.length) {
+                int needed = index - offset + 1;
+                if (needed > MAX_BUCKETS) {
+                    collapse(index - MAX_BUCKETS + 1);
+                    needed = MAX_BUCKETS;
+                }
+                if (needed > counts.length) {
+                    counts = Arrays.copyOf(counts, Math.min(MAX_BUCKETS, Math.max(needed, counts.length * 2)));
+                }
+            }
+            counts[index - offset] = counts[index - offset] + amount;
+            total = total + amount;
+        }
+
+        /**
+         * This merges the lowest buckets together, making room for buckets
+         * of a higher magnitude.
+         *
+         * @param newOffset The index of the new lowest bucket, which takes
+         * the counts of every bucket below it.
+         */
+        private void collapse(int newOffset) {
+            int amount = newOffset - offset;
+            long merged = 0;
+            for (int i = 0; i <= Math.min(amount, counts.length - 1); i++) {
+                merged = merged + counts[i];
+            }
+            if (amount < counts.length) {
+                System.arraycopy(counts, amount, counts, 0, counts.length - amount);
+                Arrays.fill(counts, counts.length - amount, counts.length, 0);
+            } else {
+                Arrays.fill(counts, 0);
+            }
+            counts[0] = merged;
+            offset = newOffset;
+        }
+
+        /**
+         * This adds the counts of another set of buckets to these.
+         *
+         * @param other The buckets to merge in
+         */
+        private void merge(Buckets other) {
+            for (int i = other.counts.length - 1; i >= 0; i--) {
+                if (other.counts[i] != 0) {
+                    add(other.offset + i, other.counts[i]);
+                }
+            }
+        }
+
+        /**
+         * This finds the bucket that holds the value of a given rank.
+         *
+         * @param rank The rank, 0 being the smallest value
+         * @return The index of the bucket holding the value
+         */
+        private int getIndexAtRank(long rank) {
+            long seen = 0;
+            for (int i = 0; i < counts.length; i++) {
+                seen = seen + counts[i];
+                if (seen > rank) {
+                    return offset + i;
+                }
+            }
+            return offset + counts.length - 1;
+        }
+
+        /**
+         * This writes out the non empty range of buckets.
+         *
+         * @param out The output to write to
+         * @throws IOException If the write fails
+         */
+        private void writeTo(DataOutput out) throws IOException {
+            int first = 0;
+            int last = counts.length - 1;
+            while (first <= last && counts[first] == 0) {
+                first++;
+            }
+            while (last >= first && counts[last] == 0) {
+                last--;
+            }
+            out.writeInt(offset + first);
+            out.writeInt(last - first + 1);
+            for (int i = first; i <= last; i++) {
+                out.writeLong(counts[i]);
+            }
+        }
+
+        /**
+         * This reads in buckets written out by writeTo.
+         *
+         * @param in The input to read from
+         * @throws IOException If the read fails
+         */
+        private void readFrom(DataInput in) throws IOException {
+            int first = in.readInt();
+            int length = in.readInt();
+            for (int i = 0; i < length; i++) {
+                long amount = in.readLong();
+                if (amount != 0) {
+                    add(first + i, amount);
+                }
+            }
+        }
+    }
+
+}
@@ -0,0 +1,315 @@
+/**
+ * Copyright 2018 University of Leeds
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package eu.ascetic.zabbixdatalogger.datasource;
+
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * This keeps a quantile sketch for each host and tracked metric, updated as
+ * measurements arrive. It answers questions such as the median or 95th
+ * percentile power of a host, along with its lowest and highest power,
+ * without holding or scanning the history of measurements.
+ *
+ * By default the power and the derived cpu utilisation of each host are
+ * tracked, further metrics may be added via {@link #track(String)}. A value
+ * is only counted once, so a measurement may safely be added more than once.
+ *
+ * @author Richard Kavanagh
+ */
+public class QuantileSketchStore {
+
+    private final double relativeAccuracy;
+    private final ConcurrentHashMap<String, HostSketches> hosts = new ConcurrentHashMap<>();
+    private volatile BitSet tracked = new BitSet();
+
+    /**
+     * This creates a store whose quantiles are accurate to within 1%.
+     */
+    public QuantileSketchStore() {
+        this(0.01);
+    }
+
+    /**
+     * This creates a quantile sketch store.
+     *
+     * @param relativeAccuracy The relative accuracy of the quantiles given,
+     * in the range 0..1 i.e. 0.01 for 1%.
+     */
+    public QuantileSketchStore(double relativeAccuracy) {
+        this.relativeAccuracy = relativeAccuracy;
+        track(KpiList.POWER_KPI_NAME);
+    }
+
+    /**
+     * This adds a metric to those whose values are sketched.
+     *
+     * @param key The key of the metric
+     */
+    public final synchronized void track(String key) {
+        BitSet updated = (BitSet) tracked.clone();
+        updated.set(MetricSymbolTable.getId(key));
+        tracked = updated;
+    }
+
+    /**
+     * This adds the tracked metrics of a measurement, along with its cpu
+     * utilisation, to the sketches of a host.
+     *
+     * @param hostname The name of the host the measurement is for
+     * @param measurement The measurement to add
+     */
+    public void add(String hostname, Measurement measurement) {
+        if (hostname == null || measurement == null) {
+            return;
+        }
+        HostSketches sketches = getHostSketches(hostname);
+        BitSet trackedIds = tracked;
+        synchronized (sketches) {
+            for (int id = trackedIds.nextSetBit(0); id >= 0; id = trackedIds.nextSetBit(id + 1)) {
+                MetricValue metric = measurement.getMetric(MetricSymbolTable.getName(id));
+                if (metric != null && metric.isNumeric()) {
+                    sketches.add(id, metric.getClock(), metric.getValue());
+                }
+            }
+            long clock = measurement.getCpuUtilisationTimeStamp();
+            if (clock != 0) {
+                try {
+                    sketches.add(HostSketches.CPU, clock, measurement.getCpuUtilisation());
+                } catch (NumberFormatException ex) {
+                    //A textual cpu metric has no utilisation to record
+                }
+            }
+        }
+    }
+
+    /**
+     * This adds a single value to the sketch of a host's metric.
+     *
+     * @param hostname The name of the host the value is for
+     * @param key The key of the metric
+     * @param clock The time of the value in Unix time
+     * @param value The value of the metric
+     */
+    public void add(String hostname, String key, long clock, double value) {
+        HostSketches sketches = getHostSketches(hostname);
+        synchronized (sketches) {
+            sketches.add(MetricSymbolTable.getId(key), clock, value);
+        }
+    }
+
+    /**
+     * This merges a sketch, such as one from another node, into the sketch of
+     * a host's metric.
+     *
+     * @param hostname The name of the host the sketch is for
+     * @param key The key of the metric
+     * @param sketch The sketch to merge in
+     */
+    public void merge(String hostname, String key, QuantileSketch sketch) {
+        HostSketches sketches = getHostSketches(hostname);
+        synchronized (sketches) {
+            sketches.get(MetricSymbolTable.getId(key)).merge(sketch);
+        }
+    }
+
+    /**
+     * This estimates a quantile of a host's metric.
+     *
+     * @param hostname The name of the host
+     * @param key The key of the metric
+     * @param quantile The quantile in the range 0..1, i.e. 0.95 for the 95th
+     * percentile.
+     * @return The estimated quantile, or NaN if there is no data.
+     */
+    public double getQuantile(String hostname, String key, double quantile) {
+        HostSketches sketches = hosts.get(hostname);
+        int id = MetricSymbolTable.lookup(key);
+        if (sketches == null || id < 0) {
+            return Double.NaN;
+        }
+        synchronized (sketches) {
+            QuantileSketch sketch = sketches.find(id);
+            return sketch == null ? Double.NaN : sketch.getQuantile(quantile);
+        }
+    }
+
+    /**
+     * This estimates the 5th, 50th, 95th and 99th percentiles of a host's
+     * metric.
+     *
+     * @param hostname The name of the host
+     * @param key The key of the metric
+     * @return The estimated quantiles, which are NaN if there is no data.
+     */
+    public double[] getQuantiles(String hostname, String key) {
+        QuantileSketch sketch = getSketch(hostname, key);
+        if (sketch == null) {
+            sketch = new QuantileSketch(relativeAccuracy);
+        }
+        return sketch.getQuantiles(QuantileSketch.STANDARD_QUANTILES);
+    }
+
+    /**
+     * This estimates a quantile of a host's cpu utilisation.
+     *
+     * @param hostname The name of the host
+     * @param quantile The quantile in the range 0..1
+     * @return The estimated quantile in the range 0..1, or NaN if there is no
+     * data.
+     */
+    public double getCpuUtilisationQuantile(String hostname, double quantile) {
+        HostSketches sketches = hosts.get(hostname);
+        if (sketches == null) {
+            return Double.NaN;
+        }
+        synchronized (sketches) {
+            QuantileSketch sketch = sketches.find(HostSketches.CPU);
+            return sketch == null ? Double.NaN : sketch.getQuantile(quantile);
+        }
+    }
+
+    /**
+     * This gives the lowest value seen of a host's metric.
+     *
+     * @param hostname The name of the host
+     * @param key The key of the metric
+     * @return The lowest value, or NaN if there is no data.
+     */
+    public double getMin(String hostname, String key) {
+        return getQuantile(hostname, key, 0);
+    }
+
+    /**
+     * This gives the highest value seen of a host's metric.
+     *
+     * @param hostname The name of the host
+     * @param key The key of the metric
+     * @return The highest value, or NaN if there is no data.
+     */
+    public double getMax(String hostname, String key) {
+        return getQuantile(hostname, key, 1);
+    }
+
+    /**
+     * This gives a copy of the sketch of a host's metric, such as to send to
+     * another node to be merged.
+     *
+     * @param hostname The name of the host
+     * @param key The key of the metric
+     * @return A copy of the sketch, or null if there is no data.
+     */
+    public QuantileSketch getSketch(String hostname, String key) {
+        HostSketches sketches = hosts.get(hostname);
+        int id = MetricSymbolTable.lookup(key);
+        if (sketches == null || id < 0) {
+            return null;
+        }
+        synchronized (sketches) {
+            QuantileSketch sketch = sketches.find(id);
+            return sketch == null ? null : sketch.copy();
+        }
+    }
+
+    /**
+     * This removes all of the sketches held for a host.
+     *
+     * @param hostname The name of the host
+     */
+    public void remove(String hostname) {
+        hosts.remove(hostname);
+    }
+
+    /**
+     * This gets the sketches of a host, creating them if needed.
+     *
+     * @param hostname The name of the host
+     * @return The sketches held for the host
+     */
+    private HostSketches getHostSketches(String hostname) {
+        HostSketches answer = hosts.get(hostname);
+        if (answer == null) {
+            answer = new HostSketches();
+            HostSketches existing = hosts.putIfAbsent(hostname, answer);
+            if (existing != null) {
+                answer = existing;
+            }
+        }
+        return answer;
+    }
+
+    /**
+     * This holds the sketches of a single host, indexed by metric id. The
+     * sketch of the derived cpu utilisation is held in the first position,
+     * with metric ids offset by one.
+     */
+    private class HostSketches {
+
+        private static final int CPU = -1;
+        private QuantileSketch[] sketches = new QuantileSketch[0];
+        /**
+         * The clock of the last value added to each sketch.
+         */
+        private long[] lastClocks = new long[0];
+
+        /**
+         * This adds a value to a sketch, unless it is not newer than the last
+         * value added.
+         *
+         * @param id The metric id, or CPU for the cpu utilisation
+         * @param clock The time of the value in Unix time
+         * @param value The value to add
+         */
+        private void add(int id, long clock, double value) {
+            QuantileSketch sketch = get(id);
+            if (sketch.getCount() > 0 && clock <= lastClocks[id + 1]) {
+                return;
+            }
+            lastClocks[id + 1] = clock;
+            sketch.add(value);
+        }
+
+        /**
+         * This gets a sketch, creating it if needed.
+         *
+         * @param id The metric id, or CPU for the cpu utilisation
+         * @return The sketch
+         */
+        private QuantileSketch get(int id) {
+            if (id + 1 >= sketches.length) {
+                int size = Math.max(id + 2, sketches.length * 2);
+                sketches = Arrays.copyOf(sketches, size);
+                lastClocks = Arrays.copyOf(lastClocks, size);
+            }
+            if (sketches[id + 1] == null) {
+                sketches[id + 1] = new QuantileSketch(relativeAccuracy);
+            }
+            return sketches[id + 1];
+        }
+
+        /**
+         * This gets a sketch, if it exists.
+         *
+         * @param id The metric id, or CPU for the cpu utilisation
+         * @return The sketch, or null.
+         */
+        private QuantileSketch find(int id) {
+            return id + 1 < sketches.length ? sketches[id + 1] : null;
+        }
+    }
+
+}
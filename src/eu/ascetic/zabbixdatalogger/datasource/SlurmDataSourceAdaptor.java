@@ -45,17 +45,22 @@ import static eu.ascetic.zabbixdatalogger.datasource.KpiList.APPS_STATUS;
  *
  * @author Richard Kavanagh
  */
-public class SlurmDataSourceAdaptor implements DataSourceAdaptor, ApplicationDataSource {
+public class SlurmDataSourceAdaptor implements DataSourceAdaptor, ApplicationDataSource, MeasurementSource {
 
     private Tailer tailer;
     private final HashMap<String, Host> hosts = new HashMap<>();
-    private final HashMap<String, HostMeasurement> lowest = new HashMap<>();
-    private final HashMap<String, HostMeasurement> highest = new HashMap<>();
     private final HashMap<String, HostMeasurement> current = new HashMap<>();
     private SlurmDataSourceAdaptor.SlurmTailer fileTailer;
     private SlurmPoller poller;
     private final Settings settings = new Settings("energy-modeller-slurm-config.properties");
     private final HashMap<String, CircularFifoQueue<SlurmDataSourceAdaptor.CPUUtilisation>> cpuMeasure = new HashMap<>();
+    private TimeSeriesStore history;
+    /**
+     * The distribution of each host's power and utilisation, this also gives
+     * each host's lowest and highest power.
+     */
+    private final QuantileSketchStore quantiles = new QuantileSketchStore();
+    private final MeasurementListeners listeners = new MeasurementListeners();
 
     public SlurmDataSourceAdaptor() {
         startup(1);
@@ -67,6 +72,8 @@ public class SlurmDataSourceAdaptor implements DataSourceAdaptor, ApplicationDat
      * @param interval The interval at which to take logging data.
      */
     public final void startup(int interval) {
+        int retention = settings.getInt("energy.modeller.slurm.history.retention", 3600);
+        history = new TimeSeriesStore(retention, interval);
         String filename = settings.getString("energy.modeller.slurm.scrape.file", "slurm-host-data.log");
         boolean useFileScraper = settings.getBoolean("energy.modeller.slurm.scrape.from.file", false);
         if (useFileScraper) {
@@ -467,20 +474,35 @@ public class SlurmDataSourceAdaptor implements DataSourceAdaptor, ApplicationDat
         return appData;
     }
 
+    @Override
+    public void addMeasurementListener(MeasurementListener listener) {
+        listeners.add(listener);
+    }
+
+    @Override
+    public void removeMeasurementListener(MeasurementListener listener) {
+        listeners.remove(listener);
+    }
+
     @Override
     public double getLowestHostPowerUsage(Host host) {
-        return lowest.get(host.getHostName()).getPower();
+        double answer = quantiles.getMin(host.getHostName(), KpiList.POWER_KPI_NAME);
+        return Double.isNaN(answer) ? 0.0 : answer;
     }
 
     @Override
     public double getHighestHostPowerUsage(Host host) {
-        return highest.get(host.getHostName()).getPower();
+        double answer = quantiles.getMax(host.getHostName(), KpiList.POWER_KPI_NAME);
+        return Double.isNaN(answer) ? 0.0 : answer;
     }
 
     @Override
     public double getCpuUtilisation(Host host, int durationSeconds) {
-        //TODO note duration in seconds is ignored, fix this.
-        return current.get(host.getHostName()).getCpuUtilisation();
+        double answer = history.getCpuUtilisation(host.getHostName(), durationSeconds);
+        if (Double.isNaN(answer)) {
+            return current.get(host.getHostName()).getCpuUtilisation();
+        }
+        return answer;
     }
 
     /**
@@ -838,26 +860,23 @@ public class SlurmDataSourceAdaptor implements DataSourceAdaptor, ApplicationDat
                 readGresUsedString(values, measurement, clock);
                 readGenericMetrics(values, measurement, clock);
             double cpuUtil = Double.valueOf(cpuLoad) / Double.valueOf(getValue("CPUTot", values));
-                valid = valid && validatedAddMetric(measurement, new MetricValue(KpiList.CPU_SPOT_USAGE_KPI_NAME, KpiList.CPU_SPOT_USAGE_KPI_NAME, cpuUtil * 100 + "", clock));
-                valid = valid && validatedAddMetric(measurement, new MetricValue(KpiList.CPU_IDLE_KPI_NAME, KpiList.CPU_IDLE_KPI_NAME, ((1 - cpuUtil)) * 100 + "", clock));
+                valid = valid && validatedAddMetric(measurement, new MetricValue(KpiList.CPU_SPOT_USAGE_KPI_NAME, KpiList.CPU_SPOT_USAGE_KPI_NAME, cpuUtil * 100, clock));
+                valid = valid && validatedAddMetric(measurement, new MetricValue(KpiList.CPU_IDLE_KPI_NAME, KpiList.CPU_IDLE_KPI_NAME, ((1 - cpuUtil)) * 100, clock));
                 if (!valid) {
                     System.out.println("The measurement taken was invalid");
                     return;
                 }
 
-                valid = valid && validatedAddMetric(measurement, new MetricValue(KpiList.MEMORY_AVAILABLE_KPI_NAME, KpiList.MEMORY_AVAILABLE_KPI_NAME, (int) (Double.valueOf(getValue("FreeMem", values)) / 1048576) + "", clock));
-                valid = valid && validatedAddMetric(measurement, new MetricValue(KpiList.MEMORY_TOTAL_KPI_NAME, KpiList.MEMORY_TOTAL_KPI_NAME, (int) (Double.valueOf(getValue("RealMemory", values)) / 1048576) + "", clock));
+                valid = valid && validatedAddMetric(measurement, new MetricValue(KpiList.MEMORY_AVAILABLE_KPI_NAME, KpiList.MEMORY_AVAILABLE_KPI_NAME, (long) (Double.valueOf(getValue("FreeMem", values)) / 1048576), clock));
+                valid = valid && validatedAddMetric(measurement, new MetricValue(KpiList.MEMORY_TOTAL_KPI_NAME, KpiList.MEMORY_TOTAL_KPI_NAME, (long) (Double.valueOf(getValue("RealMemory", values)) / 1048576), clock));
 
                 if (!valid) {
                     return;
                 }
                 current.put(hostname, measurement);
-                if (lowest.get(hostname) == null || measurement.getPower() < lowest.get(hostname).getPower()) {
-                    lowest.put(hostname, measurement);
-                }
-                if (highest.get(hostname) == null || measurement.getPower() > highest.get(hostname).getPower()) {
-                    highest.put(hostname, measurement);
-                }
+                history.add(hostname, measurement);
+                quantiles.add(hostname, measurement);
+                listeners.fire(measurement);
             } catch (NumberFormatException ex) {
                 //Ignore these errors and carry on. It may just be the header line.
             Logger.getLogger(SlurmDataSourceAdaptor.class.getName()).log(Level.SEVERE,
@@ -22,9 +22,10 @@ import eu.ascetic.zabbixdatalogger.datasource.types.ApplicationOnHost;
 import eu.ascetic.zabbixdatalogger.datasource.types.MonitoredEntity;
 import eu.ascetic.zabbixdatalogger.datasource.types.Host;
 import eu.ascetic.zabbixdatalogger.datasource.types.VmDeployed;
-import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.function.Function;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -44,6 +45,16 @@ public class TangoEnvironmentDataSourceAdaptor implements DataSourceAdaptor, App
 
     private final SlurmDataSourceAdaptor slurm = new SlurmDataSourceAdaptor();
     private final CollectDInfluxDbDataSourceAdaptor collectD = new CollectDInfluxDbDataSourceAdaptor();
+    /**
+     * The pool that SLURM and CollectD are queried on, so that both data
+     * sources and many hosts may be queried at the same time.
+     */
+    private final ExecutorService queryPool = ExecutorAsyncDataSourceAdaptor.createExecutor(8, 512);
+    /**
+     * This merges the data of both data sources, SLURM's host names are the
+     * CollectD host names without the ".bullx" suffix.
+     */
+    private final FederatedDataSourceAdaptor federated = new FederatedDataSourceAdaptor(queryPool);
 
     private final HashMap<Host, Host> collectdToSlurm = new HashMap<>();
     private final HashMap<Host, Host> slurmToCollectD = new HashMap<>();
@@ -53,6 +64,17 @@ public class TangoEnvironmentDataSourceAdaptor implements DataSourceAdaptor, App
      */
     public TangoEnvironmentDataSourceAdaptor() {
         super();
+        federated.addSource(slurm);
+        federated.addSource(collectD, new Function<String, String>() {
+            @Override
+            public String apply(String hostname) {
+                return hostname + ".bullx";
+            }
+        });
+        //Ensure that collectd based measures of utilisation take precedence
+        federated.setPrecedence(KpiList.CPU_IDLE_KPI_NAME, collectD, slurm);
+        federated.setPrecedence(KpiList.CPU_SPOT_USAGE_KPI_NAME, collectD, slurm);
+        federated.setStatisticsSource(collectD);
     }
 
     @Override
@@ -110,58 +132,23 @@ public class TangoEnvironmentDataSourceAdaptor implements DataSourceAdaptor, App
 
     @Override
     public HostMeasurement getHostData(Host host) {
-        if (host == null) {
-            return null;
-        }
-        HostMeasurement answer = slurm.getHostData(host);
-        //Adds various information such as memory usage, including static upper bound values.
-        Host collectDhost = convertNames(host);
-        if (collectDhost != null) {
-            if (answer == null) {
-                answer = collectD.getHostData(collectDhost);
-                answer.setHost(host); //This ensures a collectD host is not leaked
-            } else {
-                HostMeasurement data = collectD.getHostData(collectDhost);
-                if (data.metricExists(KpiList.CPU_IDLE_KPI_NAME)) {
-                    //Ensure that collectd based measures of utilisation take precedence
-                    answer.deleteMetric(KpiList.CPU_IDLE_KPI_NAME);
-                    answer.deleteMetric(KpiList.CPU_SPOT_USAGE_KPI_NAME);                    
-                    answer.addMetric(data.getMetric(KpiList.CPU_IDLE_KPI_NAME));
-                    answer.addMetric(data.getMetric(KpiList.CPU_SPOT_USAGE_KPI_NAME));
-                }
-                answer.addMetrics(data);
-                
-            }
-        }
-        return answer;
+        return federated.getHostData(host);
     }
 
     @Override
     public List<HostMeasurement> getHostData() {
-        List<HostMeasurement> answer = new ArrayList<>();
-        for (Host host : slurm.getHostList()) {
-            HostMeasurement measurement = getHostData(host);
-            if (measurement != null) {
-                answer.add(measurement);
-            }
-        }
-        return answer;
+        return getHostData(slurm.getHostList());
     }
 
+    /**
+     * This queries every host at the same time.
+     *
+     * @param hostList The list of hosts to get the data from
+     * @return A list of host measurements
+     */
     @Override
     public List<HostMeasurement> getHostData(List<Host> hostList) {
-        if (hostList == null) {
-            hostList = new ArrayList<>();
-        }
-        List<HostMeasurement> answer = new ArrayList<>();
-        for (Host host : hostList) {
-            HostMeasurement measurement = getHostData(host);
-            if (measurement != null) {
-                answer.add(measurement);
-                measurement.setHost(host);
-            }
-        }
-        return answer;
+        return federated.getHostData(hostList);
     }
 
     @Override
@@ -181,17 +168,17 @@ public class TangoEnvironmentDataSourceAdaptor implements DataSourceAdaptor, App
 
     @Override
     public double getLowestHostPowerUsage(Host host) {
-        return collectD.getLowestHostPowerUsage(convertNames(host));
+        return federated.getLowestHostPowerUsage(host);
     }
 
     @Override
     public double getHighestHostPowerUsage(Host host) {
-        return collectD.getHighestHostPowerUsage(convertNames(host));
+        return federated.getHighestHostPowerUsage(host);
     }
 
     @Override
     public double getCpuUtilisation(Host host, int durationSeconds) {
-        return collectD.getCpuUtilisation(convertNames(host), durationSeconds);
+        return federated.getCpuUtilisation(host, durationSeconds);
     }
 
     public Host convertNames(Host host) {
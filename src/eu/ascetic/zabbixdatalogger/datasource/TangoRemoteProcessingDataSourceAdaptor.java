@@ -27,6 +27,8 @@ import eu.ascetic.zabbixdatalogger.datasource.types.VmDeployed;
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.function.Function;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -46,6 +48,16 @@ public class TangoRemoteProcessingDataSourceAdaptor implements DataSourceAdaptor
 
     private final CompssDatasourceAdaptor compss = new CompssDatasourceAdaptor();
     private final CollectDInfluxDbDataSourceAdaptor collectD = new CollectDInfluxDbDataSourceAdaptor();
+    /**
+     * The pool that compss and CollectD are queried on, so that both data
+     * sources and many hosts may be queried at the same time.
+     */
+    private final ExecutorService queryPool = ExecutorAsyncDataSourceAdaptor.createExecutor(8, 512);
+    /**
+     * This merges the data of both data sources, compss's host names are the
+     * CollectD host names without the ".bullx" suffix.
+     */
+    private final FederatedDataSourceAdaptor federated = new FederatedDataSourceAdaptor(queryPool);
 
     private final HashMap<Host, Host> collectdToCompss = new HashMap<>();
     private final HashMap<Host, Host> compssToCollectD = new HashMap<>();
@@ -55,6 +67,17 @@ public class TangoRemoteProcessingDataSourceAdaptor implements DataSourceAdaptor
      */
     public TangoRemoteProcessingDataSourceAdaptor() {
         super();
+        federated.addSource(compss);
+        federated.addSource(collectD, new Function<String, String>() {
+            @Override
+            public String apply(String hostname) {
+                return hostname + ".bullx";
+            }
+        });
+        //Ensure that collectd based measures of utilisation take precedence
+        federated.setPrecedence(KpiList.CPU_IDLE_KPI_NAME, collectD, compss);
+        federated.setPrecedence(KpiList.CPU_SPOT_USAGE_KPI_NAME, collectD, compss);
+        federated.setStatisticsSource(collectD);
     }
     
     /**
@@ -129,60 +152,23 @@ public class TangoRemoteProcessingDataSourceAdaptor implements DataSourceAdaptor
 
     @Override
     public HostMeasurement getHostData(Host host) {
-        if (host == null) {
-            return null;
-        }
-        HostMeasurement answer = compss.getHostData(host);
-        //Adds various information such as how many applications are running.
-        Host collectDhost = convertNames(host);
-        if (collectDhost != null) {
-            if (answer == null) { //No compss related data therefore overwrite
-                answer = collectD.getHostData(collectDhost);
-                answer.setHost(host); //This ensures a collectD host is not leaked
-            } else {
-                HostMeasurement data = collectD.getHostData(collectDhost);
-                if (data == null) {
-                    return answer;
-                }
-                if (data.metricExists(KpiList.CPU_IDLE_KPI_NAME)) {
-                    //Ensure that collectd based measures of utilisation take precedence
-                    answer.deleteMetric(KpiList.CPU_IDLE_KPI_NAME);
-                    answer.deleteMetric(KpiList.CPU_SPOT_USAGE_KPI_NAME);                    
-                    answer.addMetric(data.getMetric(KpiList.CPU_IDLE_KPI_NAME));
-                    answer.addMetric(data.getMetric(KpiList.CPU_SPOT_USAGE_KPI_NAME));
-                }
-                answer.addMetrics(data);
-            }
-        }
-        return answer;
+        return federated.getHostData(host);
     }
 
     @Override
     public List<HostMeasurement> getHostData() {
-        List<HostMeasurement> answer = new ArrayList<>();
-        for (Host host : compss.getHostList()) {
-            HostMeasurement measurement = getHostData(host);
-            if (measurement != null) {
-                answer.add(measurement);
-            }
-        }
-        return answer;
+        return getHostData(compss.getHostList());
     }
 
+    /**
+     * This queries every host at the same time.
+     *
+     * @param hostList The list of hosts to get the data from
+     * @return A list of host measurements
+     */
     @Override
     public List<HostMeasurement> getHostData(List<Host> hostList) {
-        if (hostList == null) {
-            hostList = new ArrayList<>();
-        }
-        List<HostMeasurement> answer = new ArrayList<>();
-        for (Host host : hostList) {
-            HostMeasurement measurement = getHostData(host);
-            if (measurement != null) {
-                answer.add(measurement);
-                measurement.setHost(host);
-            }
-        }
-        return answer;
+        return federated.getHostData(hostList);
     }
 
     @Override
@@ -202,17 +188,17 @@ public class TangoRemoteProcessingDataSourceAdaptor implements DataSourceAdaptor
 
     @Override
     public double getLowestHostPowerUsage(Host host) {
-        return collectD.getLowestHostPowerUsage(convertNames(host));
+        return federated.getLowestHostPowerUsage(host);
     }
 
     @Override
     public double getHighestHostPowerUsage(Host host) {
-        return collectD.getHighestHostPowerUsage(convertNames(host));
+        return federated.getHighestHostPowerUsage(host);
     }
 
     @Override
     public double getCpuUtilisation(Host host, int durationSeconds) {
-        return collectD.getCpuUtilisation(convertNames(host), durationSeconds);
+        return federated.getCpuUtilisation(host, durationSeconds);
     }
 
     public Host convertNames(Host host) {
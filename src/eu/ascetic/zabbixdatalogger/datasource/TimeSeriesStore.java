@@ -0,0 +1,484 @@
+/**
+ * Copyright 2018 University of Leeds
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package eu.ascetic.zabbixdatalogger.datasource;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * This keeps a recent history of metric values for each host, so that
+ * questions over a window of time, such as the average cpu utilisation over
+ * the last minute, can be answered locally rather than by querying the
+ * monitoring infrastructure.
+ *
+ * Each series of values is held in a fixed size ring of (clock, value) pairs
+ * that lives outside of the Java heap, in direct byte buffers that are carved
+ * out of larger slabs. Once a ring is full the oldest values are overwritten,
+ * so adding values creates no garbage. Every ring is the same size, so the
+ * rings of a removed host are kept on a free list and reused for new series,
+ * rather than the off heap space growing as hosts come and go.
+ *
+ * By default only the well known KPIs and the derived cpu utilisation are
+ * kept, further metrics may be added via {@link #track(String)}.
+ *
+ * @author Richard Kavanagh
+ */
+public class TimeSeriesStore {
+
+    /**
+     * The size of a single sample: an 8 byte clock and an 8 byte value.
+     */
+    private static final int SAMPLE_SIZE = 16;
+    private static final int SLAB_SIZE = 4 * 1024 * 1024;
+    private final int capacity;
+    private final long retention;
+    private final ConcurrentHashMap<String, HostSeries> hosts = new ConcurrentHashMap<>();
+    private volatile BitSet tracked = new BitSet();
+    private ByteBuffer slab = null;
+    /**
+     * The storage of rings that belonged to removed hosts, ready for reuse.
+     */
+    private final ArrayDeque<ByteBuffer> free = new ArrayDeque<>();
+
+    /**
+     * This creates a store that keeps an hour of data at one sample per
+     * second.
+     */
+    public TimeSeriesStore() {
+        this(3600, 1);
+    }
+
+    /**
+     * This creates a time series store.
+     *
+     * @param retentionSeconds How long values are kept for, in seconds.
+     * @param intervalSeconds The expected interval between samples, this
+     * sets the amount of values that each series has room for.
+     */
+    public TimeSeriesStore(long retentionSeconds, long intervalSeconds) {
+        this.retention = retentionSeconds;
+        this.capacity = (int) Math.max(1, retentionSeconds / Math.max(1, intervalSeconds));
+        BitSet initial = new BitSet();
+        initial.set(0, MetricSymbolTable.FIXED_SLOT_COUNT);
+        tracked = initial;
+    }
+
+    /**
+     * This adds a metric to those whose values are kept.
+     *
+     * @param key The key of the metric
+     */
+    public synchronized void track(String key) {
+        BitSet updated = (BitSet) tracked.clone();
+        updated.set(MetricSymbolTable.getId(key));
+        tracked = updated;
+    }
+
+    /**
+     * This indicates if the values of a metric are kept.
+     *
+     * @param key The key of the metric
+     * @return If the metric's values are kept by the store
+     */
+    public boolean isTracked(String key) {
+        int id = MetricSymbolTable.lookup(key);
+        return id >= 0 && tracked.get(id);
+    }
+
+    /**
+     * This records the tracked metrics of a measurement, along with its cpu
+     * utilisation. Values whose clock is not newer than the last value held
+     * for their series are ignored, so a measurement may safely be added more
+     * than once.
+     *
+     * @param hostname The name of the host the measurement is for
+     * @param measurement The measurement to record
+     */
+    public void add(String hostname, Measurement measurement) {
+        if (hostname == null || measurement == null) {
+            return;
+        }
+        BitSet trackedIds = tracked;
+        HostSeries series = getHostSeries(hostname);
+        synchronized (series) {
+            if (series.removed) {
+                //The host was removed while this was waiting, so start it again
+                add(hostname, measurement);
+                return;
+            }
+            for (MetricValue metric : measurement.getItems()) {
+                int id = metric.getKeyId();
+                if (metric.isNumeric() && trackedIds.get(id)) {
+                    series.getRing(id).add(metric.getClock(), metric.getValue());
+                }
+            }
+            long clock = measurement.getCpuUtilisationTimeStamp();
+            if (clock != 0) {
+                try {
+                    series.getCpuRing().add(clock, measurement.getCpuUtilisation());
+                } catch (NumberFormatException ex) {
+                    //A textual cpu metric has no utilisation to record
+                }
+            }
+        }
+    }
+
+    /**
+     * This records a single value.
+     *
+     * @param hostname The name of the host the value is for
+     * @param key The key of the metric
+     * @param clock The time of the value in Unix time
+     * @param value The value of the metric
+     */
+    public void add(String hostname, String key, long clock, double value) {
+        HostSeries series = getHostSeries(hostname);
+        synchronized (series) {
+            if (series.removed) {
+                add(hostname, key, clock, value);
+                return;
+            }
+            series.getRing(MetricSymbolTable.getId(key)).add(clock, value);
+        }
+    }
+
+    /**
+     * This gets the average cpu utilisation of a host over a recent window of
+     * time.
+     *
+     * @param hostname The name of the host
+     * @param durationSeconds The length of the window, back from the present
+     * @return The average cpu utilisation in the range 0..1, or NaN if there
+     * are no values in the window.
+     */
+    public double getCpuUtilisation(String hostname, int durationSeconds) {
+        HostSeries series = hosts.get(hostname);
+        if (series == null) {
+            return Double.NaN;
+        }
+        synchronized (series) {
+            return series.cpu == null ? Double.NaN : series.cpu.average(getWindowStart(series.cpu, durationSeconds));
+        }
+    }
+
+    /**
+     * This gets the average value of a metric over a recent window of time.
+     *
+     * @param hostname The name of the host
+     * @param key The key of the metric
+     * @param durationSeconds The length of the window, back from the present
+     * @return The average value, or NaN if there are no values in the window.
+     */
+    public double getAverage(String hostname, String key, int durationSeconds) {
+        HostSeries series = hosts.get(hostname);
+        int id = MetricSymbolTable.lookup(key);
+        if (series == null || id < 0) {
+            return Double.NaN;
+        }
+        synchronized (series) {
+            Ring ring = series.findRing(id);
+            return ring == null ? Double.NaN : ring.average(getWindowStart(ring, durationSeconds));
+        }
+    }
+
+    /**
+     * This copies the values of a metric within a range of time into arrays
+     * provided by the caller, oldest first.
+     *
+     * @param hostname The name of the host
+     * @param key The key of the metric
+     * @param from The start of the range in Unix time
+     * @param to The end of the range in Unix time
+     * @param clocks The array to copy the clock values to
+     * @param values The array to copy the metric values to
+     * @return The amount of values copied, which is at most the length of the
+     * smaller array.
+     */
+    public int getValues(String hostname, String key, long from, long to, long[] clocks, double[] values) {
+        HostSeries series = hosts.get(hostname);
+        int id = MetricSymbolTable.lookup(key);
+        if (series == null || id < 0) {
+            return 0;
+        }
+        synchronized (series) {
+            Ring ring = series.findRing(id);
+            if (ring == null) {
+                return 0;
+            }
+            return ring.copy(Math.max(from, ring.lastClock - retention), to, clocks, values);
+        }
+    }
+
+    /**
+     * This removes all of the values held for a host. The space the values
+     * used is kept for reuse by the series of other hosts.
+     *
+     * @param hostname The name of the host
+     */
+    public void remove(String hostname) {
+        HostSeries series = hosts.remove(hostname);
+        if (series == null) {
+            return;
+        }
+        synchronized (series) {
+            series.removed = true;
+            for (Ring ring : series.rings) {
+                if (ring != null) {
+                    release(ring.buffer);
+                }
+            }
+            if (series.cpu != null) {
+                release(series.cpu.buffer);
+            }
+            //Readers that still hold the series find no values
+            series.rings = new Ring[0];
+            series.cpu = null;
+        }
+    }
+
+    /**
+     * This gives the start of a window that ends at the present, limited to
+     * the retention period of the store.
+     *
+     * @param ring The series the window is for
+     * @param durationSeconds The length of the window
+     * @return The start of the window in Unix time
+     */
+    private long getWindowStart(Ring ring, int durationSeconds) {
+        long now = TimeUnit.MILLISECONDS.toSeconds(System.currentTimeMillis());
+        return Math.max(now - durationSeconds, ring.lastClock - retention);
+    }
+
+    /**
+     * This gets the series of a host, creating it if needed.
+     *
+     * @param hostname The name of the host
+     * @return The series held for the host
+     */
+    private HostSeries getHostSeries(String hostname) {
+        HostSeries answer = hosts.get(hostname);
+        if (answer == null) {
+            answer = new HostSeries();
+            HostSeries existing = hosts.putIfAbsent(hostname, answer);
+            if (existing != null) {
+                answer = existing;
+            }
+        }
+        return answer;
+    }
+
+    /**
+     * This allocates the off heap space for a new ring.
+     *
+     * @return A buffer with room for a full ring of samples
+     */
+    private synchronized ByteBuffer allocate() {
+        ByteBuffer reused = free.pollFirst();
+        if (reused != null) {
+            return reused;
+        }
+        int size = capacity * SAMPLE_SIZE;
+        if (slab == null || slab.remaining() < size) {
+            slab = ByteBuffer.allocateDirect(Math.max(SLAB_SIZE, size));
+        }
+        ByteBuffer answer = slab.slice();
+        answer.limit(size);
+        slab.position(slab.position() + size);
+        return answer.slice();
+    }
+
+    /**
+     * This returns the storage of a ring to the free list.
+     *
+     * @param buffer The storage that is no longer in use
+     */
+    private synchronized void release(ByteBuffer buffer) {
+        free.addFirst(buffer);
+    }
+
+    /**
+     * This holds the series of a single host, indexed by metric id.
+     */
+    private class HostSeries {
+
+        private Ring[] rings = new Ring[MetricSymbolTable.FIXED_SLOT_COUNT];
+        private Ring cpu = null;
+        /**
+         * If the host has been removed and its rings released for reuse.
+         */
+        private boolean removed = false;
+
+        /**
+         * This gets the ring for a metric, creating it if needed.
+         *
+         * @param id The id of the metric's key
+         * @return The ring for the metric
+         */
+        private Ring getRing(int id) {
+            if (id >= rings.length) {
+                rings = Arrays.copyOf(rings, Math.max(id + 1, rings.length * 2));
+            }
+            if (rings[id] == null) {
+                rings[id] = new Ring(allocate());
+            }
+            return rings[id];
+        }
+
+        /**
+         * This gets the ring for a metric, if it exists.
+         *
+         * @param id The id of the metric's key
+         * @return The ring for the metric, or null.
+         */
+        private Ring findRing(int id) {
+            return id < rings.length ? rings[id] : null;
+        }
+
+        /**
+         * This gets the ring for the derived cpu utilisation, creating it if
+         * needed.
+         *
+         * @return The ring for the cpu utilisation
+         */
+        private Ring getCpuRing() {
+            if (cpu == null) {
+                cpu = new Ring(allocate());
+            }
+            return cpu;
+        }
+    }
+
+    /**
+     * This is a fixed size ring of (clock, value) samples, in clock order.
+     */
+    private class Ring {
+
+        private final ByteBuffer buffer;
+        /**
+         * The index the next sample is written to.
+         */
+        private int head = 0;
+        private int count = 0;
+        private long lastClock = Long.MIN_VALUE;
+
+        /**
+         * This creates a ring backed by off heap storage.
+         *
+         * @param buffer The storage for the ring
+         */
+        private Ring(ByteBuffer buffer) {
+            this.buffer = buffer;
+        }
+
+        /**
+         * This adds a sample, overwriting the oldest if the ring is full.
+         *
+         * @param clock The time of the sample in Unix time, samples that are
+         * not newer than the latest sample are ignored.
+         * @param value The value of the sample
+         */
+        private void add(long clock, double value) {
+            if (count > 0 && clock <= lastClock) {
+                return;
+            }
+            buffer.putLong(head * SAMPLE_SIZE, clock);
+            buffer.putDouble(head * SAMPLE_SIZE + 8, value);
+            head = (head + 1) % capacity;
+            if (count < capacity) {
+                count++;
+            }
+            lastClock = clock;
+        }
+
+        /**
+         * This gets the clock of a sample.
+         *
+         * @param age The age of the sample, 0 being the newest
+         * @return The clock of the sample
+         */
+        private long clockAt(int age) {
+            return buffer.getLong(indexOf(age) * SAMPLE_SIZE);
+        }
+
+        /**
+         * This gets the value of a sample.
+         *
+         * @param age The age of the sample, 0 being the newest
+         * @return The value of the sample
+         */
+        private double valueAt(int age) {
+            return buffer.getDouble(indexOf(age) * SAMPLE_SIZE + 8);
+        }
+
+        /**
+         * This converts the age of a sample into its index in the ring.
+         *
+         * @param age The age of the sample, 0 being the newest
+         * @return The index of the sample
+         */
+        private int indexOf(int age) {
+            return (head - 1 - age + capacity) % capacity;
+        }
+
+        /**
+         * This averages the samples from a given time up to the newest.
+         *
+         * @param from The start of the window in Unix time
+         * @return The average, or NaN if there are no samples in the window.
+         */
+        private double average(long from) {
+            double total = 0;
+            int samples = 0;
+            for (int age = 0; age < count && clockAt(age) >= from; age++) {
+                total = total + valueAt(age);
+                samples++;
+            }
+            return samples == 0 ? Double.NaN : total / samples;
+        }
+
+        /**
+         * This copies the samples in a range of time out, oldest first.
+         *
+         * @param from The start of the range in Unix time
+         * @param to The end of the range in Unix time
+         * @param clocks The array to copy the clock values to
+         * @param values The array to copy the values to
+         * @return The amount of samples copied
+         */
+        private int copy(long from, long to, long[] clocks, double[] values) {
+            int oldest = 0;
+            while (oldest < count && clockAt(oldest) >= from) {
+                oldest++;
+            }
+            int copied = 0;
+            int limit = Math.min(clocks.length, values.length);
+            for (int age = oldest - 1; age >= 0 && copied < limit; age--) {
+                long clock = clockAt(age);
+                if (clock <= to) {
+                    clocks[copied] = clock;
+                    values[copied] = valueAt(age);
+                    copied++;
+                }
+            }
+            return copied;
+        }
+    }
+
+}
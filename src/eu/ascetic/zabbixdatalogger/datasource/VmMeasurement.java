@@ -59,9 +59,20 @@ public class VmMeasurement extends Measurement {
      * @param vm The deployed Vm that this measurement is for
      */
     public void setVm(VmDeployed vm) {
+        checkNotSnapshot();
         this.vm = vm;
     }
 
+    @Override
+    public VmMeasurement snapshot() {
+        if (isSnapshot()) {
+            return this;
+        }
+        VmMeasurement answer = new VmMeasurement(vm);
+        shareWith(answer);
+        return answer;
+    }
+
     @Override
     public String toString() {
         return vm.toString() + " Time: " + getClock() + " Metric Count: " + getMetricCount() + " Clock Diff: " + getMaximumClockDifference();
@@ -443,13 +443,7 @@ public class ZabbixDirectDbDataSourceAdaptor extends MySqlDatabaseConnector impl
                             clock = (int) dataItem.get(1);
                             answer.setClock(clock);
                         }
-                        //itemid | clock | name | key_ | value   
-                        MetricValue value = new MetricValue(
-                                (String) dataItem.get(2),
-                                (String) dataItem.get(3),
-                                dataItem.get(4) + "",
-                                (Integer) dataItem.get(1));
-                        answer.addMetric(value);
+                        answer.addMetric(toMetricValue(dataItem));
                     }
                 }
             } catch (SQLException ex) {
@@ -459,6 +453,24 @@ public class ZabbixDirectDbDataSourceAdaptor extends MySqlDatabaseConnector impl
         return answer;
     }
 
+    /**
+     * This converts a row of the history query into a metric value. Numeric
+     * values are taken as they are, rather than been converted to and from a
+     * string.
+     *
+     * @param dataItem The row, in the form: itemid | clock | name | key_ | value
+     * @return The metric value the row represents
+     */
+    private MetricValue toMetricValue(ArrayList<Object> dataItem) {
+        Object value = dataItem.get(4);
+        if (value instanceof Number) {
+            return new MetricValue((String) dataItem.get(2), (String) dataItem.get(3),
+                    (Number) value, (Integer) dataItem.get(1));
+        }
+        return new MetricValue((String) dataItem.get(2), (String) dataItem.get(3),
+                value + "", (Integer) dataItem.get(1));
+    }
+
     @Override
     public List<HostMeasurement> getHostData() {
         List<HostMeasurement> answer = new ArrayList<>();
@@ -496,13 +508,7 @@ public class ZabbixDirectDbDataSourceAdaptor extends MySqlDatabaseConnector impl
                             clock = (int) dataItem.get(1);
                             answer.setClock(clock);
                         }
-                        //itemid | clock | name | key_ | value  
-                        MetricValue value = new MetricValue(
-                                (String) dataItem.get(2), //name
-                                (String) dataItem.get(3), //key
-                                dataItem.get(4) + "",//value
-                                (Integer) dataItem.get(1)); //clock
-                        answer.addMetric(value);
+                        answer.addMetric(toMetricValue(dataItem));
                     }
                 }
             } catch (SQLException ex) {
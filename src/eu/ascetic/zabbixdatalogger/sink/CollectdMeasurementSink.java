@@ -0,0 +1,105 @@
+/**
+ * Copyright 2018 University of Leeds
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package eu.ascetic.zabbixdatalogger.sink;
+
+import eu.ascetic.zabbixdatalogger.datasource.Measurement;
+import eu.ascetic.zabbixdatalogger.datasource.MeasurementDelta;
+import eu.ascetic.zabbixdatalogger.datasource.MetricValue;
+import java.io.IOException;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import org.jcollectd.agent.api.Identifier;
+import org.jcollectd.agent.api.Values;
+import org.jcollectd.agent.protocol.UdpSender;
+
+/**
+ * This sink re-emits measurements to a collectd server using the collectd
+ * UDP network protocol. Each numeric metric is sent as a gauge, whose type
+ * instance is the metric's key and whose host is the host or VM the metric
+ * was measured on. Metrics with textual values are not sent.
+ *
+ * @author Richard Kavanagh
+ */
+public class CollectdMeasurementSink extends QueuedMeasurementSink {
+
+    /**
+     * The plugin name that re-emitted values are reported under.
+     */
+    public static final String PLUGIN = "datalogger";
+    private final UdpSender sender = new UdpSender();
+
+    /**
+     * This creates a sink that sends measurements on to collectd.
+     *
+     * @param server The server to send to, in the form host:port, the port
+     * defaults to collectd's standard port if omitted.
+     * @param capacity The maximum amount of measurements that may be queued
+     * @param maxBatchSize The maximum amount of measurements per flush
+     */
+    public CollectdMeasurementSink(String server, int capacity, int maxBatchSize) {
+        super("collectd-sink", capacity, maxBatchSize);
+        sender.addServer(server);
+    }
+
+    @Override
+    protected void write(List<Measurement> measurements) {
+        for (Measurement measurement : measurements) {
+            String source = getSourceName(measurement);
+            if (source == null) {
+                continue;
+            }
+            MeasurementDelta changes = getChanges(source, measurement);
+            if (changes == null) {
+                for (MetricValue metric : measurement.getItems()) {
+                    send(source, metric);
+                }
+            } else {
+                for (int i = 0; i < changes.getChangedCount(); i++) {
+                    send(source, changes.getChanged(i));
+                }
+            }
+        }
+        try {
+            sender.flush();
+        } catch (IOException ex) {
+            Logger.getLogger(CollectdMeasurementSink.class.getName()).log(Level.SEVERE, "Sending data to collectd failed", ex);
+        }
+    }
+
+    /**
+     * This queues a single metric to be sent, textual metrics are skipped.
+     *
+     * @param source The host or VM the metric was measured on
+     * @param metric The metric to send
+     */
+    private void send(String source, MetricValue metric) {
+        if (!metric.isNumeric()) {
+            return;
+        }
+        Identifier identifier = Identifier.Builder.builder()
+                .time(TimeUnit.SECONDS.toMillis(metric.getClock()))
+                .host(source)
+                .plugin(PLUGIN)
+                .type("gauge")
+                .typeInstance(metric.getKey())
+                .build();
+        sender.dispatch(new Values(identifier, Collections.<Number>singletonList(metric.getValue())));
+    }
+
+}
@@ -0,0 +1,63 @@
+/**
+ * Copyright 2018 University of Leeds
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package eu.ascetic.zabbixdatalogger.sink;
+
+import eu.ascetic.ioutils.GenericLogger;
+import eu.ascetic.zabbixdatalogger.datasource.Measurement;
+
+/**
+ * This sink writes measurements out to file, via a logger such as the
+ * MeasurementLogger. The logger already writes from its own queue, so
+ * measurements are passed straight on to it.
+ *
+ * @author Richard Kavanagh
+ */
+public class FileMeasurementSink implements MeasurementSink {
+
+    private final GenericLogger<Measurement> logger;
+
+    /**
+     * This creates a sink that writes to file via a logger. The logger
+     * should already have been started.
+     *
+     * @param logger The logger to write measurements out with
+     */
+    public FileMeasurementSink(GenericLogger<Measurement> logger) {
+        this.logger = logger;
+    }
+
+    @Override
+    public void accept(Measurement measurement) {
+        if (measurement != null) {
+            logger.printToFile(measurement);
+        }
+    }
+
+    @Override
+    public void close() {
+        logger.stop();
+    }
+
+    /**
+     * This gets the logger that this sink writes to.
+     *
+     * @return The logger used by this sink
+     */
+    public GenericLogger<Measurement> getLogger() {
+        return logger;
+    }
+
+}
@@ -0,0 +1,114 @@
+/**
+ * Copyright 2018 University of Leeds
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package eu.ascetic.zabbixdatalogger.sink;
+
+import eu.ascetic.zabbixdatalogger.datasource.Measurement;
+import eu.ascetic.zabbixdatalogger.datasource.MeasurementDelta;
+import eu.ascetic.zabbixdatalogger.datasource.MetricValue;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import org.influxdb.InfluxDB;
+import org.influxdb.InfluxDBFactory;
+import org.influxdb.dto.BatchPoints;
+import org.influxdb.dto.Point;
+
+/**
+ * This sink writes measurements to an InfluxDB database. Each queued batch
+ * of measurements is sent in a single line protocol write. Every metric
+ * becomes a point in a series named after the metric's key, tagged with the
+ * host or VM it was measured on.
+ *
+ * @author Richard Kavanagh
+ */
+public class InfluxDbMeasurementSink extends QueuedMeasurementSink {
+
+    private final InfluxDB influxDB;
+    private final String dbName;
+
+    /**
+     * This creates a sink that writes to an InfluxDB database.
+     *
+     * @param hostname The url of the database, e.g. http://localhost:8086
+     * @param user The user to connect as
+     * @param password The password of the user
+     * @param dbName The name of the database to write to
+     * @param capacity The maximum amount of measurements that may be queued
+     * @param maxBatchSize The maximum amount of measurements per write
+     */
+    public InfluxDbMeasurementSink(String hostname, String user, String password, String dbName, int capacity, int maxBatchSize) {
+        super("influxdb-sink", capacity, maxBatchSize);
+        this.influxDB = InfluxDBFactory.connect(hostname, user, password);
+        this.dbName = dbName;
+    }
+
+    @Override
+    protected void write(List<Measurement> measurements) {
+        BatchPoints batch = BatchPoints.database(dbName).build();
+        for (Measurement measurement : measurements) {
+            String source = getSourceName(measurement);
+            MeasurementDelta changes = getChanges(source, measurement);
+            if (changes == null) {
+                for (MetricValue metric : measurement.getItems()) {
+                    add(batch, source, metric);
+                }
+            } else {
+                for (int i = 0; i < changes.getChangedCount(); i++) {
+                    add(batch, source, changes.getChanged(i));
+                }
+            }
+        }
+        if (batch.getPoints().isEmpty()) {
+            return;
+        }
+        try {
+            influxDB.write(batch);
+        } catch (RuntimeException ex) {
+            Logger.getLogger(InfluxDbMeasurementSink.class.getName()).log(Level.SEVERE, "The write to InfluxDB failed", ex);
+        }
+    }
+
+    /**
+     * This adds a single metric to a batch as a point.
+     *
+     * @param batch The batch to add the point to
+     * @param source The host or VM the metric was measured on, may be null
+     * @param metric The metric to add
+     */
+    private void add(BatchPoints batch, String source, MetricValue metric) {
+        if (!metric.isNumeric() && metric.getValueAsString() == null) {
+            return;
+        }
+        Point.Builder point = Point.measurement(metric.getKey())
+                .time(metric.getClock(), TimeUnit.SECONDS);
+        if (source != null) {
+            point.tag("host", source);
+        }
+        if (metric.isNumeric()) {
+            point.addField("value", metric.getValue());
+        } else {
+            point.addField("value", metric.getValueAsString());
+        }
+        batch.point(point.build());
+    }
+
+    @Override
+    protected void closeConnection() {
+        influxDB.close();
+    }
+
+}
@@ -0,0 +1,90 @@
+/**
+ * Copyright 2018 University of Leeds
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package eu.ascetic.zabbixdatalogger.sink;
+
+import eu.ascetic.zabbixdatalogger.datasource.Measurement;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * This fans measurements out to several sinks. Each sink is expected to
+ * queue the measurements it is given, so that a slow sink does not hold up
+ * the others.
+ *
+ * @author Richard Kavanagh
+ */
+public class MeasurementPipeline implements MeasurementSink {
+
+    private final List<MeasurementSink> sinks = new CopyOnWriteArrayList<>();
+
+    /**
+     * This creates an empty pipeline.
+     */
+    public MeasurementPipeline() {
+    }
+
+    /**
+     * This adds a sink to the pipeline.
+     *
+     * @param sink The sink to add
+     */
+    public void addSink(MeasurementSink sink) {
+        sinks.add(sink);
+    }
+
+    /**
+     * This removes a sink from the pipeline, the sink is not closed.
+     *
+     * @param sink The sink to remove
+     */
+    public void removeSink(MeasurementSink sink) {
+        sinks.remove(sink);
+    }
+
+    /**
+     * This lists the sinks in the pipeline.
+     *
+     * @return The sinks measurements are passed to.
+     */
+    public List<MeasurementSink> getSinks() {
+        return sinks;
+    }
+
+    @Override
+    public void accept(Measurement measurement) {
+        if (measurement == null) {
+            return;
+        }
+        for (MeasurementSink sink : sinks) {
+            try {
+                sink.accept(measurement);
+            } catch (RuntimeException ex) {
+                //One failing sink should not stop the others from receiving data
+                Logger.getLogger(MeasurementPipeline.class.getName()).log(Level.SEVERE, "A sink failed to accept a measurement", ex);
+            }
+        }
+    }
+
+    @Override
+    public void close() {
+        for (MeasurementSink sink : sinks) {
+            sink.close();
+        }
+    }
+
+}
@@ -0,0 +1,43 @@
+/**
+ * Copyright 2018 University of Leeds
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package eu.ascetic.zabbixdatalogger.sink;
+
+import eu.ascetic.zabbixdatalogger.datasource.Measurement;
+
+/**
+ * This is a destination that measurements are pushed into, such as a file,
+ * a time series database or another monitoring agent. Implementations must
+ * return quickly from accept, so that the poll loop that is producing the
+ * measurements is never held up by a slow destination.
+ *
+ * @author Richard Kavanagh
+ */
+public interface MeasurementSink {
+
+    /**
+     * This passes a measurement to the sink.
+     *
+     * @param measurement The measurement to record
+     */
+    public void accept(Measurement measurement);
+
+    /**
+     * This stops the sink, once any measurements that have already been
+     * accepted have been written out.
+     */
+    public void close();
+
+}
@@ -0,0 +1,222 @@
+/**
+ * Copyright 2018 University of Leeds
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package eu.ascetic.zabbixdatalogger.sink;
+
+import eu.ascetic.zabbixdatalogger.datasource.HostMeasurement;
+import eu.ascetic.zabbixdatalogger.datasource.Measurement;
+import eu.ascetic.zabbixdatalogger.datasource.MeasurementDelta;
+import eu.ascetic.zabbixdatalogger.datasource.VmMeasurement;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.LinkedBlockingDeque;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * This is the base of sinks that write out measurements on their own thread.
+ * Each sink has its own bounded queue, so a slow sink cannot hold up either
+ * the poll loop or any other sink. If the queue is full the oldest queued
+ * measurement is discarded to make room for the newest.
+ *
+ * The writer thread is started by start, once the sink has been fully
+ * constructed, so that write never sees a subclass's fields before they are
+ * set. Measurements accepted before then are queued.
+ *
+ * @author Richard Kavanagh
+ */
+public abstract class QueuedMeasurementSink implements MeasurementSink, Runnable {
+
+    private final LinkedBlockingDeque<Measurement> queue;
+    private final int maxBatchSize;
+    private final AtomicLong dropped = new AtomicLong();
+    private final Thread thread;
+    private boolean started = false;
+    private volatile boolean stop = false;
+    private volatile boolean changesOnly = false;
+    private final MeasurementDelta delta = new MeasurementDelta();
+
+    /**
+     * This creates a queued sink, its writer thread is not started until
+     * start is called.
+     *
+     * @param name The name of the sink, used to name its thread
+     * @param capacity The maximum amount of measurements that may be queued
+     * @param maxBatchSize The maximum amount of measurements passed to a
+     * single call of write.
+     */
+    public QueuedMeasurementSink(String name, int capacity, int maxBatchSize) {
+        queue = new LinkedBlockingDeque<>(capacity);
+        this.maxBatchSize = Math.max(1, maxBatchSize);
+        thread = new Thread(this, name);
+        thread.setDaemon(true);
+    }
+
+    /**
+     * This starts the sink's writer thread, calling it again has no effect.
+     */
+    public synchronized void start() {
+        if (started || stop) {
+            return;
+        }
+        started = true;
+        thread.start();
+    }
+
+    @Override
+    public void accept(Measurement measurement) {
+        if (measurement == null || stop) {
+            return;
+        }
+        while (!queue.offerLast(measurement)) {
+            if (queue.pollFirst() != null) {
+                dropped.incrementAndGet();
+            }
+        }
+    }
+
+    @Override
+    public void run() {
+        List<Measurement> batch = new ArrayList<>();
+        while (!stop || !queue.isEmpty()) {
+            try {
+                Measurement first = queue.poll(1, TimeUnit.SECONDS);
+                if (first == null) {
+                    continue;
+                }
+                batch.add(first);
+                queue.drainTo(batch, maxBatchSize - 1);
+                write(batch);
+            } catch (InterruptedException ex) {
+                Logger.getLogger(QueuedMeasurementSink.class.getName()).log(Level.SEVERE, null, ex);
+            } catch (RuntimeException ex) {
+                //A failing sink should not stop it from trying again later
+                Logger.getLogger(QueuedMeasurementSink.class.getName()).log(Level.SEVERE, "The sink " + thread.getName() + " failed to write out its data", ex);
+            }
+            batch.clear();
+        }
+        closeConnection();
+    }
+
+    /**
+     * This writes out a batch of measurements to the sink's destination.
+     *
+     * @param measurements The measurements to write out
+     */
+    protected abstract void write(List<Measurement> measurements);
+
+    /**
+     * This releases any resources held by the sink. It is called on the
+     * sink's thread once the queue has been drained after a call to close.
+     */
+    protected void closeConnection() {
+    }
+
+    @Override
+    public void close() {
+        boolean running;
+        synchronized (this) {
+            stop = true;
+            running = started;
+        }
+        if (!running) {
+            //There is no writer thread, so the queue is drained on this one
+            run();
+            return;
+        }
+        try {
+            thread.join(TimeUnit.MINUTES.toMillis(1));
+        } catch (InterruptedException ex) {
+            Logger.getLogger(QueuedMeasurementSink.class.getName()).log(Level.SEVERE, null, ex);
+        }
+    }
+
+    /**
+     * This gives the name of the host or VM that a measurement was taken from.
+     *
+     * @param measurement The measurement
+     * @return The name of the host or VM, or null if it is not known.
+     */
+    protected static String getSourceName(Measurement measurement) {
+        if (measurement instanceof HostMeasurement && ((HostMeasurement) measurement).getHost() != null) {
+            return ((HostMeasurement) measurement).getHost().getHostName();
+        }
+        if (measurement instanceof VmMeasurement && ((VmMeasurement) measurement).getVm() != null) {
+            return ((VmMeasurement) measurement).getVm().getName();
+        }
+        return null;
+    }
+
+    /**
+     * This sets if only the metrics that have changed since the previous
+     * measurement of the same host or VM should be written out.
+     *
+     * @param changesOnly If unchanged metrics should be skipped
+     */
+    public void setChangesOnly(boolean changesOnly) {
+        this.changesOnly = changesOnly;
+    }
+
+    /**
+     * This indicates if only the metrics that have changed since the previous
+     * measurement of the same host or VM are written out.
+     *
+     * @return If unchanged metrics are skipped
+     */
+    public boolean isChangesOnly() {
+        return changesOnly;
+    }
+
+    /**
+     * This works out which metrics of a measurement should be written out.
+     * If the sink writes changes only these are the metrics that changed
+     * since the previous measurement of the same source, otherwise it is
+     * every metric. This should only be called from within write.
+     *
+     * @param source The name of the host or VM the measurement is from
+     * @param measurement The measurement to be written
+     * @return The delta holding the metrics to write, or null if every metric
+     * of the measurement should be written.
+     */
+    protected MeasurementDelta getChanges(String source, Measurement measurement) {
+        if (!changesOnly || source == null) {
+            return null;
+        }
+        delta.compare(source, measurement);
+        return delta;
+    }
+
+    /**
+     * This gives the amount of measurements that are waiting to be written.
+     *
+     * @return The amount of queued measurements
+     */
+    public int getQueueSize() {
+        return queue.size();
+    }
+
+    /**
+     * This gives the amount of measurements that were discarded because the
+     * queue was full.
+     *
+     * @return The amount of dropped measurements
+     */
+    public long getDroppedCount() {
+        return dropped.get();
+    }
+
+}
@@ -0,0 +1,345 @@
+/**
+ * Copyright 2018 University of Leeds
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package eu.ascetic.zabbixdatalogger.sink;
+
+import eu.ascetic.ioutils.ResultsStore;
+import eu.ascetic.ioutils.RowBuffer;
+import eu.ascetic.zabbixdatalogger.datasource.Measurement;
+import eu.ascetic.zabbixdatalogger.datasource.MetricSymbolTable;
+import eu.ascetic.zabbixdatalogger.datasource.MetricValue;
+import java.io.File;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * This sink keeps rolling aggregates of every numeric metric of every host,
+ * at several resolutions such as one minute, five minutes and one hour. As
+ * each period ends the count, minimum, maximum and average of each metric in
+ * the period are written out to a file per resolution, so that reports that
+ * cover long periods of time do not need to read the raw data.
+ *
+ * Only the aggregate of the current period is held for each host, metric and
+ * resolution, so the memory used does not grow with time. Values whose clock
+ * is not newer than the last value counted for their metric are skipped, so
+ * a measurement that is seen again by a later poll does not skew the
+ * aggregates. A period is written out once the newest clock seen passes its
+ * end, even if its metric is never reported again.
+ *
+ * Each row of an output file holds the start of the period in Unix time, the
+ * host, the metric's key, the count, minimum, maximum and average value.
+ *
+ * @author Richard Kavanagh
+ */
+public class RollupMeasurementSink extends QueuedMeasurementSink {
+
+    /**
+     * The default resolutions of one minute, five minutes and one hour.
+     */
+    public static final int[] DEFAULT_RESOLUTIONS = {60, 300, 3600};
+    private static final String DELIMETER = "\t";
+    private final Resolution[] resolutions;
+
+    /**
+     * This creates a sink that writes rollups at the default resolutions.
+     *
+     * @param directory The directory to write the rollup files to
+     * @param capacity The maximum amount of measurements that may be queued
+     * @param maxBatchSize The maximum amount of measurements per write
+     */
+    public RollupMeasurementSink(File directory, int capacity, int maxBatchSize) {
+        this(directory, DEFAULT_RESOLUTIONS, capacity, maxBatchSize);
+    }
+
+    /**
+     * This creates a sink that writes rollups at the given resolutions.
+     *
+     * @param directory The directory to write the rollup files to
+     * @param resolutions The length of each resolution's period in seconds
+     * @param capacity The maximum amount of measurements that may be queued
+     * @param maxBatchSize The maximum amount of measurements per write
+     */
+    public RollupMeasurementSink(File directory, int[] resolutions, int capacity, int maxBatchSize) {
+        super("rollup-sink", capacity, maxBatchSize);
+        this.resolutions = new Resolution[resolutions.length];
+        for (int i = 0; i < resolutions.length; i++) {
+            this.resolutions[i] = new Resolution(directory, resolutions[i]);
+        }
+    }
+
+    /**
+     * This gives the name of the file that rollups at a given resolution are
+     * written to.
+     *
+     * @param seconds The length of the resolution's period in seconds
+     * @return The file name, such as rollup-1m.txt
+     */
+    public static String getFilename(int seconds) {
+        String label;
+        if (seconds % 3600 == 0) {
+            label = (seconds / 3600) + "h";
+        } else if (seconds % 60 == 0) {
+            label = (seconds / 60) + "m";
+        } else {
+            label = seconds + "s";
+        }
+        return "rollup-" + label + ".txt";
+    }
+
+    @Override
+    protected void write(List<Measurement> measurements) {
+        for (Measurement measurement : measurements) {
+            String source = getSourceName(measurement);
+            if (source == null) {
+                continue;
+            }
+            for (MetricValue metric : measurement.getItems()) {
+                if (!metric.isNumeric()) {
+                    continue;
+                }
+                for (Resolution resolution : resolutions) {
+                    resolution.add(source, metric);
+                }
+            }
+        }
+        for (Resolution resolution : resolutions) {
+            resolution.flushEnded();
+            resolution.save();
+        }
+    }
+
+    /**
+     * This writes out the aggregates of the periods that are still open, so
+     * nothing is lost when the sink is closed. These rows may cover only part
+     * of their period.
+     */
+    @Override
+    protected void closeConnection() {
+        for (Resolution resolution : resolutions) {
+            resolution.flushAll();
+            resolution.save();
+        }
+    }
+
+    /**
+     * This holds the open aggregates and output file of a single resolution.
+     */
+    private class Resolution {
+
+        private final int seconds;
+        private final ResultsStore store;
+        private final HashMap<String, Aggregates> hosts = new HashMap<>();
+        /**
+         * The newest clock of any value added at this resolution.
+         */
+        private long newest = Long.MIN_VALUE;
+
+        /**
+         * This creates a resolution.
+         *
+         * @param directory The directory to write the rollup file to
+         * @param seconds The length of the resolution's period in seconds
+         */
+        private Resolution(File directory, int seconds) {
+            this.seconds = seconds;
+            store = new ResultsStore(new File(directory, getFilename(seconds)));
+            store.setDelimeter(DELIMETER);
+            File file = store.getResultsFile();
+            if (!file.exists() || file.length() == 0) {
+                store.getRowBuffer().add("Start").add("Host").add("Metric")
+                        .add("Count").add("Min").add("Max").add("Average").endRow();
+            }
+        }
+
+        /**
+         * This adds a value to the aggregate of its period, writing out the
+         * previous period's aggregate if the value starts a new period.
+         *
+         * @param source The host or VM the value is for
+         * @param metric The metric that holds the value
+         */
+        private void add(String source, MetricValue metric) {
+            Aggregates aggregates = hosts.get(source);
+            if (aggregates == null) {
+                aggregates = new Aggregates();
+                hosts.put(source, aggregates);
+            }
+            long clock = metric.getClock();
+            newest = Math.max(newest, clock);
+            long start = clock - Math.floorMod(clock, (long) seconds);
+            int slot = aggregates.getSlot(metric.getKeyId());
+            if (aggregates.seen[slot] && clock <= aggregates.last[slot]) {
+                return; //This value has already been counted, or is out of order
+            }
+            aggregates.seen[slot] = true;
+            aggregates.last[slot] = clock;
+            if (aggregates.count[slot] > 0 && start > aggregates.start[slot]) {
+                flush(source, slot, aggregates);
+            }
+            double value = metric.getValue();
+            if (aggregates.count[slot] == 0) {
+                aggregates.start[slot] = start;
+                aggregates.min[slot] = value;
+                aggregates.max[slot] = value;
+                aggregates.sum[slot] = value;
+            } else {
+                aggregates.min[slot] = Math.min(aggregates.min[slot], value);
+                aggregates.max[slot] = Math.max(aggregates.max[slot], value);
+                aggregates.sum[slot] = aggregates.sum[slot] + value;
+            }
+            aggregates.count[slot]++;
+        }
+
+        /**
+         * This writes the aggregate of a metric into the row buffer and
+         * resets it.
+         *
+         * @param source The host or VM the aggregate is for
+         * @param slot The slot of the metric in the host's aggregates
+         * @param aggregates The aggregates of the host
+         */
+        private void flush(String source, int slot, Aggregates aggregates) {
+            RowBuffer row = store.getRowBuffer();
+            row.add(aggregates.start[slot])
+                    .add(source)
+                    .add(MetricSymbolTable.getName(aggregates.ids[slot]))
+                    .add(aggregates.count[slot])
+                    .add(Double.toString(aggregates.min[slot]))
+                    .add(Double.toString(aggregates.max[slot]))
+                    .add(Double.toString(aggregates.sum[slot] / aggregates.count[slot]))
+                    .endRow();
+            aggregates.count[slot] = 0;
+        }
+
+        /**
+         * This writes out every open aggregate whose period ended before the
+         * newest clock seen, so that metrics a host stops reporting still
+         * have their last period written.
+         */
+        private void flushEnded() {
+            for (Map.Entry<String, Aggregates> host : hosts.entrySet()) {
+                Aggregates aggregates = host.getValue();
+                for (int slot = 0; slot < aggregates.size; slot++) {
+                    if (aggregates.count[slot] > 0
+                            && aggregates.start[slot] + seconds <= newest) {
+                        flush(host.getKey(), slot, aggregates);
+                    }
+                }
+            }
+        }
+
+        /**
+         * This writes out every open aggregate.
+         */
+        private void flushAll() {
+            for (Map.Entry<String, Aggregates> host : hosts.entrySet()) {
+                Aggregates aggregates = host.getValue();
+                for (int slot = 0; slot < aggregates.size; slot++) {
+                    if (aggregates.count[slot] > 0) {
+                        flush(host.getKey(), slot, aggregates);
+                    }
+                }
+            }
+        }
+
+        /**
+         * This appends any rows held in the row buffer to the rollup file.
+         */
+        private void save() {
+            if (!store.getRowBuffer().isEmpty()) {
+                store.saveMemoryConservative();
+            }
+        }
+    }
+
+    /**
+     * This holds the open aggregate of each metric of a host. Each metric the
+     * host has reported is given a slot of its own, so the aggregate arrays
+     * are sized by the metrics of the host rather than by every metric key
+     * ever seen. Only the small index from key id to slot is sized by the
+     * key ids.
+     */
+    private static class Aggregates {
+
+        /**
+         * The slot of each metric, indexed by the id of the metric's key, -1
+         * marks a metric that has no slot.
+         */
+        private int[] slots = new int[0];
+        /**
+         * The amount of slots in use.
+         */
+        private int size = 0;
+        /**
+         * The id of the metric's key held in each slot.
+         */
+        private int[] ids = new int[0];
+        private long[] start = new long[0];
+        /**
+         * The clock of the last value counted for each metric.
+         */
+        private long[] last = new long[0];
+        private boolean[] seen = new boolean[0];
+        private int[] count = new int[0];
+        private double[] min = new double[0];
+        private double[] max = new double[0];
+        private double[] sum = new double[0];
+
+        /**
+         * This gets the slot of a metric, giving it a new slot if it has not
+         * been seen for this host before.
+         *
+         * @param id The id of the metric's key
+         * @return The metric's slot
+         */
+        private int getSlot(int id) {
+            if (id < slots.length && slots[id] != -1) {
+                return slots[id];
+            }
+            if (id >= slots.length) {
+                int length = slots.length;
+                slots = Arrays.copyOf(slots, Math.max(id + 1, length * 2));
+                Arrays.fill(slots, length, slots.length, -1);
+            }
+            ensureCapacity(size + 1);
+            ids[size] = id;
+            slots[id] = size;
+            size++;
+            return size - 1;
+        }
+
+        /**
+         * This makes sure there is room for a given amount of slots.
+         *
+         * @param capacity The amount of slots to hold aggregates for
+         */
+        private void ensureCapacity(int capacity) {
+            if (count.length < capacity) {
+                int length = Math.max(capacity, Math.max(8, count.length * 2));
+                ids = Arrays.copyOf(ids, length);
+                start = Arrays.copyOf(start, length);
+                last = Arrays.copyOf(last, length);
+                seen = Arrays.copyOf(seen, length);
+                count = Arrays.copyOf(count, length);
+                min = Arrays.copyOf(min, length);
+                max = Arrays.copyOf(max, length);
+                sum = Arrays.copyOf(sum, length);
+            }
+        }
+    }
+
+}
@@ -0,0 +1,184 @@
+/**
+ * Copyright 2018 University of Leeds
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package eu.ascetic.ioutils;
+
+import eu.ascetic.ioutils.GenericLogger.OverflowPolicy;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * This tests what happens to items that are printed to file when the queue
+ * of a logger is full, under each of the overflow policies.
+ *
+ * @author Richard Kavanagh
+ */
+public class GenericLoggerTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+    private ScheduledExecutorService pool;
+
+    /**
+     * A logger that writes out each item as a row of its own.
+     */
+    private static class StringLogger extends GenericLogger<String> {
+
+        public StringLogger(File file) {
+            super(file, true);
+        }
+
+        @Override
+        public void writeHeader(ResultsStore store) {
+            store.add("Item");
+        }
+
+        @Override
+        public void writebody(String item, ResultsStore store) {
+            store.add(item);
+        }
+    }
+
+    @Before
+    public void setUp() {
+        pool = Executors.newScheduledThreadPool(1);
+    }
+
+    @After
+    public void tearDown() {
+        pool.shutdownNow();
+    }
+
+    /**
+     * This creates a logger whose queue holds two items. The logger is not
+     * started, so nothing is taken off its queue.
+     *
+     * @param policy The overflow policy of the logger
+     * @return The logger
+     * @throws IOException If the log file can not be created
+     */
+    private StringLogger createLogger(OverflowPolicy policy) throws IOException {
+        StringLogger logger = new StringLogger(new File(folder.getRoot(), "log.txt"));
+        logger.setQueueCapacity(2);
+        logger.setOverflowPolicy(policy);
+        return logger;
+    }
+
+    /**
+     * This starts a logger, then stops it and waits for it to write out its
+     * queue.
+     *
+     * @param logger The logger to finish
+     * @throws InterruptedException If interrupted while waiting
+     */
+    private void finish(StringLogger logger) throws InterruptedException {
+        logger.start(pool);
+        logger.stop();
+        long deadline = System.currentTimeMillis() + 10000;
+        while (!logger.isFinished() && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        assertTrue(logger.isFinished());
+    }
+
+    /**
+     * This reads the items written to a file, skipping the header row.
+     *
+     * @param name The name of the file in the test folder
+     * @return The items in the file
+     * @throws IOException If the file can not be read
+     */
+    private List<String> read(String name) throws IOException {
+        List<String> lines = Files.readAllLines(new File(folder.getRoot(), name).toPath(), StandardCharsets.UTF_8);
+        return lines.subList(1, lines.size());
+    }
+
+    @Test
+    public void testBlock() throws Exception {
+        final StringLogger logger = createLogger(OverflowPolicy.BLOCK);
+        logger.printToFile("a");
+        logger.printToFile("b");
+        Thread caller = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                logger.printToFile("c");
+            }
+        });
+        caller.start();
+        caller.join(200);
+        assertTrue("The caller should wait for space in the queue", caller.isAlive());
+        finish(logger);
+        caller.join(10000);
+        assertFalse(caller.isAlive());
+        assertEquals(3, logger.getAcceptedCount());
+        assertEquals(0, logger.getDroppedCount());
+        assertEquals(Arrays.asList("a", "b", "c"), read("log.txt"));
+    }
+
+    @Test
+    public void testDropOldest() throws Exception {
+        StringLogger logger = createLogger(OverflowPolicy.DROP_OLDEST);
+        logger.printToFile("a");
+        logger.printToFile("b");
+        logger.printToFile("c");
+        assertEquals(3, logger.getAcceptedCount());
+        assertEquals(1, logger.getDroppedCount());
+        finish(logger);
+        assertEquals(Arrays.asList("b", "c"), read("log.txt"));
+    }
+
+    @Test
+    public void testDropNewest() throws Exception {
+        StringLogger logger = createLogger(OverflowPolicy.DROP_NEWEST);
+        logger.printToFile("a");
+        logger.printToFile("b");
+        logger.printToFile("c");
+        assertEquals(2, logger.getAcceptedCount());
+        assertEquals(1, logger.getDroppedCount());
+        finish(logger);
+        assertEquals(Arrays.asList("a", "b"), read("log.txt"));
+    }
+
+    @Test
+    public void testSpill() throws Exception {
+        StringLogger logger = createLogger(OverflowPolicy.SPILL);
+        logger.printToFile("a");
+        logger.printToFile("b");
+        logger.printToFile("c");
+        assertEquals(2, logger.getAcceptedCount());
+        assertEquals(0, logger.getDroppedCount());
+        assertEquals(1, logger.getSpilledCount());
+        //The spilled item is written straight away by the caller
+        assertEquals(Arrays.asList("c"), read("log.txt.overflow"));
+        finish(logger);
+        assertEquals(Arrays.asList("a", "b"), read("log.txt"));
+    }
+
+}
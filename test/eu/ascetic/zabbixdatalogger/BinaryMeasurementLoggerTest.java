@@ -0,0 +1,229 @@
+/**
+ * Copyright 2018 University of Leeds
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package eu.ascetic.zabbixdatalogger;
+
+import eu.ascetic.zabbixdatalogger.datasource.HostMeasurement;
+import eu.ascetic.zabbixdatalogger.datasource.MetricValue;
+import eu.ascetic.zabbixdatalogger.datasource.types.Host;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * This tests the writing, reading back and appending of binary measurement
+ * files, including the recovery of files that were not written out fully.
+ *
+ * @author Richard Kavanagh
+ */
+public class BinaryMeasurementLoggerTest {
+
+    private static final Host HOST = new Host(1, "host1");
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    /**
+     * This writes a measurement for each clock given out to a file, using a
+     * logger that is started and then stopped.
+     *
+     * @param file The file to write to
+     * @param clocks The clock of each measurement to write
+     * @throws InterruptedException If interrupted while waiting for the
+     * logger to finish
+     */
+    private static void write(File file, long... clocks) throws InterruptedException {
+        ScheduledExecutorService pool = Executors.newScheduledThreadPool(1);
+        BinaryMeasurementLogger logger = new BinaryMeasurementLogger(file, false);
+        logger.start(pool);
+        for (long clock : clocks) {
+            logger.printToFile(createMeasurement(clock));
+        }
+        logger.stop();
+        pool.shutdown();
+        assertTrue(pool.awaitTermination(10, TimeUnit.SECONDS));
+        assertTrue(logger.isFinished());
+    }
+
+    /**
+     * This creates a measurement that holds each kind of value.
+     *
+     * @param clock The clock of the measurement
+     * @return The measurement
+     */
+    private static HostMeasurement createMeasurement(long clock) {
+        HostMeasurement answer = new HostMeasurement(HOST, clock);
+        answer.addMetric(new MetricValue("Power usage", "power", "42", clock));
+        answer.addMetric(new MetricValue("whole", "whole", 42L, clock));
+        answer.addMetric(new MetricValue("double", "double", 1.5, clock));
+        answer.addMetric(new MetricValue("padded", "padded", "4.20", clock));
+        answer.addMetric(new MetricValue("text", "text", "abc", clock));
+        answer.addMetric(new MetricValue("negative", "negative", -7L, clock - 1));
+        return answer;
+    }
+
+    /**
+     * This reads every measurement held in a file.
+     *
+     * @param file The file to read
+     * @return The measurements in the file
+     * @throws IOException If the file can not be read
+     */
+    private static List<HostMeasurement> read(File file) throws IOException {
+        List<HostMeasurement> answer = new ArrayList<>();
+        try (BinaryMeasurementReader reader = new BinaryMeasurementReader(file, HOST)) {
+            while (reader.hasNext()) {
+                answer.add(reader.next());
+            }
+            assertFalse(reader.isCorrupt());
+        }
+        return answer;
+    }
+
+    /**
+     * This checks that a measurement read back matches the one written out.
+     *
+     * @param clock The clock the measurement was written with
+     * @param measurement The measurement read back
+     */
+    private static void assertMeasurement(long clock, HostMeasurement measurement) {
+        HostMeasurement expected = createMeasurement(clock);
+        assertEquals(clock, measurement.getClock());
+        assertEquals(expected.getMetricCount(), measurement.getMetricCount());
+        for (MetricValue value : expected.getItems()) {
+            MetricValue actual = measurement.getMetric(value.getKey());
+            assertNotNull(value.getKey(), actual);
+            assertEquals(value.getName(), actual.getName());
+            assertEquals(value.getValueAsString(), actual.getValueAsString());
+            assertEquals(value.isNumeric(), actual.isNumeric());
+            assertEquals(value.getClock(), actual.getClock());
+        }
+    }
+
+    @Test
+    public void testRoundTrip() throws Exception {
+        File file = folder.newFile("round-trip.bin");
+        write(file, 100, 101, 99);
+        List<HostMeasurement> measurements = read(file);
+        assertEquals(3, measurements.size());
+        assertMeasurement(100, measurements.get(0));
+        assertMeasurement(101, measurements.get(1));
+        assertMeasurement(99, measurements.get(2));
+        assertEquals("42", measurements.get(0).getMetric("power").getValueAsString());
+        assertEquals("Power usage", measurements.get(0).getMetric("power").getName());
+    }
+
+    @Test
+    public void testAppend() throws Exception {
+        File file = folder.newFile("append.bin");
+        write(file, 100, 101);
+        write(file, 200);
+        List<HostMeasurement> measurements = read(file);
+        assertEquals(3, measurements.size());
+        assertMeasurement(101, measurements.get(1));
+        assertMeasurement(200, measurements.get(2));
+        try (BinaryMeasurementReader reader = new BinaryMeasurementReader(file, HOST)) {
+            while (reader.hasNext()) {
+                reader.next();
+            }
+            //The dictionary is restored rather than written out again
+            assertEquals(createMeasurement(0).getMetricCount(), reader.getDictionary().size());
+            assertEquals(file.length(), reader.getValidLength());
+        }
+    }
+
+    @Test
+    public void testTruncatedTail() throws Exception {
+        File file = folder.newFile("truncated.bin");
+        write(file, 100, 101);
+        try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+            raf.setLength(file.length() - 3);
+        }
+        List<HostMeasurement> measurements = read(file);
+        assertEquals(1, measurements.size());
+        write(file, 200);
+        measurements = read(file);
+        assertEquals(2, measurements.size());
+        assertMeasurement(100, measurements.get(0));
+        assertMeasurement(200, measurements.get(1));
+    }
+
+    @Test
+    public void testTruncatedHeader() throws Exception {
+        File file = folder.newFile("header.bin");
+        try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+            raf.writeShort(BinaryMeasurementLogger.MAGIC >>> 16);
+        }
+        write(file, 100);
+        List<HostMeasurement> measurements = read(file);
+        assertEquals(1, measurements.size());
+        assertMeasurement(100, measurements.get(0));
+    }
+
+    @Test
+    public void testCorruptFileMovedAside() throws Exception {
+        File file = folder.newFile("corrupt.bin");
+        write(file, 100, 101);
+        long length = file.length();
+        try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+            //The first record's tag follows the magic number and version
+            raf.seek(5);
+            raf.write(99);
+        }
+        write(file, 200);
+        File aside = null;
+        for (File candidate : folder.getRoot().listFiles()) {
+            if (candidate.getName().startsWith("corrupt.bin.corrupt-")) {
+                aside = candidate;
+            }
+        }
+        assertNotNull(aside);
+        //None of the corrupt file is discarded
+        assertEquals(length, aside.length());
+        List<HostMeasurement> measurements = read(file);
+        assertEquals(1, measurements.size());
+        assertMeasurement(200, measurements.get(0));
+    }
+
+    @Test
+    public void testReaderStopsAtCorruption() throws Exception {
+        File file = folder.newFile("reader.bin");
+        write(file, 100);
+        try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+            raf.seek(raf.length());
+            raf.write(99);
+            raf.write(0);
+        }
+        try (BinaryMeasurementReader reader = new BinaryMeasurementReader(file, HOST)) {
+            assertNotNull(reader.next());
+            assertFalse(reader.hasNext());
+            assertTrue(reader.isCorrupt());
+            assertEquals(file.length() - 2, reader.getValidLength());
+        }
+    }
+
+}
@@ -0,0 +1,248 @@
+/**
+ * Copyright 2018 University of Leeds
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package eu.ascetic.zabbixdatalogger.datasource;
+
+import eu.ascetic.zabbixdatalogger.datasource.CachingDataSourceAdaptor.Query;
+import eu.ascetic.zabbixdatalogger.datasource.types.Host;
+import eu.ascetic.zabbixdatalogger.datasource.types.MonitoredEntity;
+import eu.ascetic.zabbixdatalogger.datasource.types.VmDeployed;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * This tests the caching of answers, the fallback to the last good answer
+ * when the data source fails and the sharing of identical queries.
+ *
+ * @author Richard Kavanagh
+ */
+public class CachingDataSourceAdaptorTest {
+
+    private StubAdaptor stub;
+    private CachingDataSourceAdaptor cache;
+
+    /**
+     * A data source whose host list and host data are counted and may be set
+     * to fail.
+     */
+    private static class StubAdaptor implements DataSourceAdaptor {
+
+        private final AtomicInteger hostListCalls = new AtomicInteger();
+        private final AtomicInteger hostDataCalls = new AtomicInteger();
+        private volatile boolean failing = false;
+        private volatile boolean giveNull = false;
+        private volatile CountDownLatch release = null;
+
+        @Override
+        public List<Host> getHostList() {
+            hostListCalls.incrementAndGet();
+            if (failing) {
+                throw new IllegalStateException("The data source is down");
+            }
+            if (giveNull) {
+                return null;
+            }
+            List<Host> answer = new ArrayList<>();
+            answer.add(new Host(1, "host1"));
+            return answer;
+        }
+
+        @Override
+        public HostMeasurement getHostData(Host host) {
+            hostDataCalls.incrementAndGet();
+            CountDownLatch latch = release;
+            if (latch != null) {
+                try {
+                    latch.await(10, TimeUnit.SECONDS);
+                } catch (InterruptedException ex) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+            return new HostMeasurement(host, 100);
+        }
+
+        @Override
+        public Host getHostByName(String hostname) {
+            return null;
+        }
+
+        @Override
+        public VmDeployed getVmByName(String name) {
+            return null;
+        }
+
+        @Override
+        public List<MonitoredEntity> getHostAndVmList() {
+            return null;
+        }
+
+        @Override
+        public List<VmDeployed> getVmList() {
+            return null;
+        }
+
+        @Override
+        public List<HostMeasurement> getHostData() {
+            return null;
+        }
+
+        @Override
+        public List<HostMeasurement> getHostData(List<Host> hostList) {
+            return null;
+        }
+
+        @Override
+        public VmMeasurement getVmData(VmDeployed vm) {
+            return null;
+        }
+
+        @Override
+        public List<VmMeasurement> getVmData() {
+            return null;
+        }
+
+        @Override
+        public List<VmMeasurement> getVmData(List<VmDeployed> vmList) {
+            return null;
+        }
+
+        @Override
+        public double getLowestHostPowerUsage(Host host) {
+            return 0.0;
+        }
+
+        @Override
+        public double getHighestHostPowerUsage(Host host) {
+            return 0.0;
+        }
+
+        @Override
+        public double getCpuUtilisation(Host host, int durationSeconds) {
+            return 0.0;
+        }
+    }
+
+    @Before
+    public void setUp() {
+        stub = new StubAdaptor();
+        cache = new CachingDataSourceAdaptor(stub);
+    }
+
+    @After
+    public void tearDown() {
+        cache.close();
+    }
+
+    @Test
+    public void testCachedWithinTimeToLive() {
+        List<Host> first = cache.getHostList();
+        List<Host> second = cache.getHostList();
+        assertSame(first, second);
+        assertEquals(1, stub.hostListCalls.get());
+    }
+
+    @Test
+    public void testReloadedAfterTimeToLive() throws Exception {
+        cache.setTimeToLive(Query.HOST_LIST, 50);
+        List<Host> first = cache.getHostList();
+        Thread.sleep(100);
+        List<Host> second = cache.getHostList();
+        assertEquals(2, stub.hostListCalls.get());
+        assertTrue(first != second);
+    }
+
+    @Test
+    public void testNotCachedWithoutTimeToLive() {
+        cache.setTimeToLive(Query.HOST_LIST, 0);
+        cache.getHostList();
+        cache.getHostList();
+        assertEquals(2, stub.hostListCalls.get());
+    }
+
+    @Test
+    public void testFallbackOnFailure() throws Exception {
+        cache.setTimeToLive(Query.HOST_LIST, 50);
+        List<Host> good = cache.getHostList();
+        stub.failing = true;
+        Thread.sleep(100);
+        assertSame(good, cache.getHostList());
+        assertEquals(2, stub.hostListCalls.get());
+    }
+
+    @Test
+    public void testFallbackOnNull() throws Exception {
+        cache.setTimeToLive(Query.HOST_LIST, 50);
+        List<Host> good = cache.getHostList();
+        stub.giveNull = true;
+        Thread.sleep(100);
+        assertSame(good, cache.getHostList());
+    }
+
+    @Test
+    public void testNullNotCached() {
+        stub.giveNull = true;
+        assertNull(cache.getHostList());
+        stub.giveNull = false;
+        assertEquals(1, cache.getHostList().size());
+        assertEquals(2, stub.hostListCalls.get());
+    }
+
+    @Test
+    public void testFailureWithoutEarlierAnswer() {
+        stub.failing = true;
+        assertNull(cache.getHostList());
+    }
+
+    @Test
+    public void testIdenticalQueriesShared() throws Exception {
+        final Host host = new Host(1, "host1");
+        stub.release = new CountDownLatch(1);
+        final HostMeasurement[] answers = new HostMeasurement[2];
+        Thread[] callers = new Thread[2];
+        for (int i = 0; i < callers.length; i++) {
+            final int index = i;
+            callers[i] = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    answers[index] = cache.getHostData(host);
+                }
+            });
+            callers[i].start();
+        }
+        //Give both callers time to ask before the data source answers
+        Thread.sleep(200);
+        stub.release.countDown();
+        for (Thread caller : callers) {
+            caller.join(10000);
+        }
+        assertEquals(1, stub.hostDataCalls.get());
+        assertSame(answers[0], answers[1]);
+        //Measurements are not cached, so a later query calls the data source
+        stub.release = null;
+        cache.getHostData(host);
+        assertEquals(2, stub.hostDataCalls.get());
+    }
+
+}
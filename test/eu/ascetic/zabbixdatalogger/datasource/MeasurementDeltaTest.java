@@ -0,0 +1,126 @@
+/**
+ * Copyright 2018 University of Leeds
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package eu.ascetic.zabbixdatalogger.datasource;
+
+import eu.ascetic.zabbixdatalogger.datasource.types.Host;
+import java.util.HashSet;
+import java.util.Set;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * This tests the working out of which metrics changed between measurements.
+ *
+ * @author Richard Kavanagh
+ */
+public class MeasurementDeltaTest {
+
+    private MeasurementDelta delta;
+    private HostMeasurement measurement;
+
+    @Before
+    public void setUp() {
+        delta = new MeasurementDelta();
+        measurement = new HostMeasurement(new Host(1, "host1"), 100);
+        measurement.addMetric(new MetricValue("power", "power", 10.0, 100));
+        measurement.addMetric(new MetricValue("cpu", "cpu", 5L, 100));
+        measurement.addMetric(new MetricValue("state", "state", "up", 100));
+    }
+
+    /**
+     * This gives the keys of the metrics that changed in the last comparison.
+     *
+     * @return The keys of the changed metrics
+     */
+    private Set<String> getChangedKeys() {
+        Set<String> answer = new HashSet<>();
+        for (int i = 0; i < delta.getChangedCount(); i++) {
+            answer.add(delta.getChanged(i).getKey());
+        }
+        return answer;
+    }
+
+    @Test
+    public void testFirstMeasurementAllChanged() {
+        assertEquals(3, delta.compare("host1", measurement));
+        assertEquals(0, delta.getRemovedCount());
+    }
+
+    @Test
+    public void testUnchanged() {
+        delta.compare("host1", measurement);
+        assertEquals(0, delta.compare("host1", measurement));
+        assertEquals(0, delta.getRemovedCount());
+    }
+
+    @Test
+    public void testChangedInPlace() {
+        delta.compare("host1", measurement);
+        //The previous state is a copy, so changing the measurement is seen
+        measurement.addMetric(new MetricValue("power", "power", 12.0, 101));
+        assertEquals(1, delta.compare("host1", measurement));
+        assertEquals("power", delta.getChanged(0).getKey());
+        assertEquals(12.0, delta.getChanged(0).getValue(), 0);
+    }
+
+    @Test
+    public void testClockOnlyChange() {
+        delta.compare("host1", measurement);
+        measurement.addMetric(new MetricValue("state", "state", "up", 101));
+        assertEquals(1, delta.compare("host1", measurement));
+        assertEquals("state", delta.getChanged(0).getKey());
+    }
+
+    @Test
+    public void testAddedAndRemoved() {
+        delta.compare("host1", measurement);
+        measurement.deleteMetric("cpu");
+        measurement.addMetric(new MetricValue("memory", "memory", 7L, 100));
+        assertEquals(1, delta.compare("host1", measurement));
+        assertEquals("memory", delta.getChanged(0).getKey());
+        assertEquals(1, delta.getRemovedCount());
+        assertEquals("cpu", delta.getRemoved(0));
+    }
+
+    @Test
+    public void testSourcesAreSeparate() {
+        delta.compare("host1", measurement);
+        assertEquals(3, delta.compare("host2", measurement));
+        assertEquals(0, delta.compare("host1", measurement));
+    }
+
+    @Test
+    public void testReset() {
+        delta.compare("host1", measurement);
+        delta.reset("host1");
+        assertEquals(3, delta.compare("host1", measurement));
+        assertTrue(getChangedKeys().contains("state"));
+    }
+
+    @Test
+    public void testManyComparisons() {
+        //The two copies held for a source are swapped after each comparison
+        for (long clock = 101; clock < 110; clock++) {
+            delta.compare("host1", measurement);
+            measurement.addMetric(new MetricValue("power", "power", (double) clock, clock));
+            assertEquals(1, delta.compare("host1", measurement));
+            assertEquals(0, delta.compare("host1", measurement));
+        }
+    }
+
+}
@@ -0,0 +1,122 @@
+/**
+ * Copyright 2018 University of Leeds
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package eu.ascetic.zabbixdatalogger.datasource;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import org.junit.Test;
+
+/**
+ * This tests the accuracy of the quantiles given by a quantile sketch and
+ * that sketches merge exactly.
+ *
+ * @author Richard Kavanagh
+ */
+public class QuantileSketchTest {
+
+    /**
+     * This checks that an estimate is within the relative accuracy of the
+     * true value.
+     *
+     * @param expected The true value
+     * @param actual The estimated value
+     * @param accuracy The relative accuracy of the sketch
+     */
+    private static void assertWithin(double expected, double actual, double accuracy) {
+        assertTrue("Expected " + expected + " but was " + actual,
+                Math.abs(actual - expected) <= Math.abs(expected) * accuracy + 1e-9);
+    }
+
+    @Test
+    public void testAccuracy() {
+        QuantileSketch sketch = new QuantileSketch(0.01);
+        int count = 100000;
+        for (int i = 1; i <= count; i++) {
+            sketch.add(i);
+        }
+        assertEquals(count, sketch.getCount());
+        assertEquals(1, sketch.getMin(), 0);
+        assertEquals(count, sketch.getMax(), 0);
+        for (double quantile : QuantileSketch.STANDARD_QUANTILES) {
+            double expected = 1 + Math.floor(quantile * (count - 1));
+            assertWithin(expected, sketch.getQuantile(quantile), 0.01);
+        }
+        assertEquals(1, sketch.getQuantile(0), 0);
+        assertEquals(count, sketch.getQuantile(1), 0);
+    }
+
+    @Test
+    public void testNegativeAndZeroValues() {
+        QuantileSketch sketch = new QuantileSketch(0.01);
+        for (int i = -50; i <= 50; i++) {
+            sketch.add(i);
+        }
+        sketch.add(Double.NaN);
+        assertEquals(101, sketch.getCount());
+        assertEquals(0, sketch.getQuantile(0.5), 0);
+        assertWithin(-45, sketch.getQuantile(0.05), 0.01);
+        assertWithin(45, sketch.getQuantile(0.95), 0.01);
+    }
+
+    @Test
+    public void testEmpty() {
+        QuantileSketch sketch = new QuantileSketch();
+        assertEquals(0, sketch.getCount());
+        assertTrue(Double.isNaN(sketch.getQuantile(0.5)));
+    }
+
+    @Test
+    public void testMerge() {
+        QuantileSketch whole = new QuantileSketch(0.02);
+        QuantileSketch lower = new QuantileSketch(0.02);
+        QuantileSketch upper = new QuantileSketch(0.02);
+        for (int i = 1; i <= 10000; i++) {
+            double value = Math.sqrt(i) * 3.7;
+            whole.add(value);
+            if (i % 2 == 0) {
+                lower.add(value);
+            } else {
+                upper.add(value);
+            }
+        }
+        lower.merge(upper);
+        assertEquals(whole.getCount(), lower.getCount());
+        assertEquals(whole.getMin(), lower.getMin(), 0);
+        assertEquals(whole.getMax(), lower.getMax(), 0);
+        for (double quantile : QuantileSketch.STANDARD_QUANTILES) {
+            //Merging adds bucket counts, so it is exact
+            assertEquals(whole.getQuantile(quantile), lower.getQuantile(quantile), 0);
+        }
+    }
+
+    @Test
+    public void testMergeEmpty() {
+        QuantileSketch sketch = new QuantileSketch();
+        sketch.add(5);
+        sketch.merge(new QuantileSketch());
+        assertEquals(1, sketch.getCount());
+        QuantileSketch empty = new QuantileSketch();
+        empty.merge(sketch);
+        assertEquals(5, empty.getMin(), 0);
+        assertEquals(5, empty.getMax(), 0);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testMergeDifferentAccuracy() {
+        new QuantileSketch(0.01).merge(new QuantileSketch(0.02));
+    }
+
+}